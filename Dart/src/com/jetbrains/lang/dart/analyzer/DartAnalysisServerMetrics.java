@@ -0,0 +1,230 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import com.google.dart.server.internal.remote.ResponseStreamMonitor;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the communication with the analysis server, collected since the project was opened.
+ * All methods are thread-safe and cheap enough to be called for every request and notification.
+ * <p>
+ * Shown in the internal 'Dart Analysis Server Metrics' tool window, {@link #toJson()} gives the same data for external tools.
+ */
+public final class DartAnalysisServerMetrics implements ResponseStreamMonitor {
+
+  private static final String RESPONSE = "response";
+
+  static final class Histogram {
+    // upper bounds of the buckets in microseconds, the last bucket has no upper bound
+    private static final long[] BUCKET_BOUNDS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000,
+      2500000};
+
+    private final long[] myBucketCounts = new long[BUCKET_BOUNDS.length + 1];
+    private long myCount;
+    private long myTotal;
+    private long myMax;
+
+    synchronized void record(final long nanos) {
+      final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS.length && micros > BUCKET_BOUNDS[bucket]) {
+        bucket++;
+      }
+      myBucketCounts[bucket]++;
+      myCount++;
+      myTotal += micros;
+      myMax = Math.max(myMax, micros);
+    }
+
+    synchronized void reset() {
+      Arrays.fill(myBucketCounts, 0);
+      myCount = 0;
+      myTotal = 0;
+      myMax = 0;
+    }
+
+    @NotNull
+    synchronized JsonObject toJson() {
+      final JsonObject result = new JsonObject();
+      result.addProperty("count", myCount);
+      result.addProperty("averageMicros", myCount == 0 ? 0 : myTotal / myCount);
+      result.addProperty("maxMicros", myMax);
+
+      final JsonArray buckets = new JsonArray();
+      for (int i = 0; i < myBucketCounts.length; i++) {
+        if (myBucketCounts[i] == 0) continue;
+        final JsonObject bucket = new JsonObject();
+        bucket.addProperty("upToMicros", i < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[i] : -1);
+        bucket.addProperty("count", myBucketCounts[i]);
+        buckets.add(bucket);
+      }
+      result.add("buckets", buckets);
+      return result;
+    }
+  }
+
+  private static final class RequestMetrics {
+    private final Histogram myLatency = new Histogram();
+    private long myTimedOutCount;
+    private long myDroppedCount;
+
+    @NotNull
+    private JsonObject toJson() {
+      final JsonObject result = myLatency.toJson();
+      synchronized (this) {
+        result.addProperty("timedOut", myTimedOutCount);
+        result.addProperty("dropped", myDroppedCount);
+      }
+      return result;
+    }
+  }
+
+  private static final class MessageMetrics {
+    private long myCount;
+    private long myTotalSize;
+    private long myMaxSize;
+
+    private synchronized void record(final int size) {
+      myCount++;
+      myTotalSize += size;
+      myMaxSize = Math.max(myMaxSize, size);
+    }
+
+    @NotNull
+    private synchronized JsonObject toJson() {
+      final JsonObject result = new JsonObject();
+      result.addProperty("count", myCount);
+      result.addProperty("totalSize", myTotalSize);
+      result.addProperty("maxSize", myMaxSize);
+      return result;
+    }
+  }
+
+  private final long myStartTime = System.currentTimeMillis();
+  private final ConcurrentMap<String, RequestMetrics> myRequests = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, MessageMetrics> myMessages = new ConcurrentHashMap<>();
+  private final Histogram myForceFileAnnotation = new Histogram();
+  private final Histogram myOffsetConversion = new Histogram();
+  private final Histogram myCompletionFromCache = new Histogram();
+  private final Histogram myCompletionFromServer = new Histogram();
+  private final AtomicLong myReannotateRequestCount = new AtomicLong();
+  private final AtomicLong myReannotateRestartCount = new AtomicLong();
+  private volatile int myQueueSize;
+  private volatile int myMaxQueueSize;
+
+  /**
+   * @param nanos time from submitting the request till the caller stopped waiting for the response
+   * @param sent  <code>false</code> if the request has been dropped by {@link DartRequestScheduler} without sending
+   */
+  void requestFinished(@NotNull final String method, final long nanos, final boolean sent, final boolean responseReceived) {
+    final RequestMetrics metrics = myRequests.computeIfAbsent(method, key -> new RequestMetrics());
+    if (responseReceived) {
+      metrics.myLatency.record(nanos);
+      return;
+    }
+
+    synchronized (metrics) {
+      if (sent) {
+        metrics.myTimedOutCount++;
+      }
+      else {
+        metrics.myDroppedCount++;
+      }
+    }
+  }
+
+  /**
+   * @param requestCount number of coalesced forceFileAnnotation() calls
+   * @param restartCount number of files actually re-highlighted
+   */
+  void forceFileAnnotationDone(final long nanos, final int requestCount, final int restartCount) {
+    myForceFileAnnotation.record(nanos);
+    myReannotateRequestCount.addAndGet(requestCount);
+    myReannotateRestartCount.addAndGet(restartCount);
+  }
+
+  void offsetsConverted(final long nanos) {
+    myOffsetConversion.record(nanos);
+  }
+
+  /**
+   * @param nanos     time from the start of code completion till the suggestions were added to the lookup
+   * @param fromCache <code>true</code> for the suggestions of the previous keystroke, shown while waiting for the server
+   */
+  public void completionShown(final long nanos, final boolean fromCache) {
+    (fromCache ? myCompletionFromCache : myCompletionFromServer).record(nanos);
+  }
+
+  @Override
+  public void messageRead(@Nullable final String event, final int size, final int queueSize) {
+    myMessages.computeIfAbsent(event != null ? event : RESPONSE, key -> new MessageMetrics()).record(size);
+    myQueueSize = queueSize;
+    if (queueSize > myMaxQueueSize) {
+      // racy, but only the reader thread of the response stream updates it
+      myMaxQueueSize = queueSize;
+    }
+  }
+
+  public void reset() {
+    myRequests.clear();
+    myMessages.clear();
+    // histograms are not replaced because DartServerData may be recording into them right now
+    myForceFileAnnotation.reset();
+    myOffsetConversion.reset();
+    myCompletionFromCache.reset();
+    myCompletionFromServer.reset();
+    myReannotateRequestCount.set(0);
+    myReannotateRestartCount.set(0);
+    myMaxQueueSize = myQueueSize;
+  }
+
+  @NotNull
+  public String toJson() {
+    final JsonObject result = new JsonObject();
+    result.addProperty("uptimeMillis", System.currentTimeMillis() - myStartTime);
+
+    final JsonObject requests = new JsonObject();
+    for (Map.Entry<String, RequestMetrics> entry : new TreeMap<>(myRequests).entrySet()) {
+      requests.add(entry.getKey(), entry.getValue().toJson());
+    }
+    result.add("requests", requests);
+
+    final JsonObject messages = new JsonObject();
+    for (Map.Entry<String, MessageMetrics> entry : new TreeMap<>(myMessages).entrySet()) {
+      messages.add(entry.getKey(), entry.getValue().toJson());
+    }
+    result.add("messages", messages);
+
+    final JsonObject responseQueue = new JsonObject();
+    responseQueue.addProperty("size", myQueueSize);
+    responseQueue.addProperty("maxSize", myMaxQueueSize);
+    result.add("responseQueue", responseQueue);
+
+    final JsonObject forceFileAnnotation = myForceFileAnnotation.toJson();
+    final long requestCount = myReannotateRequestCount.get();
+    final long restartCount = myReannotateRestartCount.get();
+    forceFileAnnotation.addProperty("requested", requestCount);
+    forceFileAnnotation.addProperty("restarted", restartCount);
+    forceFileAnnotation.addProperty("saved", requestCount - restartCount);
+    result.add("forceFileAnnotation", forceFileAnnotation);
+    result.add("offsetConversion", myOffsetConversion.toJson());
+
+    final JsonObject completion = new JsonObject();
+    completion.add("fromCache", myCompletionFromCache.toJson());
+    completion.add("fromServer", myCompletionFromServer.toJson());
+    result.add("completion", completion);
+
+    return new GsonBuilder().setPrettyPrinting().create().toJson(result);
+  }
+}
@@ -57,6 +57,7 @@ import com.jetbrains.lang.dart.DartBundle;
 import com.jetbrains.lang.dart.DartFileListener;
 import com.jetbrains.lang.dart.DartFileType;
 import com.jetbrains.lang.dart.DartYamlFileTypeFactory;
+import com.jetbrains.lang.dart.analyzer.DartRequestScheduler.Priority;
 import com.jetbrains.lang.dart.assists.DartQuickAssistIntention;
 import com.jetbrains.lang.dart.assists.QuickAssistSet;
 import com.jetbrains.lang.dart.ide.errorTreeView.DartFeedbackBuilder;
@@ -76,6 +77,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -84,6 +86,8 @@ public class DartAnalysisServerService implements Disposable {
   public static final String MIN_SDK_VERSION = "1.12";
 
   private static final long UPDATE_FILES_TIMEOUT = 300;
+  // upper bound for the adaptive delay before sending changed files content to a slow server
+  private static final long UPDATE_FILES_MAX_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
 
   private static final long CHECK_CANCELLED_PERIOD = 10;
   private static final long SEND_REQUEST_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
@@ -114,19 +118,28 @@ public class DartAnalysisServerService implements Disposable {
   @NotNull private final Project myProject;
   private boolean myInitializationOnServerStartupDone = false;
 
+  // Guards server start and stop only, readers use myServerState without locking.
   // Do not wait for server response under lock. Do not take read/write action under lock.
+  // Lock order: myLock, then myUpdateFilesLock, then myVisibleFilesLock.
   private final Object myLock = new Object();
-  @Nullable private AnalysisServer myServer;
-  @Nullable private StdioServerSocket myServerSocket;
+  // Replaced as a whole on server start and stop, so a single read gives a consistent view of the server lifecycle.
+  @NotNull private volatile ServerState myServerState = ServerState.STOPPED;
 
   @NotNull private String myServerVersion = "";
-  @NotNull private String mySdkVersion = "";
-  @Nullable private String mySdkHome = null;
 
   private final DartServerRootsHandler myRootsHandler;
-  private final Map<String, Long> myFilePathWithOverlaidContentToTimestamp = new THashMap<>();
-  private final List<String> myVisibleFiles = new ArrayList<>();
-  private final Set<Document> myChangedDocuments = new THashSet<>();
+  private final Map<String, Long> myFilePathWithOverlaidContentToTimestamp = new ConcurrentHashMap<>();
+  // Replaced as a whole (under myVisibleFilesLock) when the set of visible files changes, never modified in place.
+  @NotNull private volatile List<String> myVisibleFiles = Collections.emptyList();
+  private final Object myVisibleFilesLock = new Object();
+  private final Set<Document> myChangedDocuments = ContainerUtil.newConcurrentSet();
+  // Serializes doUpdateFilesContent() calls so that overlay state is not sent twice, does not block document listeners.
+  private final Object myUpdateFilesLock = new Object();
+  private final DartPendingEdits myPendingEdits = new DartPendingEdits();
+  private final DartAnalysisServerMetrics myMetrics = new DartAnalysisServerMetrics();
+  private final DartRequestScheduler myRequestScheduler = new DartRequestScheduler(myMetrics);
+  // exponential moving average of analysis_updateContent round trip time, used to adapt UPDATE_FILES_TIMEOUT to a slow server
+  private volatile long myUpdateContentLatency;
   private final Alarm myUpdateFilesAlarm;
 
   @NotNull private final Queue<CompletionInfo> myCompletionInfos = new LinkedList<>();
@@ -279,7 +292,7 @@ public class DartAnalysisServerService implements Disposable {
       }
 
       String errorMessage =
-        "Dart analysis server, SDK version " + mySdkVersion +
+        "Dart analysis server, SDK version " + myServerState.sdkVersion +
         ", server version " + myServerVersion +
         ", " + (isFatal ? "FATAL " : "") + "error: " + message + "\n" + stackTrace;
       myErrorReporter.report(errorMessage);
@@ -372,20 +385,27 @@ public class DartAnalysisServerService implements Disposable {
            : FileOffsetsManager.getInstance().getOriginalOffset(file, convertedOffset);
   }
 
+  /**
+   * Same as {@link #getConvertedOffset(VirtualFile, int)} for all regions of a server notification at once: offsets and lengths
+   * are converted in place with a single walk over the file line table (see {@link FileOffsetsManager#convertOffsets}).
+   */
+  public void convertOffsetsAndLengths(@Nullable final VirtualFile file, @NotNull final int[] offsets, @Nullable final int[] lengths) {
+    if (file == null || myFilePathWithOverlaidContentToTimestamp.containsKey(file.getPath())) return;
+    final long start = System.nanoTime();
+    FileOffsetsManager.getInstance().convertOffsets(file, offsets, lengths);
+    myMetrics.offsetsConverted(System.nanoTime() - start);
+  }
+
   public int[] getConvertedOffsets(@NotNull final VirtualFile file, final int[] _offsets) {
-    final int[] offsets = new int[_offsets.length];
-    for (int i = 0; i < _offsets.length; i++) {
-      offsets[i] = getConvertedOffset(file, _offsets[i]);
-    }
+    final int[] offsets = _offsets.clone();
+    convertOffsetsAndLengths(file, offsets, null);
     return offsets;
   }
 
   public int[] getConvertedLengths(@NotNull final VirtualFile file, final int[] _offsets, final int[] _lengths) {
-    final int[] offsets = getConvertedOffsets(file, _offsets);
-    final int[] lengths = new int[_lengths.length];
-    for (int i = 0; i < _lengths.length; i++) {
-      lengths[i] = getConvertedOffset(file, _offsets[i] + _lengths[i]) - offsets[i];
-    }
+    final int[] offsets = _offsets.clone();
+    final int[] lengths = _lengths.clone();
+    convertOffsetsAndLengths(file, offsets, lengths);
     return lengths;
   }
 
@@ -573,24 +593,27 @@ public class DartAnalysisServerService implements Disposable {
     final DocumentListener documentListener = new DocumentListener() {
       @Override
       public void beforeDocumentChange(DocumentEvent e) {
-        if (myServer == null) return;
+        if (myServerState.server == null) return;
 
         myServerData.onDocumentChanged(e);
 
         final VirtualFile file = FileDocumentManager.getInstance().getFile(e.getDocument());
         if (isLocalAnalyzableFile(file)) {
+          if (myFilePathWithOverlaidContentToTimestamp.containsKey(file.getPath())) {
+            myPendingEdits.beforeDocumentChange(file.getPath(), e.getDocument().getModificationStamp(), e.getOffset(), e.getOldLength(),
+                                                e.getNewFragment(), e.getDocument().getTextLength());
+          }
+
           for (VirtualFile fileInEditor : FileEditorManager.getInstance(myProject).getOpenFiles()) {
             if (fileInEditor.equals(file)) {
-              synchronized (myLock) {
-                myChangedDocuments.add(e.getDocument());
-              }
+              myChangedDocuments.add(e.getDocument());
               break;
             }
           }
         }
 
         myUpdateFilesAlarm.cancelAllRequests();
-        myUpdateFilesAlarm.addRequest(DartAnalysisServerService.this::updateFilesContent, UPDATE_FILES_TIMEOUT);
+        myUpdateFilesAlarm.addRequest(DartAnalysisServerService.this::updateFilesContent, getUpdateFilesTimeout());
       }
     };
 
@@ -658,7 +681,7 @@ public class DartAnalysisServerService implements Disposable {
   void updateVisibleFiles() {
     ApplicationManager.getApplication().assertReadAccessAllowed();
 
-    synchronized (myLock) {
+    synchronized (myVisibleFilesLock) {
       final List<String> newVisibleFiles = new ArrayList<>();
 
       for (VirtualFile file : FileEditorManager.getInstance(myProject).getSelectedFiles()) {
@@ -668,8 +691,7 @@ public class DartAnalysisServerService implements Disposable {
       }
 
       if (!Comparing.haveEqualElements(myVisibleFiles, newVisibleFiles)) {
-        myVisibleFiles.clear();
-        myVisibleFiles.addAll(newVisibleFiles);
+        myVisibleFiles = Collections.unmodifiableList(newVisibleFiles);
         analysis_setPriorityFiles();
         analysis_setSubscriptions();
       }
@@ -690,15 +712,18 @@ public class DartAnalysisServerService implements Disposable {
   }
 
   public void updateFilesContent() {
-    if (myServer != null) {
+    if (myServerState.server != null) {
       ApplicationManager.getApplication().runReadAction(this::doUpdateFilesContent);
     }
   }
 
-  private void doUpdateFilesContent() {
-    // may be use DocumentListener to collect deltas instead of sending the whole Document.getText() each time?
+  private long getUpdateFilesTimeout() {
+    // let keystrokes accumulate for longer if the server is slow to accept content updates
+    return Math.max(UPDATE_FILES_TIMEOUT, Math.min(UPDATE_FILES_MAX_TIMEOUT, 2 * myUpdateContentLatency));
+  }
 
-    AnalysisServer server = myServer;
+  private void doUpdateFilesContent() {
+    AnalysisServer server = myServerState.server;
     if (server == null) {
       return;
     }
@@ -706,16 +731,26 @@ public class DartAnalysisServerService implements Disposable {
     myUpdateFilesAlarm.cancelAllRequests();
 
     final Map<String, Object> filesToUpdate = new THashMap<>();
+    // documents sent with Add- or ChangeContentOverlay, resent in full if the server rejects the request
+    final Map<String, Document> overlaidDocuments = new THashMap<>();
     ApplicationManager.getApplication().assertReadAccessAllowed();
-    synchronized (myLock) {
+    synchronized (myUpdateFilesLock) {
+      if (myServerState.server != server) {
+        return; // stopped or restarted, the overlays are sent to the new server from scratch
+      }
+
       final Set<String> oldTrackedFiles = new THashSet<>(myFilePathWithOverlaidContentToTimestamp.keySet());
 
       final FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
 
       // some documents in myChangedDocuments may be updated by external change, suxh as switch branch, that's why we track them,
       // getUnsavedDocuments() is not enough, we must make sure that overlaid content is sent for for myChangedDocuments as well (to trigger DAS notifications)
-      final Set<Document> documents = new THashSet<>(myChangedDocuments);
-      myChangedDocuments.clear();
+      final Set<Document> documents = new THashSet<>();
+      for (Iterator<Document> iterator = myChangedDocuments.iterator(); iterator.hasNext(); ) {
+        // remove one by one, documents may be added concurrently by the DocumentListener
+        documents.add(iterator.next());
+        iterator.remove();
+      }
       ContainerUtil.addAll(documents, fileDocumentManager.getUnsavedDocuments());
 
       for (Document document : documents) {
@@ -725,8 +760,11 @@ public class DartAnalysisServerService implements Disposable {
 
           final Long oldTimestamp = myFilePathWithOverlaidContentToTimestamp.get(file.getPath());
           if (oldTimestamp == null || document.getModificationStamp() != oldTimestamp) {
-            filesToUpdate.put(FileUtil.toSystemDependentName(file.getPath()), new AddContentOverlay(document.getText()));
+            final List<SourceEdit> edits = oldTimestamp == null ? null : myPendingEdits.takeEdits(file.getPath(), oldTimestamp);
+            final Object overlay = edits != null ? new ChangeContentOverlay(edits) : new AddContentOverlay(document.getText());
+            filesToUpdate.put(FileUtil.toSystemDependentName(file.getPath()), overlay);
             myFilePathWithOverlaidContentToTimestamp.put(file.getPath(), document.getModificationStamp());
+            overlaidDocuments.put(file.getPath(), document);
           }
         }
       }
@@ -738,6 +776,9 @@ public class DartAnalysisServerService implements Disposable {
         filesToUpdate.put(FileUtil.toSystemDependentName(oldPath), new RemoveContentOverlay());
       }
 
+      // edits of the files that were not sent now are of no use, next time such files get full content
+      myPendingEdits.clear();
+
       if (LOG.isDebugEnabled()) {
         final Set<String> overlaid = new THashSet<>(filesToUpdate.keySet());
         for (String removeOverlaid : oldTrackedFiles) {
@@ -754,12 +795,47 @@ public class DartAnalysisServerService implements Disposable {
     }
 
     if (!filesToUpdate.isEmpty()) {
-      server.analysis_updateContent(filesToUpdate, myServerData::onFilesContentUpdated);
+      // held back requests have offsets in the content that the server has now
+      myRequestScheduler.sendQueued(filesToUpdate.keySet());
+
+      final long startTime = System.currentTimeMillis();
+      server.analysis_updateContent(filesToUpdate, new UpdateContentConsumer() {
+        @Override
+        public void onResponse() {
+          myUpdateContentLatency = (3 * myUpdateContentLatency + System.currentTimeMillis() - startTime) / 4;
+          myServerData.onFilesContentUpdated();
+        }
+
+        @Override
+        public void onError(RequestError requestError) {
+          LOG.info("analysis_updateContent failed, resending full content: " + requestError.getCode() + ", " +
+                   requestError.getMessage());
+          resendOverlaidContent(server, overlaidDocuments);
+        }
+      });
     }
   }
 
+  /**
+   * The server has not applied the overlays, so deltas for these documents would not match what it has, forget the timestamps to send
+   * AddContentOverlay next time.
+   */
+  private void resendOverlaidContent(@NotNull final AnalysisServer server, @NotNull final Map<String, Document> overlaidDocuments) {
+    synchronized (myUpdateFilesLock) {
+      if (myServerState.server != server) return;
+
+      for (Map.Entry<String, Document> entry : overlaidDocuments.entrySet()) {
+        myFilePathWithOverlaidContentToTimestamp.remove(entry.getKey());
+        myChangedDocuments.add(entry.getValue());
+      }
+    }
+
+    myUpdateFilesAlarm.cancelAllRequests();
+    myUpdateFilesAlarm.addRequest(this::updateFilesContent, getUpdateFilesTimeout());
+  }
+
   public boolean updateRoots(@NotNull final List<String> includedRoots, @NotNull final List<String> excludedRoots) {
-    AnalysisServer server = myServer;
+    AnalysisServer server = myServerState.server;
     if (server == null) {
       return false;
     }
@@ -833,14 +909,14 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
     final List<HoverInformation> result = Lists.newArrayList();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) {
       return HoverInformation.EMPTY_LIST;
     }
 
     final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
-    server.analysis_getHover(filePath, offset, new GetHoverConsumer() {
+    final GetHoverConsumer consumer = new GetHoverConsumer() {
       @Override
       public void computedHovers(HoverInformation[] hovers) {
         Collections.addAll(result, hovers);
@@ -852,9 +928,12 @@ public class DartAnalysisServerService implements Disposable {
         logError("analysis_getHover()", filePath, error);
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.INTERACTIVE, "analysis_getHover", filePath,
+                                () -> server.analysis_getHover(filePath, offset, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, GET_HOVER_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, GET_HOVER_TIMEOUT, request);
     return result;
   }
 
@@ -865,7 +944,7 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
     final Ref<List<DartServerData.DartNavigationRegion>> resultRef = Ref.create();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) {
       return null;
     }
@@ -874,7 +953,7 @@ public class DartAnalysisServerService implements Disposable {
     LOG.debug("analysis_getNavigation(" + filePath + ")");
 
     final int offset = getOriginalOffset(file, _offset);
-    server.analysis_getNavigation(filePath, offset, length, new GetNavigationConsumer() {
+    final GetNavigationConsumer consumer = new GetNavigationConsumer() {
       @Override
       public void computedNavigation(final List<NavigationRegion> regions) {
         final List<DartServerData.DartNavigationRegion> dartRegions = new ArrayList<>(regions.size());
@@ -899,9 +978,12 @@ public class DartAnalysisServerService implements Disposable {
 
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.INTERACTIVE, "analysis_getNavigation", filePath,
+                                () -> server.analysis_getNavigation(filePath, offset, length, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, GET_NAVIGATION_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, GET_NAVIGATION_TIMEOUT, request);
 
     if (latch.getCount() > 0) {
       LOG.info("analysis_getNavigation() took more than " + GET_NAVIGATION_TIMEOUT + "ms for file " + filePath);
@@ -915,7 +997,7 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
     final List<SourceChange> results = Lists.newArrayList();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) {
       return results;
     }
@@ -923,7 +1005,7 @@ public class DartAnalysisServerService implements Disposable {
     final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
     final int length = getOriginalOffset(file, _offset + _length) - offset;
-    server.edit_getAssists(filePath, offset, length, new GetAssistsConsumer() {
+    final GetAssistsConsumer consumer = new GetAssistsConsumer() {
       @Override
       public void computedSourceChanges(List<SourceChange> sourceChanges) {
         results.addAll(sourceChanges);
@@ -935,9 +1017,12 @@ public class DartAnalysisServerService implements Disposable {
         logError("edit_getAssists()", filePath, error);
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.VISIBLE, "edit_getAssists", filePath,
+                                () -> server.edit_getAssists(filePath, offset, length, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, GET_ASSISTS_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, GET_ASSISTS_TIMEOUT, request);
     return results;
   }
 
@@ -945,7 +1030,7 @@ public class DartAnalysisServerService implements Disposable {
   public SourceChange edit_getStatementCompletion(@NotNull final VirtualFile file, final int _offset) {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) {
       return null;
     }
@@ -953,20 +1038,23 @@ public class DartAnalysisServerService implements Disposable {
     final Ref<SourceChange> resultRef = Ref.create();
     final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
-    server.edit_getStatementCompletion(filePath, offset, new GetStatementCompletionConsumer() {
+    final GetStatementCompletionConsumer consumer = new GetStatementCompletionConsumer() {
       @Override
       public void computedSourceChange(SourceChange sourceChange) {
         resultRef.set(sourceChange);
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.INTERACTIVE, "edit_getStatementCompletion", filePath,
+                                () -> server.edit_getStatementCompletion(filePath, offset, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, STATEMENT_COMPLETION_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, STATEMENT_COMPLETION_TIMEOUT, request);
     return resultRef.get();
   }
 
   public void diagnostic_getServerPort(GetServerPortConsumer consumer) {
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) {
       consumer.onError(new RequestError(ExtendedRequestErrorCode.INVALID_SERVER_RESPONSE,
                                         "The analysis server is not running.", null));
@@ -985,12 +1073,12 @@ public class DartAnalysisServerService implements Disposable {
                                                       @NotNull final Consumer<List<AnalysisErrorFixes>> consumer) {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return;
 
     final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
-    server.edit_getFixes(filePath, offset, new GetFixesConsumer() {
+    final GetFixesConsumer serverConsumer = new GetFixesConsumer() {
       @Override
       public void computedFixes(final List<AnalysisErrorFixes> fixes) {
         consumer.consume(fixes);
@@ -1002,9 +1090,11 @@ public class DartAnalysisServerService implements Disposable {
         logError("edit_getFixes()", filePath, error);
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.VISIBLE, "edit_getFixes", filePath, () -> server.edit_getFixes(filePath, offset, serverConsumer));
 
-    awaitForLatchCheckingCanceled(server, latch, GET_FIXES_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, GET_FIXES_TIMEOUT, request);
   }
 
   public void search_findElementReferences(@NotNull final VirtualFile file,
@@ -1013,12 +1103,12 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
     final Ref<String> searchIdRef = new Ref<>();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return;
 
     final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
-    server.search_findElementReferences(filePath, offset, true, new FindElementReferencesConsumer() {
+    final FindElementReferencesConsumer serverConsumer = new FindElementReferencesConsumer() {
       @Override
       public void computedElementReferences(String searchId, Element element) {
         searchIdRef.set(searchId);
@@ -1030,9 +1120,12 @@ public class DartAnalysisServerService implements Disposable {
         LOG.info(getShortErrorMessage("search_findElementReferences()", filePath, error));
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.BACKGROUND, "search_findElementReferences", filePath,
+                                () -> server.search_findElementReferences(filePath, offset, true, serverConsumer));
 
-    awaitForLatchCheckingCanceled(server, latch, FIND_ELEMENT_REFERENCES_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, FIND_ELEMENT_REFERENCES_TIMEOUT, request);
 
     if (latch.getCount() > 0) {
       LOG.info("search_findElementReferences() took too long for " + filePath + "@" + offset);
@@ -1072,14 +1165,14 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
     final List<TypeHierarchyItem> results = Lists.newArrayList();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) {
       return results;
     }
 
     final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
-    server.search_getTypeHierarchy(filePath, offset, superOnly, new GetTypeHierarchyConsumer() {
+    final GetTypeHierarchyConsumer consumer = new GetTypeHierarchyConsumer() {
       @Override
       public void computedHierarchy(List<TypeHierarchyItem> hierarchyItems) {
         results.addAll(hierarchyItems);
@@ -1091,9 +1184,12 @@ public class DartAnalysisServerService implements Disposable {
         logError("search_getTypeHierarchy()", filePath, error);
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.BACKGROUND, "search_getTypeHierarchy", filePath,
+                                () -> server.search_getTypeHierarchy(filePath, offset, superOnly, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, GET_TYPE_HIERARCHY_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, GET_TYPE_HIERARCHY_TIMEOUT, request);
     return results;
   }
 
@@ -1102,14 +1198,14 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
     final Ref<String> resultRef = new Ref<>();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) {
       return null;
     }
 
     final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
-    server.completion_getSuggestions(filePath, offset, new GetSuggestionsConsumer() {
+    final GetSuggestionsConsumer consumer = new GetSuggestionsConsumer() {
       @Override
       public void computedCompletionId(@NotNull final String completionId) {
         resultRef.set(completionId);
@@ -1121,9 +1217,12 @@ public class DartAnalysisServerService implements Disposable {
         // Not a problem. Happens if a file is outside of the project, or server is just not ready yet.
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.INTERACTIVE, "completion_getSuggestions", filePath,
+                                () -> server.completion_getSuggestions(filePath, offset, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, GET_SUGGESTIONS_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, GET_SUGGESTIONS_TIMEOUT, request);
     return resultRef.get();
   }
 
@@ -1135,13 +1234,13 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
     final Ref<FormatResult> resultRef = new Ref<>();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return null;
 
     final CountDownLatch latch = new CountDownLatch(1);
     final int selectionOffset = getOriginalOffset(file, _selectionOffset);
     final int selectionLength = getOriginalOffset(file, _selectionOffset + _selectionLength) - selectionOffset;
-    server.edit_format(filePath, selectionOffset, selectionLength, lineLength, new FormatConsumer() {
+    final FormatConsumer consumer = new FormatConsumer() {
       @Override
       public void computedFormat(final List<SourceEdit> edits, final int selectionOffset, final int selectionLength) {
         resultRef.set(new FormatResult(edits, selectionOffset, selectionLength));
@@ -1159,9 +1258,12 @@ public class DartAnalysisServerService implements Disposable {
 
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.BACKGROUND, "edit_format", filePath,
+                                () -> server.edit_format(filePath, selectionOffset, selectionLength, lineLength, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, EDIT_FORMAT_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, EDIT_FORMAT_TIMEOUT, request);
 
     if (latch.getCount() > 0) {
       LOG.info("edit_format() took too long for file " + filePath);
@@ -1179,7 +1281,7 @@ public class DartAnalysisServerService implements Disposable {
                                      GetRefactoringConsumer consumer) {
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return false;
 
     final int offset = getOriginalOffset(file, _offset);
@@ -1193,12 +1295,12 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(_filePath);
     final Ref<SourceFileEdit> resultRef = new Ref<>();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return null;
 
     final CountDownLatch latch = new CountDownLatch(1);
 
-    server.edit_organizeDirectives(filePath, new OrganizeDirectivesConsumer() {
+    final OrganizeDirectivesConsumer consumer = new OrganizeDirectivesConsumer() {
       @Override
       public void computedEdit(final SourceFileEdit edit) {
         resultRef.set(edit);
@@ -1217,9 +1319,12 @@ public class DartAnalysisServerService implements Disposable {
 
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.BACKGROUND, "edit_organizeDirectives", filePath,
+                                () -> server.edit_organizeDirectives(filePath, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, EDIT_ORGANIZE_DIRECTIVES_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, EDIT_ORGANIZE_DIRECTIVES_TIMEOUT, request);
 
     if (latch.getCount() > 0) {
       LOG.info("edit_organizeDirectives() took too long for file " + filePath);
@@ -1233,11 +1338,11 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(_filePath);
     final Ref<SourceFileEdit> resultRef = new Ref<>();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return null;
 
     final CountDownLatch latch = new CountDownLatch(1);
-    server.edit_sortMembers(filePath, new SortMembersConsumer() {
+    final SortMembersConsumer consumer = new SortMembersConsumer() {
       @Override
       public void computedEdit(final SourceFileEdit edit) {
         resultRef.set(edit);
@@ -1256,9 +1361,11 @@ public class DartAnalysisServerService implements Disposable {
 
         latch.countDown();
       }
-    });
+    };
+    final DartRequestScheduler.Request request =
+      myRequestScheduler.submit(Priority.BACKGROUND, "edit_sortMembers", filePath, () -> server.edit_sortMembers(filePath, consumer));
 
-    awaitForLatchCheckingCanceled(server, latch, EDIT_SORT_MEMBERS_TIMEOUT);
+    awaitForLatchCheckingCanceled(server, latch, EDIT_SORT_MEMBERS_TIMEOUT, request);
 
     if (latch.getCount() > 0) {
       LOG.info("edit_sortMembers() took too long for file " + filePath);
@@ -1268,7 +1375,7 @@ public class DartAnalysisServerService implements Disposable {
   }
 
   public void analysis_reanalyze() {
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return;
 
     server.analysis_reanalyze(null);
@@ -1277,35 +1384,35 @@ public class DartAnalysisServerService implements Disposable {
   }
 
   private void analysis_setPriorityFiles() {
-    synchronized (myLock) {
-      if (myServer == null) return;
-
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("analysis_setPriorityFiles, files:\n" + StringUtil.join(myVisibleFiles, ",\n"));
-      }
+    final AnalysisServer server = myServerState.server;
+    if (server == null) return;
 
-      myServer.analysis_setPriorityFiles(myVisibleFiles);
+    final List<String> visibleFiles = myVisibleFiles;
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("analysis_setPriorityFiles, files:\n" + StringUtil.join(visibleFiles, ",\n"));
     }
+
+    server.analysis_setPriorityFiles(visibleFiles);
   }
 
   private void analysis_setSubscriptions() {
-    synchronized (myLock) {
-      if (myServer == null) return;
-
-      final Map<String, List<String>> subscriptions = new THashMap<>();
-      subscriptions.put(AnalysisService.HIGHLIGHTS, myVisibleFiles);
-      subscriptions.put(AnalysisService.NAVIGATION, myVisibleFiles);
-      subscriptions.put(AnalysisService.OVERRIDES, myVisibleFiles);
-      if (StringUtil.compareVersionNumbers(mySdkVersion, "1.13") >= 0) {
-        subscriptions.put(AnalysisService.IMPLEMENTED, myVisibleFiles);
-      }
+    final ServerState state = myServerState;
+    if (state.server == null) return;
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("analysis_setSubscriptions, subscriptions:\n" + subscriptions);
-      }
+    final List<String> visibleFiles = myVisibleFiles;
+    final Map<String, List<String>> subscriptions = new THashMap<>();
+    subscriptions.put(AnalysisService.HIGHLIGHTS, visibleFiles);
+    subscriptions.put(AnalysisService.NAVIGATION, visibleFiles);
+    subscriptions.put(AnalysisService.OVERRIDES, visibleFiles);
+    if (StringUtil.compareVersionNumbers(state.sdkVersion, "1.13") >= 0) {
+      subscriptions.put(AnalysisService.IMPLEMENTED, visibleFiles);
+    }
 
-      myServer.analysis_setSubscriptions(subscriptions);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("analysis_setSubscriptions, subscriptions:\n" + subscriptions);
     }
+
+    state.server.analysis_setSubscriptions(subscriptions);
   }
 
   @Nullable
@@ -1313,7 +1420,7 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = FileUtil.toSystemDependentName(_filePath);
     final Ref<String> resultRef = new Ref<>();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return null;
 
     final CountDownLatch latch = new CountDownLatch(1);
@@ -1341,7 +1448,7 @@ public class DartAnalysisServerService implements Disposable {
   }
 
   public void execution_deleteContext(@NotNull final String contextId) {
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server != null) {
       server.execution_deleteContext(contextId);
     }
@@ -1360,7 +1467,7 @@ public class DartAnalysisServerService implements Disposable {
     final String filePath = _filePath != null ? FileUtil.toSystemDependentName(_filePath) : null;
     final Ref<String> resultRef = new Ref<>();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return null;
 
     final CountDownLatch latch = new CountDownLatch(1);
@@ -1400,11 +1507,11 @@ public class DartAnalysisServerService implements Disposable {
 
   private void startServer(@NotNull final DartSdk sdk) {
     synchronized (myLock) {
-      mySdkHome = sdk.getHomePath();
+      final String sdkHome = sdk.getHomePath();
 
       final String runtimePath = FileUtil.toSystemDependentName(DartSdkUtil.getDartExePath(sdk));
 
-      String analysisServerPath = FileUtil.toSystemDependentName(mySdkHome + "/bin/snapshots/analysis_server.dart.snapshot");
+      String analysisServerPath = FileUtil.toSystemDependentName(sdkHome + "/bin/snapshots/analysis_server.dart.snapshot");
       analysisServerPath = System.getProperty("dart.server.path", analysisServerPath);
 
       String dasStartupErrorMessage = "";
@@ -1453,13 +1560,15 @@ public class DartAnalysisServerService implements Disposable {
         // NOP
       }
 
-      myServerSocket =
+      final StdioServerSocket serverSocket =
         new StdioServerSocket(runtimePath, StringUtil.split(vmArgsRaw, " "), analysisServerPath, StringUtil.split(serverArgsRaw, " "),
                               debugStream);
-      myServerSocket.setClientId(getClientId());
-      myServerSocket.setClientVersion(getClientVersion());
+      serverSocket.setClientId(getClientId());
+      serverSocket.setClientVersion(getClientVersion());
+      serverSocket.setStreamingDecoding(Registry.is("dart.server.streaming.decoding", false));
+      serverSocket.setResponseStreamMonitor(myMetrics);
 
-      final AnalysisServer startedServer = new RemoteAnalysisServerImpl(myServerSocket);
+      final AnalysisServer startedServer = new RemoteAnalysisServerImpl(serverSocket);
 
       try {
         startedServer.start();
@@ -1483,18 +1592,16 @@ public class DartAnalysisServerService implements Disposable {
         startedServer.addStatusListener(isAlive -> {
           if (!isAlive) {
             synchronized (myLock) {
-              if (startedServer == myServer) {
+              if (startedServer == myServerState.server) {
                 stopServer();
               }
             }
           }
         });
 
-        mySdkVersion = sdk.getVersion();
-
         startedServer.analysis_updateOptions(new AnalysisOptions(true, true, true, true, true, false, true, false));
 
-        myServer = startedServer;
+        myServerState = new ServerState(startedServer, serverSocket, sdkHome, sdk.getVersion());
       }
       catch (Exception e) {
         LOG.warn("Failed to start Dart analysis server", e);
@@ -1504,26 +1611,37 @@ public class DartAnalysisServerService implements Disposable {
   }
 
   public boolean isServerProcessActive() {
-    synchronized (myLock) {
-      return myServer != null && myServer.isSocketOpen();
-    }
+    final AnalysisServer server = myServerState.server;
+    return server != null && server.isSocketOpen();
   }
 
   public boolean isServerResponsive() {
     if (maxMillisToWaitForServerResponse == 0L) return true; // UI has not finished initialization yet.
     if (!(myAnalysisInProgress || myPubListInProgress)) return true;
-    long responseMillis, requestMillis;
-    synchronized (myLock) {
-      if (myServer == null) return false;
-      responseMillis = myServer.getLastResponseMillis();
-      requestMillis = myServer.getLastRequestMillis();
-    }
+    final AnalysisServer server = myServerState.server;
+    if (server == null) return false;
+    final long responseMillis = server.getLastResponseMillis();
+    final long requestMillis = server.getLastRequestMillis();
     if (responseMillis == 0L) return true; // Allow UI to start in good state even if it becomes unknown later.
     if (requestMillis <= responseMillis) return true;
     long delta = System.currentTimeMillis() - requestMillis;
     return delta > maxMillisToWaitForServerResponse;
   }
 
+  /**
+   * Latency of the requests sent by this service since the project was opened, per request priority. Queue delay is the time a
+   * request was held back by the client before sending it to the server.
+   */
+  @NotNull
+  public Map<Priority, DartRequestScheduler.LatencyStats> getRequestLatencyStats() {
+    return myRequestScheduler.getLatencyStats();
+  }
+
+  @NotNull
+  public DartAnalysisServerMetrics getMetrics() {
+    return myMetrics;
+  }
+
   public boolean serverReadyForRequest(@NotNull final Project project) {
     final DartSdk sdk = DartSdk.getDartSdk(project);
     if (sdk == null || !isDartSdkVersionSufficient(sdk)) {
@@ -1532,17 +1650,21 @@ public class DartAnalysisServerService implements Disposable {
     }
 
     ApplicationManager.getApplication().assertReadAccessAllowed();
+
+    // fast path without locking, this method is called very often, including from the EDT
+    if (myServerState.isServing(sdk)) return true;
+
     synchronized (myLock) {
-      if (myServer == null || !sdk.getHomePath().equals(mySdkHome) || !sdk.getVersion().equals(mySdkVersion) || !myServer.isSocketOpen()) {
+      if (!myServerState.isServing(sdk)) {
         stopServer();
         startServer(sdk);
 
-        if (myServer != null) {
+        if (myServerState.server != null) {
           myRootsHandler.ensureProjectServed();
         }
       }
 
-      return myServer != null;
+      return myServerState.server != null;
     }
   }
 
@@ -1553,16 +1675,20 @@ public class DartAnalysisServerService implements Disposable {
 
   void stopServer() {
     synchronized (myLock) {
-      if (myServer != null) {
+      final ServerState state = myServerState;
+      // publish the stopped state first, so that no new requests are sent to the server being stopped
+      myServerState = ServerState.STOPPED;
+
+      if (state.server != null) {
         LOG.debug("stopping server");
-        myServer.removeAnalysisServerListener(myAnalysisServerListener);
+        state.server.removeAnalysisServerListener(myAnalysisServerListener);
 
-        myServer.server_shutdown();
+        state.server.server_shutdown();
 
         long startTime = System.currentTimeMillis();
-        while (myServerSocket != null && myServerSocket.isOpen()) {
+        while (state.socket != null && state.socket.isOpen()) {
           if (System.currentTimeMillis() - startTime > SEND_REQUEST_TIMEOUT) {
-            myServerSocket.stop();
+            state.socket.stop();
             break;
           }
           Uninterruptibles.sleepUninterruptibly(CHECK_CANCELLED_PERIOD, TimeUnit.MILLISECONDS);
@@ -1572,12 +1698,15 @@ public class DartAnalysisServerService implements Disposable {
       stopShowingServerProgress();
       myUpdateFilesAlarm.cancelAllRequests();
 
-      myServerSocket = null;
-      myServer = null;
-      mySdkHome = null;
-      myFilePathWithOverlaidContentToTimestamp.clear();
-      myVisibleFiles.clear();
-      myChangedDocuments.clear();
+      // an update that read the old server may still be running, it must not leave its overlay state or visible files to the next server
+      synchronized (myUpdateFilesLock) {
+        synchronized (myVisibleFilesLock) {
+          myFilePathWithOverlaidContentToTimestamp.clear();
+          myPendingEdits.clear();
+          myVisibleFiles = Collections.emptyList();
+          myChangedDocuments.clear();
+        }
+      }
       myServerData.clearData();
       myRootsHandler.reset();
 
@@ -1590,7 +1719,7 @@ public class DartAnalysisServerService implements Disposable {
   public void waitForAnalysisToComplete_TESTS_ONLY(@NotNull final VirtualFile file) {
     assert ApplicationManager.getApplication().isUnitTestMode();
 
-    final AnalysisServer server = myServer;
+    final AnalysisServer server = myServerState.server;
     if (server == null) return;
 
     final CountDownLatch latch = new CountDownLatch(1);
@@ -1659,7 +1788,7 @@ public class DartAnalysisServerService implements Disposable {
   private String getShortErrorMessage(@NotNull String methodName, @Nullable String filePath, @NotNull RequestError error) {
     return "Error from " + methodName +
            (filePath == null ? "" : (", file = " + filePath)) +
-           ", SDK version = " + mySdkVersion +
+           ", SDK version = " + myServerState.sdkVersion +
            ", server version = " + myServerVersion +
            ", error code = " + error.getCode() + ": " + error.getMessage();
   }
@@ -1667,21 +1796,45 @@ public class DartAnalysisServerService implements Disposable {
   private static boolean awaitForLatchCheckingCanceled(@NotNull final AnalysisServer server,
                                                        @NotNull final CountDownLatch latch,
                                                        long timeoutInMillis) {
+    return awaitForLatchCheckingCanceled(server, latch, timeoutInMillis, null);
+  }
+
+  /**
+   * @param request if not <code>null</code> then it is finished when this method exits; if it is still held back by the scheduler
+   *                at this moment (the caller is canceled) then it is never sent; the timeout starts when it is sent
+   */
+  private static boolean awaitForLatchCheckingCanceled(@NotNull final AnalysisServer server,
+                                                       @NotNull final CountDownLatch latch,
+                                                       long timeoutInMillis,
+                                                       @Nullable final DartRequestScheduler.Request request) {
     if (ApplicationManager.getApplication().isUnitTestMode()) {
       timeoutInMillis *= TESTS_TIMEOUT_COEFF;
     }
 
-    long startTime = System.currentTimeMillis();
-    while (true) {
-      ProgressManager.checkCanceled();
-      if (!server.isSocketOpen()) {
-        return false;
-      }
-      if (timeoutInMillis != -1 && System.currentTimeMillis() > startTime + timeoutInMillis) {
-        return false;
+    boolean received = false;
+    try {
+      long startTime = request == null ? System.currentTimeMillis() : -1;
+      while (true) {
+        ProgressManager.checkCanceled();
+        if (!server.isSocketOpen()) {
+          return false;
+        }
+        if (startTime == -1) {
+          request.sendIfOverdue();
+          startTime = request.getSendTime(); // -1 while held back by the scheduler
+        }
+        if (timeoutInMillis != -1 && startTime != -1 && System.currentTimeMillis() > startTime + timeoutInMillis) {
+          return false;
+        }
+        if (Uninterruptibles.awaitUninterruptibly(latch, CHECK_CANCELLED_PERIOD, TimeUnit.MILLISECONDS)) {
+          received = true;
+          return true;
+        }
       }
-      if (Uninterruptibles.awaitUninterruptibly(latch, CHECK_CANCELLED_PERIOD, TimeUnit.MILLISECONDS)) {
-        return true;
+    }
+    finally {
+      if (request != null) {
+        request.finished(received);
       }
     }
   }
@@ -1745,6 +1898,32 @@ public class DartAnalysisServerService implements Disposable {
     }
   }
 
+  /**
+   * Immutable snapshot of the server lifecycle state. Swapped as a whole under myLock, read without locking.
+   */
+  private static final class ServerState {
+    static final ServerState STOPPED = new ServerState(null, null, null, "");
+
+    @Nullable final AnalysisServer server;
+    @Nullable final StdioServerSocket socket;
+    @Nullable final String sdkHome;
+    @NotNull final String sdkVersion;
+
+    ServerState(@Nullable final AnalysisServer server,
+                @Nullable final StdioServerSocket socket,
+                @Nullable final String sdkHome,
+                @NotNull final String sdkVersion) {
+      this.server = server;
+      this.socket = socket;
+      this.sdkHome = sdkHome;
+      this.sdkVersion = sdkVersion;
+    }
+
+    boolean isServing(@NotNull final DartSdk sdk) {
+      return server != null && sdk.getHomePath().equals(sdkHome) && sdk.getVersion().equals(sdkVersion) && server.isSocketOpen();
+    }
+  }
+
   /**
    * Ask the user to report an error in the analysis server, subject to these constraints:
    * - The same message is not reported twice in a row
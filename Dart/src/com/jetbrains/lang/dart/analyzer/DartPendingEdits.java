@@ -0,0 +1,137 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import org.dartlang.analysis.server.protocol.SourceEdit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects document changes made after the overlaid content of a file has been sent to the analysis server, so that the next
+ * analysis_updateContent request can send a short list of {@link SourceEdit}s (ChangeContentOverlay) instead of the whole document.
+ * Consecutive changes touching the same region (typing, backspacing) are coalesced into one edit.
+ * <p>
+ * If the log for a file grows too large, or if it is not known to be based on the overlaid content that the server has, the caller
+ * gets <code>null</code> from {@link #takeEdits(String, long)} and should send the full document text instead.
+ */
+final class DartPendingEdits {
+
+  static final int MAX_EDITS_PER_FILE = 100;
+
+  private static class Edit {
+    private int myOffset;
+    private int myLength;
+    @NotNull private String myReplacement;
+
+    private Edit(final int offset, final int length, @NotNull final String replacement) {
+      myOffset = offset;
+      myLength = length;
+      myReplacement = replacement;
+    }
+  }
+
+  private static class FileEdits {
+    private final long myBaseModificationStamp;
+    private final List<Edit> myEdits = new ArrayList<>();
+    private long myReplacementLength;
+    private boolean myTooLarge;
+
+    private FileEdits(final long baseModificationStamp) {
+      myBaseModificationStamp = baseModificationStamp;
+    }
+  }
+
+  private final Map<String, FileEdits> myFileEdits = new ConcurrentHashMap<>();
+
+  /**
+   * Must be called before each change of the document.
+   *
+   * @param modificationStamp document modification stamp before the change
+   * @param documentLength    document length before the change
+   */
+  void beforeDocumentChange(@NotNull final String filePath,
+                            final long modificationStamp,
+                            final int offset,
+                            final int oldLength,
+                            @NotNull final CharSequence newFragment,
+                            final int documentLength) {
+    FileEdits fileEdits = myFileEdits.get(filePath);
+    if (fileEdits == null) {
+      fileEdits = new FileEdits(modificationStamp);
+      myFileEdits.put(filePath, fileEdits);
+    }
+
+    synchronized (fileEdits) {
+      if (fileEdits.myTooLarge) return;
+
+      final String replacement = newFragment.toString();
+      final List<Edit> edits = fileEdits.myEdits;
+      final Edit last = edits.isEmpty() ? null : edits.get(edits.size() - 1);
+      if (last == null || !mergeInto(last, offset, oldLength, replacement)) {
+        edits.add(new Edit(offset, oldLength, replacement));
+      }
+
+      fileEdits.myReplacementLength += replacement.length();
+      // sending the whole document is cheaper than a long edit list that rewrites most of it
+      if (edits.size() > MAX_EDITS_PER_FILE || fileEdits.myReplacementLength > Math.max(documentLength, 1024) / 2) {
+        fileEdits.myTooLarge = true;
+        edits.clear();
+      }
+    }
+  }
+
+  /**
+   * Removes collected edits for the file and returns them if they can be applied to the overlaid content with the given
+   * modification stamp, or <code>null</code> if the full document text should be sent.
+   */
+  @Nullable
+  List<SourceEdit> takeEdits(@NotNull final String filePath, final long overlaidContentModificationStamp) {
+    final FileEdits fileEdits = myFileEdits.remove(filePath);
+    if (fileEdits == null) return null;
+
+    synchronized (fileEdits) {
+      if (fileEdits.myTooLarge || fileEdits.myBaseModificationStamp != overlaidContentModificationStamp) return null;
+
+      final List<SourceEdit> result = new ArrayList<>(fileEdits.myEdits.size());
+      for (Edit edit : fileEdits.myEdits) {
+        result.add(new SourceEdit(edit.myOffset, edit.myLength, edit.myReplacement, null));
+      }
+      return result;
+    }
+  }
+
+  void clear() {
+    myFileEdits.clear();
+  }
+
+  /**
+   * Tries to merge a new change into the previous edit. The previous edit has replaced <code>last.myLength</code> chars at
+   * <code>last.myOffset</code> with <code>last.myReplacement</code>; the new change is expressed in terms of the resulting text.
+   * Changes are merged if they overlap or touch, in this case all text that the merged edit needs is in the previous replacement.
+   *
+   * @return <code>false</code> if the change is not adjacent to the previous edit and should be recorded separately
+   */
+  private static boolean mergeInto(@NotNull final Edit last, final int offset, final int oldLength, @NotNull final String replacement) {
+    final String lastReplacement = last.myReplacement;
+    final int lastStart = last.myOffset;
+    final int lastEnd = lastStart + lastReplacement.length();
+    final int end = offset + oldLength;
+
+    if (offset > lastEnd || end < lastStart) return false;
+
+    final String prefix = offset > lastStart ? lastReplacement.substring(0, offset - lastStart) : "";
+    final String suffix = end < lastEnd ? lastReplacement.substring(Math.max(0, end - lastStart)) : "";
+
+    final int mergedStart = Math.min(lastStart, offset);
+    // text after the previous edit is shifted by its length delta relative to the original text
+    final int mergedEndInOriginal = Math.max(lastEnd, end) - lastReplacement.length() + last.myLength;
+
+    last.myOffset = mergedStart;
+    last.myLength = mergedEndInOriginal - mergedStart;
+    last.myReplacement = prefix + replacement + suffix;
+    return true;
+  }
+}
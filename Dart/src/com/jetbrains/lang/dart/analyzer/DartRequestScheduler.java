@@ -0,0 +1,307 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Client-side ordering of analysis server requests. The server handles requests strictly in the order they are received, so a
+ * long-running background request (search, formatting, refactoring) sent just before a completion or hover request delays it.
+ * <p>
+ * {@link Priority#INTERACTIVE} and {@link Priority#VISIBLE} requests are sent at once. {@link Priority#BACKGROUND} requests are held back
+ * while a higher priority request is in flight, and only {@link #MAX_BACKGROUND_REQUESTS_IN_FLIGHT} of them are sent at a time, but
+ * never longer than {@link #MAX_BACKGROUND_DELAY} ms. The caller's timeout starts when the request is sent, see {@link Request#getSendTime()}.
+ * A held request whose caller stops waiting (canceled progress indicator) is never sent.
+ */
+public final class DartRequestScheduler {
+
+  public enum Priority {
+    /**
+     * Completion, hover, navigation: the user waits for the result while typing.
+     */
+    INTERACTIVE,
+    /**
+     * Quick fixes and assists for the file in the editor.
+     */
+    VISIBLE,
+    /**
+     * Search, type hierarchy, formatting, refactoring.
+     */
+    BACKGROUND
+  }
+
+  static final int MAX_BACKGROUND_REQUESTS_IN_FLIGHT = 1;
+  static final long MAX_BACKGROUND_DELAY = 500;
+
+  public static final class LatencyStats {
+    private int myCount;
+    private int myDroppedCount;
+    private int myTimedOutCount;
+    private long myTotalQueueDelay;
+    private long myMaxQueueDelay;
+    private long myTotalLatency;
+    private long myMaxLatency;
+
+    private LatencyStats() {
+    }
+
+    private LatencyStats(@NotNull final LatencyStats other) {
+      myCount = other.myCount;
+      myDroppedCount = other.myDroppedCount;
+      myTimedOutCount = other.myTimedOutCount;
+      myTotalQueueDelay = other.myTotalQueueDelay;
+      myMaxQueueDelay = other.myMaxQueueDelay;
+      myTotalLatency = other.myTotalLatency;
+      myMaxLatency = other.myMaxLatency;
+    }
+
+    /**
+     * Number of requests sent to the server and answered in time.
+     */
+    public int getCount() {
+      return myCount;
+    }
+
+    /**
+     * Number of requests that were never sent because the caller stopped waiting while they were held back.
+     */
+    public int getDroppedCount() {
+      return myDroppedCount;
+    }
+
+    /**
+     * Number of requests sent to the server but not answered before the caller stopped waiting.
+     */
+    public int getTimedOutCount() {
+      return myTimedOutCount;
+    }
+
+    public long getAverageQueueDelay() {
+      return myCount == 0 ? 0 : myTotalQueueDelay / myCount;
+    }
+
+    public long getMaxQueueDelay() {
+      return myMaxQueueDelay;
+    }
+
+    /**
+     * Time from submitting a request to receiving the response, including the queue delay.
+     */
+    public long getAverageLatency() {
+      return myCount == 0 ? 0 : myTotalLatency / myCount;
+    }
+
+    public long getMaxLatency() {
+      return myMaxLatency;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + myCount + ", dropped=" + myDroppedCount + ", timed out=" + myTimedOutCount +
+             ", queue delay avg/max=" + getAverageQueueDelay() + "/" + myMaxQueueDelay + "ms" +
+             ", latency avg/max=" + getAverageLatency() + "/" + myMaxLatency + "ms";
+    }
+  }
+
+  final class Request {
+    @NotNull private final Priority myPriority;
+    @NotNull private final String myMethod;
+    @Nullable private final String myFilePath;
+    @NotNull private final Runnable mySender;
+    private final long mySubmitTime = System.currentTimeMillis();
+    private final long mySubmitNanoTime = System.nanoTime();
+    private long mySendTime = -1;
+    private boolean myFinished;
+
+    private Request(@NotNull final Priority priority,
+                    @NotNull final String method,
+                    @Nullable final String filePath,
+                    @NotNull final Runnable sender) {
+      myPriority = priority;
+      myMethod = method;
+      myFilePath = filePath;
+      mySender = sender;
+    }
+
+    boolean isSent() {
+      synchronized (myLock) {
+        return mySendTime >= 0;
+      }
+    }
+
+    /**
+     * @return time when the request was sent to the server, -1 while it is held back; time spent in the queue must not count against
+     * the caller's timeout
+     */
+    long getSendTime() {
+      synchronized (myLock) {
+        return mySendTime;
+      }
+    }
+
+    /**
+     * Called periodically by the waiting caller, makes sure that a background request is not held back forever.
+     */
+    void sendIfOverdue() {
+      synchronized (myLock) {
+        if (mySendTime >= 0 || myFinished || System.currentTimeMillis() - mySubmitTime < MAX_BACKGROUND_DELAY) return;
+        myQueue.remove(this);
+        markSent(this);
+      }
+      mySender.run();
+    }
+
+    /**
+     * Must be called exactly once when the caller stops waiting for the response.
+     *
+     * @param responseReceived <code>false</code> if the caller has been canceled or has timed out
+     */
+    void finished(final boolean responseReceived) {
+      final List<Request> toSend;
+      synchronized (myLock) {
+        if (myFinished) return;
+        myFinished = true;
+
+        final boolean sent = mySendTime >= 0;
+        if (myMetrics != null) {
+          myMetrics.requestFinished(myMethod, System.nanoTime() - mySubmitNanoTime, sent, responseReceived);
+        }
+
+        final LatencyStats stats = myStats[myPriority.ordinal()];
+        if (!sent) {
+          myQueue.remove(this);
+          stats.myDroppedCount++;
+          return;
+        }
+
+        myInFlight[myPriority.ordinal()]--;
+        if (responseReceived) {
+          final long now = System.currentTimeMillis();
+          final long queueDelay = mySendTime - mySubmitTime;
+          final long latency = now - mySubmitTime;
+          stats.myCount++;
+          stats.myTotalQueueDelay += queueDelay;
+          stats.myMaxQueueDelay = Math.max(stats.myMaxQueueDelay, queueDelay);
+          stats.myTotalLatency += latency;
+          stats.myMaxLatency = Math.max(stats.myMaxLatency, latency);
+        }
+        else {
+          stats.myTimedOutCount++;
+        }
+
+        toSend = pollSendable();
+      }
+
+      sendAll(toSend);
+    }
+  }
+
+  private final Object myLock = new Object();
+  private final int[] myInFlight = new int[Priority.values().length];
+  // held back BACKGROUND requests in the order of submission
+  private final LinkedList<Request> myQueue = new LinkedList<>();
+  private final LatencyStats[] myStats = new LatencyStats[Priority.values().length];
+  @Nullable private final DartAnalysisServerMetrics myMetrics;
+
+  DartRequestScheduler(@Nullable final DartAnalysisServerMetrics metrics) {
+    myMetrics = metrics;
+    for (int i = 0; i < myStats.length; i++) {
+      myStats[i] = new LatencyStats();
+    }
+  }
+
+  /**
+   * Sends the request at once or holds it back according to its priority. The caller must call {@link Request#finished(boolean)}
+   * when it stops waiting for the response.
+   *
+   * @param method   protocol method name, used as a key for {@link DartAnalysisServerMetrics}
+   * @param filePath the file the request refers to by offset, see {@link #sendQueued(Collection)}
+   * @param sender   sends the request to the server
+   */
+  @NotNull
+  Request submit(@NotNull final Priority priority,
+                 @NotNull final String method,
+                 @Nullable final String filePath,
+                 @NotNull final Runnable sender) {
+    final Request request = new Request(priority, method, filePath, sender);
+    synchronized (myLock) {
+      if (priority == Priority.BACKGROUND && !canSendBackground()) {
+        myQueue.add(request);
+        return request;
+      }
+      markSent(request);
+    }
+
+    sender.run();
+    return request;
+  }
+
+  /**
+   * Sends held back requests for the given files. Must be called before sending new content of these files to the server,
+   * because offsets in the requests are valid for the current content only.
+   */
+  void sendQueued(@NotNull final Collection<String> filePaths) {
+    final List<Request> toSend = new ArrayList<>();
+    synchronized (myLock) {
+      if (myQueue.isEmpty()) return;
+
+      for (Iterator<Request> iterator = myQueue.iterator(); iterator.hasNext(); ) {
+        final Request request = iterator.next();
+        if (request.myFilePath != null && filePaths.contains(request.myFilePath)) {
+          iterator.remove();
+          markSent(request);
+          toSend.add(request);
+        }
+      }
+    }
+
+    sendAll(toSend);
+  }
+
+  @NotNull
+  public Map<Priority, LatencyStats> getLatencyStats() {
+    final Map<Priority, LatencyStats> result = new EnumMap<>(Priority.class);
+    synchronized (myLock) {
+      for (Priority priority : Priority.values()) {
+        result.put(priority, new LatencyStats(myStats[priority.ordinal()]));
+      }
+    }
+    return result;
+  }
+
+  int getQueueSize() {
+    synchronized (myLock) {
+      return myQueue.size();
+    }
+  }
+
+  private boolean canSendBackground() {
+    return myInFlight[Priority.INTERACTIVE.ordinal()] == 0 &&
+           myInFlight[Priority.VISIBLE.ordinal()] == 0 &&
+           myInFlight[Priority.BACKGROUND.ordinal()] < MAX_BACKGROUND_REQUESTS_IN_FLIGHT;
+  }
+
+  private void markSent(@NotNull final Request request) {
+    request.mySendTime = System.currentTimeMillis();
+    myInFlight[request.myPriority.ordinal()]++;
+  }
+
+  @NotNull
+  private List<Request> pollSendable() {
+    List<Request> result = null;
+    while (!myQueue.isEmpty() && canSendBackground()) {
+      final Request request = myQueue.removeFirst();
+      markSent(request);
+      if (result == null) result = new ArrayList<>();
+      result.add(request);
+    }
+    return result == null ? Collections.emptyList() : result;
+  }
+
+  private static void sendAll(@NotNull final List<Request> requests) {
+    for (Request request : requests) {
+      request.mySender.run();
+    }
+  }
+}
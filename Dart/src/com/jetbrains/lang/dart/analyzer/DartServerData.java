@@ -2,34 +2,43 @@ package com.jetbrains.lang.dart.analyzer;
 
 import com.google.common.collect.Sets;
 import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
 import com.intellij.psi.impl.source.resolve.ResolveCache;
 import com.intellij.psi.search.SearchScope;
+import com.intellij.util.Alarm;
 import com.intellij.util.SmartList;
 import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
 import org.dartlang.analysis.server.protocol.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DartServerData {
 
+  private static final int REANNOTATE_DELAY = 50;
+
   private final DartAnalysisServerService myService;
 
   private final Map<String, List<DartError>> myErrorData =
     Collections.synchronizedMap(new THashMap<String, List<DartError>>());
-  private final Map<String, List<DartHighlightRegion>> myHighlightData =
-    Collections.synchronizedMap(new THashMap<String, List<DartHighlightRegion>>());
-  private final Map<String, List<DartNavigationRegion>> myNavigationData =
-    Collections.synchronizedMap(new THashMap<String, List<DartNavigationRegion>>());
+  private final Map<String, DartHighlightRegions> myHighlightData =
+    Collections.synchronizedMap(new THashMap<String, DartHighlightRegions>());
+  private final Map<String, DartNavigationRegions> myNavigationData =
+    Collections.synchronizedMap(new THashMap<String, DartNavigationRegions>());
   private final Map<String, List<DartOverrideMember>> myOverrideData =
     Collections.synchronizedMap(new THashMap<String, List<DartOverrideMember>>());
   private final Map<String, List<DartRegion>> myImplementedClassData =
@@ -42,8 +51,16 @@ public class DartServerData {
   // keeps track of files in which error regions have been deleted by DocumentListener (typing inside an error region)
   private final Set<String> myFilePathsWithLostErrorInfo = Sets.newConcurrentHashSet();
 
+  // files waiting for re-highlighting, see forceFileAnnotation(); this field is also used as a lock for the 3 fields below
+  private final Set<VirtualFile> myFilesToReannotate = new THashSet<>();
+  private boolean myClearResolveCache;
+  private int myReannotateRequestCount;
+  private boolean myReannotateScheduled;
+  private final Alarm myReannotateAlarm;
+
   DartServerData(@NotNull final DartAnalysisServerService service) {
     myService = service;
+    myReannotateAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, service);
   }
 
   boolean isErrorInfoLost(@NotNull final String filePath) {
@@ -60,10 +77,17 @@ public class DartServerData {
     final List<DartError> newErrors = new ArrayList<>(errors.size());
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
-    for (AnalysisError error : errors) {
-      final int offset = myService.getConvertedOffset(file, error.getLocation().getOffset());
-      final int length = myService.getConvertedOffset(file, error.getLocation().getOffset() + error.getLocation().getLength()) - offset;
-      newErrors.add(new DartError(error, offset, length));
+    final int[] offsets = new int[errors.size()];
+    final int[] lengths = new int[errors.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      final Location location = errors.get(i).getLocation();
+      offsets[i] = location.getOffset();
+      lengths[i] = location.getLength();
+    }
+    myService.convertOffsetsAndLengths(file, offsets, lengths);
+
+    for (int i = 0; i < offsets.length; i++) {
+      newErrors.add(new DartError(errors.get(i), offsets[i], lengths[i]));
     }
 
     myFilePathsWithLostErrorInfo.remove(filePath);
@@ -79,35 +103,61 @@ public class DartServerData {
   void computedHighlights(@NotNull final String filePath, @NotNull final List<HighlightRegion> regions) {
     if (myFilePathsWithUnsentChanges.contains(filePath)) return;
 
-    final List<DartHighlightRegion> newRegions = new ArrayList<>(regions.size());
+    final int[] offsets = new int[regions.size()];
+    final int[] lengths = new int[regions.size()];
+    final int[] typeIds = new int[regions.size()];
+    int size = 0;
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
     for (HighlightRegion region : regions) {
       if (region.getLength() > 0) {
-        final int offset = myService.getConvertedOffset(file, region.getOffset());
-        final int length = myService.getConvertedOffset(file, region.getOffset() + region.getLength()) - offset;
-        newRegions.add(new DartHighlightRegion(offset, length, region.getType()));
+        offsets[size] = region.getOffset();
+        lengths[size] = region.getLength();
+        typeIds[size] = DartHighlightRegions.getTypeId(region.getType());
+        size++;
       }
     }
+    myService.convertOffsetsAndLengths(file, offsets, lengths);
 
-    myHighlightData.put(filePath, newRegions);
+    myHighlightData.put(filePath, new DartHighlightRegions(offsets, lengths, typeIds, size));
     forceFileAnnotation(file, false);
   }
 
   void computedNavigation(@NotNull final String filePath, @NotNull final List<NavigationRegion> regions) {
     if (myFilePathsWithUnsentChanges.contains(filePath)) return;
 
-    final List<DartNavigationRegion> newRegions = new ArrayList<>(regions.size());
+    final int[] offsets = new int[regions.size()];
+    final int[] lengths = new int[regions.size()];
+    final int[] targetStarts = new int[regions.size() + 1];
+    final TIntArrayList targetIndices = new TIntArrayList(regions.size());
+    // targets are shared between regions, so keep one DartNavigationTarget per server NavigationTarget
+    final Map<NavigationTarget, Integer> targetToIndex = new IdentityHashMap<>();
+    final List<DartNavigationTarget> targets = new ArrayList<>();
+    int size = 0;
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
     for (NavigationRegion region : regions) {
       if (region.getLength() > 0) {
-        final DartNavigationRegion dartNavigationRegion = createDartNavigationRegion(myService, file, region);
-        newRegions.add(dartNavigationRegion);
+        offsets[size] = region.getOffset();
+        lengths[size] = region.getLength();
+        targetStarts[size] = targetIndices.size();
+        for (NavigationTarget target : region.getTargetObjects()) {
+          Integer index = targetToIndex.get(target);
+          if (index == null) {
+            index = targets.size();
+            targetToIndex.put(target, index);
+            targets.add(new DartNavigationTarget(target));
+          }
+          targetIndices.add(index);
+        }
+        size++;
       }
     }
+    targetStarts[size] = targetIndices.size();
+    myService.convertOffsetsAndLengths(file, offsets, lengths);
 
-    myNavigationData.put(filePath, newRegions);
+    myNavigationData.put(filePath, new DartNavigationRegions(offsets, lengths, targetStarts, targetIndices.toNativeArray(),
+                                                             targets.toArray(new DartNavigationTarget[targets.size()]), size));
     forceFileAnnotation(file, true);
   }
 
@@ -130,11 +180,18 @@ public class DartServerData {
     final List<DartOverrideMember> newOverrides = new ArrayList<>(overrides.size());
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
-    for (OverrideMember override : overrides) {
+    final int[] offsets = new int[overrides.size()];
+    final int[] lengths = new int[overrides.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = overrides.get(i).getOffset();
+      lengths[i] = overrides.get(i).getLength();
+    }
+    myService.convertOffsetsAndLengths(file, offsets, lengths);
+
+    for (int i = 0; i < offsets.length; i++) {
+      final OverrideMember override = overrides.get(i);
       if (override.getLength() > 0) {
-        final int offset = myService.getConvertedOffset(file, override.getOffset());
-        final int length = myService.getConvertedOffset(file, override.getOffset() + override.getLength()) - offset;
-        newOverrides.add(new DartOverrideMember(offset, length, override.getSuperclassMember(), override.getInterfaceMembers()));
+        newOverrides.add(new DartOverrideMember(offsets[i], lengths[i], override.getSuperclassMember(), override.getInterfaceMembers()));
       }
     }
 
@@ -149,18 +206,30 @@ public class DartServerData {
 
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
+    final int[] classOffsets = new int[implementedClasses.size()];
+    final int[] classLengths = new int[implementedClasses.size()];
+    for (int i = 0; i < classOffsets.length; i++) {
+      classOffsets[i] = implementedClasses.get(i).getOffset();
+      classLengths[i] = implementedClasses.get(i).getLength();
+    }
+    myService.convertOffsetsAndLengths(file, classOffsets, classLengths);
+
     final List<DartRegion> newImplementedClasses = new ArrayList<>(implementedClasses.size());
-    for (ImplementedClass implementedClass : implementedClasses) {
-      final int offset = myService.getConvertedOffset(file, implementedClass.getOffset());
-      final int length = myService.getConvertedOffset(file, implementedClass.getOffset() + implementedClass.getLength()) - offset;
-      newImplementedClasses.add(new DartRegion(offset, length));
+    for (int i = 0; i < classOffsets.length; i++) {
+      newImplementedClasses.add(new DartRegion(classOffsets[i], classLengths[i]));
     }
 
+    final int[] memberOffsets = new int[implementedMembers.size()];
+    final int[] memberLengths = new int[implementedMembers.size()];
+    for (int i = 0; i < memberOffsets.length; i++) {
+      memberOffsets[i] = implementedMembers.get(i).getOffset();
+      memberLengths[i] = implementedMembers.get(i).getLength();
+    }
+    myService.convertOffsetsAndLengths(file, memberOffsets, memberLengths);
+
     final List<DartRegion> newImplementedMembers = new ArrayList<>(implementedMembers.size());
-    for (ImplementedMember implementedMember : implementedMembers) {
-      final int offset = myService.getConvertedOffset(file, implementedMember.getOffset());
-      final int length = myService.getConvertedOffset(file, implementedMember.getOffset() + implementedMember.getLength()) - offset;
-      newImplementedMembers.add(new DartRegion(offset, length));
+    for (int i = 0; i < memberOffsets.length; i++) {
+      newImplementedMembers.add(new DartRegion(memberOffsets[i], memberLengths[i]));
     }
 
     boolean hasChanges = false;
@@ -205,13 +274,13 @@ public class DartServerData {
 
   @NotNull
   List<DartHighlightRegion> getHighlight(@NotNull final VirtualFile file) {
-    final List<DartHighlightRegion> regions = myHighlightData.get(file.getPath());
+    final DartHighlightRegions regions = myHighlightData.get(file.getPath());
     return regions != null ? regions : Collections.emptyList();
   }
 
   @NotNull
   List<DartNavigationRegion> getNavigation(@NotNull final VirtualFile file) {
-    final List<DartNavigationRegion> regions = myNavigationData.get(file.getPath());
+    final DartNavigationRegions regions = myNavigationData.get(file.getPath());
     return regions != null ? regions : Collections.emptyList();
   }
 
@@ -233,23 +302,67 @@ public class DartServerData {
     return classes != null ? classes : Collections.emptyList();
   }
 
+  /**
+   * The server sends errors, highlights, navigation, overrides and implemented notifications for a file within a few milliseconds,
+   * so requests are collected for {@link #REANNOTATE_DELAY} ms and then each file is re-highlighted once. Files that are not open
+   * in an editor are skipped, there is nothing to re-highlight.
+   */
   private void forceFileAnnotation(@Nullable final VirtualFile file, final boolean clearCache) {
     if (file != null) {
-      final Project project = myService.getProject();
-
-      if (clearCache) {
-        ResolveCache.getInstance(project).clearCache(true);
+      synchronized (myFilesToReannotate) {
+        myFilesToReannotate.add(file);
+        myClearResolveCache |= clearCache;
+        myReannotateRequestCount++;
+        if (myReannotateScheduled) return;
+        myReannotateScheduled = true;
       }
 
-      // It's ok to call DaemonCodeAnalyzer.restart() right in this thread, without invokeLater(),
+      // It's ok to call DaemonCodeAnalyzer.restart() right in this thread, without the alarm,
       // but it would cache RemoteAnalysisServerImpl$ServerResponseReaderThread in FileStatusMap.threads and as a result,
       // DartAnalysisServerService.myProject would be leaked in tests
-      ApplicationManager.getApplication().invokeLater(() -> DaemonCodeAnalyzer.getInstance(project).restart(),
-                                                      ModalityState.NON_MODAL,
-                                                      project.getDisposed());
+      myReannotateAlarm.addRequest(this::reannotateFiles, REANNOTATE_DELAY, ModalityState.NON_MODAL);
     }
   }
 
+  private void reannotateFiles() {
+    final List<VirtualFile> files;
+    final boolean clearCache;
+    final int requestCount;
+    synchronized (myFilesToReannotate) {
+      files = new ArrayList<>(myFilesToReannotate);
+      clearCache = myClearResolveCache;
+      requestCount = myReannotateRequestCount;
+      myFilesToReannotate.clear();
+      myClearResolveCache = false;
+      myReannotateRequestCount = 0;
+      myReannotateScheduled = false;
+    }
+
+    final Project project = myService.getProject();
+    if (project.isDisposed()) return;
+
+    final long start = System.nanoTime();
+    if (clearCache) {
+      ResolveCache.getInstance(project).clearCache(true);
+    }
+
+    final FileEditorManager fileEditorManager = FileEditorManager.getInstance(project);
+    final PsiManager psiManager = PsiManager.getInstance(project);
+    final DaemonCodeAnalyzer daemonCodeAnalyzer = DaemonCodeAnalyzer.getInstance(project);
+    int restartCount = 0;
+    for (VirtualFile file : files) {
+      if (!file.isValid() || !fileEditorManager.isFileOpen(file)) continue;
+
+      final PsiFile psiFile = psiManager.findFile(file);
+      if (psiFile != null) {
+        daemonCodeAnalyzer.restart(psiFile);
+        restartCount++;
+      }
+    }
+
+    myService.getMetrics().forceFileAnnotationDone(System.nanoTime() - start, requestCount, restartCount);
+  }
+
   void onFilesContentUpdated() {
     myFilePathsWithUnsentChanges.clear();
   }
@@ -312,22 +425,27 @@ public class DartServerData {
     final String filePath = file.getPath();
     myFilePathsWithUnsentChanges.add(filePath);
 
-    boolean someRegionDeleted = updateRegionsDeletingTouched(filePath, myErrorData.get(filePath), e);
+    boolean someRegionDeleted = updateRegionsDeletingTouched(myErrorData.get(filePath), e);
     if (someRegionDeleted) {
       myFilePathsWithLostErrorInfo.add(filePath);
     }
-    updateRegionsUpdatingTouched(myHighlightData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myNavigationData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myOverrideData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myImplementedClassData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myImplementedMemberData.get(filePath), e);
+    final DartHighlightRegions highlightRegions = myHighlightData.get(filePath);
+    if (highlightRegions != null) {
+      myHighlightData.put(filePath, highlightRegions.updateUpdatingTouched(e));
+    }
+    final DartNavigationRegions navigationRegions = myNavigationData.get(filePath);
+    if (navigationRegions != null) {
+      myNavigationData.put(filePath, navigationRegions.updateDeletingTouched(filePath, e));
+    }
+    updateRegionsDeletingTouched(myOverrideData.get(filePath), e);
+    updateRegionsDeletingTouched(myImplementedClassData.get(filePath), e);
+    updateRegionsDeletingTouched(myImplementedMemberData.get(filePath), e);
   }
 
   /**
    * @return <code>true</code> if at least one region has been deleted, <code>false</code> if updated only or nothing done at all
    */
-  private static boolean updateRegionsDeletingTouched(@NotNull final String filePath,
-                                                      @Nullable final List<? extends DartRegion> regions,
+  private static boolean updateRegionsDeletingTouched(@Nullable final List<? extends DartRegion> regions,
                                                       @NotNull final DocumentEvent e) {
     if (regions == null) return false;
 
@@ -341,15 +459,6 @@ public class DartServerData {
     while (iterator.hasNext()) {
       final DartRegion region = iterator.next();
 
-      if (region instanceof DartNavigationRegion) {
-        // may be we'd better delete target touched by editing?
-        for (DartNavigationTarget target : ((DartNavigationRegion)region).getTargets()) {
-          if (target.myFile.equals(filePath) && target.myConvertedOffset >= eventOffset) {
-            target.myConvertedOffset += deltaLength;
-          }
-        }
-      }
-
       if (deltaLength > 0) {
         // Something was typed. Shift untouched regions, delete touched.
         if (eventOffset <= region.myOffset) {
@@ -377,44 +486,6 @@ public class DartServerData {
     return regionDeleted;
   }
 
-  private static void updateRegionsUpdatingTouched(@Nullable final List<? extends DartRegion> regions,
-                                                   @NotNull final DocumentEvent e) {
-    if (regions == null) return;
-
-    final int eventOffset = e.getOffset();
-    final int deltaLength = e.getNewLength() - e.getOldLength();
-
-    final Iterator<? extends DartRegion> iterator = regions.iterator();
-    while (iterator.hasNext()) {
-      final DartRegion region = iterator.next();
-
-      if (deltaLength > 0) {
-        // Something was typed. Shift untouched regions, update touched.
-        if (eventOffset <= region.myOffset) {
-          region.myOffset += deltaLength;
-        }
-        else if (region.myOffset < eventOffset && eventOffset < region.myOffset + region.myLength) {
-          region.myLength += deltaLength;
-        }
-      }
-      else if (deltaLength < 0) {
-        // Some text was deleted. Shift untouched regions, delete or update touched.
-        final int eventRightOffset = eventOffset - deltaLength;
-        final int regionRightOffset = region.myOffset + region.myLength;
-
-        if (eventRightOffset <= region.myOffset) {
-          region.myOffset += deltaLength;
-        }
-        else if (region.myOffset <= eventOffset && eventRightOffset <= regionRightOffset && region.myLength != -deltaLength) {
-          region.myLength += deltaLength;
-        }
-        else if (eventOffset < regionRightOffset) {
-          iterator.remove();
-        }
-      }
-    }
-  }
-
   public static class DartRegion {
     protected int myOffset;
     protected int myLength;
@@ -448,7 +519,7 @@ public class DartServerData {
 
     private DartHighlightRegion(final int offset, final int length, @NotNull final String type) {
       super(offset, length);
-      this.type = type.intern();
+      this.type = type;
     }
 
     public String getType() {
@@ -523,6 +594,13 @@ public class DartServerData {
       myKind = target.getKind().intern();
     }
 
+    private DartNavigationTarget(@NotNull final DartNavigationTarget target, final int convertedOffset) {
+      myFile = target.myFile;
+      myOriginalOffset = target.myOriginalOffset;
+      myKind = target.myKind;
+      myConvertedOffset = convertedOffset;
+    }
+
     public String getFile() {
       return myFile;
     }
@@ -562,4 +640,214 @@ public class DartServerData {
       return myInterfaceMembers;
     }
   }
+
+  /**
+   * Highlight regions of one file packed into primitive arrays. Instances are immutable, document changes produce new instances.
+   * Works as a read-only list that creates {@link DartHighlightRegion} objects on demand.
+   */
+  static final class DartHighlightRegions extends AbstractList<DartHighlightRegion> implements RandomAccess {
+    private static final List<String> ourTypes = new CopyOnWriteArrayList<>();
+    private static final Map<String, Integer> ourTypeToId = new ConcurrentHashMap<>();
+
+    private final int[] myOffsets;
+    private final int[] myLengths;
+    private final int[] myTypeIds;
+    private final int mySize;
+
+    private DartHighlightRegions(@NotNull final int[] offsets, @NotNull final int[] lengths, @NotNull final int[] typeIds, final int size) {
+      myOffsets = offsets;
+      myLengths = lengths;
+      myTypeIds = typeIds;
+      mySize = size;
+    }
+
+    private static int getTypeId(@NotNull final String type) {
+      final Integer id = ourTypeToId.get(type);
+      if (id != null) return id;
+
+      synchronized (ourTypes) {
+        Integer newId = ourTypeToId.get(type);
+        if (newId == null) {
+          newId = ourTypes.size();
+          ourTypes.add(type.intern());
+          ourTypeToId.put(type, newId);
+        }
+        return newId;
+      }
+    }
+
+    @Override
+    public DartHighlightRegion get(final int index) {
+      if (index < 0 || index >= mySize) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mySize);
+      return new DartHighlightRegion(myOffsets[index], myLengths[index], ourTypes.get(myTypeIds[index]));
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+
+    /**
+     * Shifts untouched regions, updates the length of touched ones or deletes them if fully removed; returns an updated copy.
+     */
+    @NotNull
+    private DartHighlightRegions updateUpdatingTouched(@NotNull final DocumentEvent e) {
+      final int eventOffset = e.getOffset();
+      final int deltaLength = e.getNewLength() - e.getOldLength();
+      if (deltaLength == 0) return this;
+
+      final int[] offsets = new int[mySize];
+      final int[] lengths = new int[mySize];
+      final int[] typeIds = new int[mySize];
+      int size = 0;
+
+      for (int i = 0; i < mySize; i++) {
+        int offset = myOffsets[i];
+        int length = myLengths[i];
+
+        if (deltaLength > 0) {
+          // Something was typed. Shift untouched regions, update touched.
+          if (eventOffset <= offset) {
+            offset += deltaLength;
+          }
+          else if (offset < eventOffset && eventOffset < offset + length) {
+            length += deltaLength;
+          }
+        }
+        else {
+          // Some text was deleted. Shift untouched regions, delete or update touched.
+          final int eventRightOffset = eventOffset - deltaLength;
+          final int regionRightOffset = offset + length;
+
+          if (eventRightOffset <= offset) {
+            offset += deltaLength;
+          }
+          else if (offset <= eventOffset && eventRightOffset <= regionRightOffset && length != -deltaLength) {
+            length += deltaLength;
+          }
+          else if (eventOffset < regionRightOffset) {
+            continue;
+          }
+        }
+
+        offsets[size] = offset;
+        lengths[size] = length;
+        typeIds[size] = myTypeIds[i];
+        size++;
+      }
+
+      return new DartHighlightRegions(offsets, lengths, typeIds, size);
+    }
+  }
+
+  /**
+   * Navigation regions of one file packed into primitive arrays. Targets of region <code>i</code> are
+   * <code>myTargets[myTargetIndices[myTargetStarts[i]..myTargetStarts[i + 1]]]</code>, each target is stored once even if referenced
+   * by many regions. Instances are immutable (except for lazily computed target offsets), document changes produce new instances.
+   * Works as a read-only list that creates {@link DartNavigationRegion} objects on demand.
+   */
+  static final class DartNavigationRegions extends AbstractList<DartNavigationRegion> implements RandomAccess {
+    private final int[] myOffsets;
+    private final int[] myLengths;
+    private final int[] myTargetStarts;
+    private final int[] myTargetIndices;
+    private final DartNavigationTarget[] myTargets;
+    private final int mySize;
+
+    private DartNavigationRegions(@NotNull final int[] offsets,
+                                  @NotNull final int[] lengths,
+                                  @NotNull final int[] targetStarts,
+                                  @NotNull final int[] targetIndices,
+                                  @NotNull final DartNavigationTarget[] targets,
+                                  final int size) {
+      myOffsets = offsets;
+      myLengths = lengths;
+      myTargetStarts = targetStarts;
+      myTargetIndices = targetIndices;
+      myTargets = targets;
+      mySize = size;
+    }
+
+    @Override
+    public DartNavigationRegion get(final int index) {
+      if (index < 0 || index >= mySize) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mySize);
+
+      final int start = myTargetStarts[index];
+      final int end = myTargetStarts[index + 1];
+      final SmartList<DartNavigationTarget> targets = new SmartList<>();
+      for (int i = start; i < end; i++) {
+        targets.add(myTargets[myTargetIndices[i]]);
+      }
+      return new DartNavigationRegion(myOffsets[index], myLengths[index], targets);
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+
+    /**
+     * Same as {@link #updateRegionsDeletingTouched(List, DocumentEvent)}, but returns an updated copy. Targets that are not shifted
+     * are shared with the previous instance, shifted ones are copied, so the previous instance keeps offsets of the previous document.
+     */
+    @NotNull
+    private DartNavigationRegions updateDeletingTouched(@NotNull final String filePath, @NotNull final DocumentEvent e) {
+      final int eventOffset = e.getOffset();
+      final int deltaLength = e.getNewLength() - e.getOldLength();
+
+      if (deltaLength == 0) return this;
+
+      // may be we'd better delete target touched by editing?
+      DartNavigationTarget[] targets = myTargets;
+      for (int i = 0; i < myTargets.length; i++) {
+        final DartNavigationTarget target = myTargets[i];
+        final int convertedOffset = target.myConvertedOffset;
+        if (target.myFile.equals(filePath) && convertedOffset >= eventOffset) {
+          if (targets == myTargets) targets = myTargets.clone();
+          targets[i] = new DartNavigationTarget(target, convertedOffset + deltaLength);
+        }
+      }
+
+      final int[] offsets = new int[mySize];
+      final int[] lengths = new int[mySize];
+      final int[] targetStarts = new int[mySize + 1];
+      final TIntArrayList targetIndices = new TIntArrayList(myTargetIndices.length);
+      int size = 0;
+
+      for (int i = 0; i < mySize; i++) {
+        int offset = myOffsets[i];
+        final int length = myLengths[i];
+
+        if (deltaLength > 0) {
+          // Something was typed. Shift untouched regions, delete touched.
+          if (eventOffset <= offset) {
+            offset += deltaLength;
+          }
+          else if (offset < eventOffset && eventOffset < offset + length) {
+            continue;
+          }
+        }
+        else {
+          // Some text was deleted. Shift untouched regions, delete touched.
+          final int eventRightOffset = eventOffset - deltaLength;
+
+          if (eventRightOffset <= offset) {
+            offset += deltaLength;
+          }
+          else if (eventOffset < offset + length) {
+            continue;
+          }
+        }
+
+        offsets[size] = offset;
+        lengths[size] = length;
+        targetStarts[size] = targetIndices.size();
+        targetIndices.add(myTargetIndices, myTargetStarts[i], myTargetStarts[i + 1] - myTargetStarts[i]);
+        size++;
+      }
+      targetStarts[size] = targetIndices.size();
+
+      return new DartNavigationRegions(offsets, lengths, targetStarts, targetIndices.toNativeArray(), targets, size);
+    }
+  }
 }
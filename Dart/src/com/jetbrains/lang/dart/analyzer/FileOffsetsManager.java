@@ -5,16 +5,16 @@ import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.IntArrayList;
+import com.intellij.util.containers.SLRUMap;
 import com.intellij.util.text.CharArrayUtil;
-import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.Map;
 
 public class FileOffsetsManager {
 
@@ -23,7 +23,12 @@ public class FileOffsetsManager {
     return ServiceManager.getService(FileOffsetsManager.class);
   }
 
-  private final Map<VirtualFile, LineOffsets> myLineOffsetsMap = new THashMap<>();
+  private static final int CACHE_SIZE = 500;
+  private static final int[] FIRST_LINE_ONLY = {0};
+  private static final int LINEAR_WALK_LIMIT = 16;
+
+  // LRU cache, guarded by itself; entries are checked against the current file modification stamp on each access
+  private final SLRUMap<VirtualFile, LineOffsets> myLineOffsetsCache = new SLRUMap<>(CACHE_SIZE, CACHE_SIZE);
 
   private static class LineOffsets {
     private final long myFileModificationStamp; // todo stamp outside of this class
@@ -57,6 +62,62 @@ public class FileOffsetsManager {
     return getCorrespondingOffset(offsets.myConvertedLineOffsets, offsets.myOriginalLineOffsets, convertedOffset);
   }
 
+  /**
+   * Same as {@link #getConvertedOffset(VirtualFile, int)} for many regions at once, offsets and lengths (if not <code>null</code>) are
+   * converted in place. If offsets are sorted, which is the case for most server notifications, the line table is walked only once
+   * instead of a binary search for each offset. Unsorted offsets are also handled correctly, though slower.
+   */
+  public void convertOffsets(@NotNull final VirtualFile file, @NotNull final int[] offsets, @Nullable final int[] lengths) {
+    final LineOffsets lineOffsets = getLineOffsets(file);
+    if (lineOffsets.myLineOffsetsAreTheSame) return;
+
+    final int[] originalLineOffsets = lineOffsets.myOriginalLineOffsets;
+    final int[] convertedLineOffsets = lineOffsets.myConvertedLineOffsets;
+
+    int line = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      final int offset = offsets[i];
+      // non-positive offsets are not converted, same as in DartAnalysisServerService.getConvertedOffset()
+      int convertedOffset = offset;
+      if (offset > 0) {
+        line = findLine(originalLineOffsets, line, offset);
+        convertedOffset = convertedLineOffsets[line] + offset - originalLineOffsets[line];
+      }
+
+      if (lengths != null) {
+        final int end = offset + lengths[i];
+        if (end > 0) {
+          // region end is usually close after its start, so continue the walk from the start line
+          final int endLine = findLine(originalLineOffsets, line, end);
+          lengths[i] = convertedLineOffsets[endLine] + end - originalLineOffsets[endLine] - convertedOffset;
+        }
+      }
+
+      offsets[i] = convertedOffset;
+    }
+  }
+
+  /**
+   * @return index of the line that contains <code>offset</code>, searching forward from <code>startLine</code> if possible
+   */
+  private static int findLine(@NotNull final int[] lineOffsets, final int startLine, final int offset) {
+    if (offset < lineOffsets[startLine]) {
+      // not sorted, search from the beginning
+      final int line = Arrays.binarySearch(lineOffsets, 0, startLine, offset);
+      return line < 0 ? Math.max(0, -line - 2) : line;
+    }
+
+    int line = startLine;
+    for (int i = 0; i < LINEAR_WALK_LIMIT; i++) {
+      if (line + 1 >= lineOffsets.length || lineOffsets[line + 1] > offset) return line;
+      line++;
+    }
+
+    // big gap between offsets, binary search is faster
+    line = Arrays.binarySearch(lineOffsets, line, lineOffsets.length, offset);
+    return line < 0 ? -line - 2 : line;
+  }
+
   private static int getCorrespondingOffset(int[] offsets1, int[] offsets2, int offset1) {
     int line = Arrays.binarySearch(offsets1, offset1);
     if (line < 0) line = -line - 2;
@@ -70,13 +131,19 @@ public class FileOffsetsManager {
 
   @NotNull
   private LineOffsets getLineOffsets(@NotNull final VirtualFile file) {
-    LineOffsets offsets = myLineOffsetsMap.get(file);
-    if (offsets != null && file.getModificationStamp() == offsets.myFileModificationStamp) {
-      return offsets;
+    final long modificationStamp = file.getModificationStamp();
+    synchronized (myLineOffsetsCache) {
+      final LineOffsets offsets = myLineOffsetsCache.get(file);
+      if (offsets != null && modificationStamp == offsets.myFileModificationStamp) {
+        return offsets;
+      }
     }
 
-    offsets = loadLineOffsets(file);
-    myLineOffsetsMap.put(file, offsets);
+    // load outside the lock, at worst the same file is loaded twice by different threads
+    final LineOffsets offsets = loadLineOffsets(file);
+    synchronized (myLineOffsetsCache) {
+      myLineOffsetsCache.put(file, offsets);
+    }
     return offsets;
   }
 
@@ -87,6 +154,11 @@ public class FileOffsetsManager {
 
     try {
       byte[] bytes = file.contentsToByteArray();
+      if (!containsCarriageReturn(bytes)) {
+        // LF-only file, offsets are the same; there's no need to decode it. CR is encoded with a 0x0D byte in all supported charsets
+        return new LineOffsets(file.getModificationStamp(), FIRST_LINE_ONLY, FIRST_LINE_ONLY);
+      }
+
       final Charset charset = LoadTextUtil.detectCharsetAndSetBOM(file, bytes, file.getFileType());
       final byte[] bom = file.getBOM();
       final int bomLength = bom == null ? 0 : bom.length;
@@ -97,6 +169,13 @@ public class FileOffsetsManager {
     }
   }
 
+  private static boolean containsCarriageReturn(@NotNull final byte[] bytes) {
+    for (byte b : bytes) {
+      if (b == '\r') return true;
+    }
+    return false;
+  }
+
   @NotNull
   // similar to com.intellij.openapi.fileEditor.impl.LoadTextUtil.convertBytes()
   private static LineOffsets loadLineOffsets(@NotNull final byte[] bytes,
@@ -15,82 +15,173 @@
  */
 package com.jetbrains.lang.dart.coverage;
 
-import com.intellij.util.containers.hash.HashMap;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
+/**
+ * Line hits of a coverage session, merged per source across all isolates.
+ * <p>
+ * The json written by the coverage collector may take hundreds of megabytes for a big test suite, so it is never loaded as a whole:
+ * {@link #read(Reader)} streams it and adds hits of each {"source": ..., "hits": [line, count, line, count, ...]} item to
+ * {@link LineHits} of its source right away. Memory use depends on the number of covered lines, not on the size of the json.
+ */
 public class DartCoverageData {
-  @Nullable private List<DartFileCoverageData> coverage;
 
-  @Nullable
-  public List<DartFileCoverageData> getCoverage() {
-    return coverage;
+  /**
+   * Hit counts indexed by line number.
+   */
+  public static final class LineHits {
+    private static final int NO_DATA = -1;
+
+    private int[] myHits = new int[16];
+    private int myMaxLine = -1;
+
+    private LineHits() {
+      Arrays.fill(myHits, NO_DATA);
+    }
+
+    private void add(final int line, final int count) {
+      if (line < 0) return;
+
+      if (line >= myHits.length) {
+        final int oldLength = myHits.length;
+        myHits = Arrays.copyOf(myHits, Math.max(line + 1, oldLength * 2));
+        Arrays.fill(myHits, oldLength, myHits.length, NO_DATA);
+      }
+
+      myHits[line] = myHits[line] == NO_DATA ? count : myHits[line] + count;
+      myMaxLine = Math.max(myMaxLine, line);
+    }
+
+    /**
+     * @return -1 if there are no lines with data
+     */
+    public int getMaxLine() {
+      return myMaxLine;
+    }
+
+    public boolean hasData(final int line) {
+      return line >= 0 && line <= myMaxLine && myHits[line] != NO_DATA;
+    }
+
+    /**
+     * Makes sense only if {@link #hasData(int)} is <code>true</code>.
+     */
+    public int getHits(final int line) {
+      return myHits[line];
+    }
   }
 
-  public void setCoverage(@Nullable List<DartFileCoverageData> coverage) {
-    this.coverage = coverage;
+  private final Map<String, LineHits> myLineHits = new THashMap<>();
+
+  private DartCoverageData() {
   }
 
   @NotNull
-  public Map<String, SortedMap<Integer, Integer>> getMergedDartFileCoverageData() {
-    Map<String, SortedMap<Integer, Integer>> mergedCoverageData = new HashMap<>();
-    List<DartFileCoverageData> coverageData = getCoverage();
-    if (coverageData != null) {
-      for (DartFileCoverageData item : coverageData) {
-        String source = item.getSource();
-        if (source == null) {
-          continue;
-        }
-        if (!mergedCoverageData.containsKey(source)) {
-          mergedCoverageData.put(source, new TreeMap<>());
-        }
+  public Map<String, LineHits> getLineHits() {
+    return Collections.unmodifiableMap(myLineHits);
+  }
 
-        SortedMap<Integer, Integer> fileData = mergedCoverageData.get(source);
-        List<Integer> hits = item.getHits();
-        if (hits == null) {
-          continue;
-        }
-        for (int i = 0; i < hits.size(); i += 2) {
-          Integer lineNumber = hits.get(i);
-          Integer hitCount = hits.get(i + 1);
-          if (!fileData.containsKey(lineNumber)) {
-            fileData.put(lineNumber, 0);
-          }
+  /**
+   * @return <code>null</code> if the reader is empty
+   * @throws IOException           if the json is malformed
+   * @throws IllegalStateException if the json doesn't have the expected structure
+   * @throws NumberFormatException if line numbers or hit counts are not integers
+   */
+  @Nullable
+  public static DartCoverageData read(@NotNull final Reader reader) throws IOException {
+    final JsonReader jsonReader = new JsonReader(reader);
+    try {
+      jsonReader.peek();
+    }
+    catch (EOFException e) {
+      return null; // empty file, as Gson.fromJson() treats it
+    }
 
-          fileData.put(lineNumber, fileData.get(lineNumber) + hitCount);
+    final DartCoverageData data = new DartCoverageData();
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      if ("coverage".equals(jsonReader.nextName()) && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+          data.readFileCoverage(jsonReader);
         }
+        jsonReader.endArray();
+      }
+      else {
+        jsonReader.skipValue();
       }
     }
-
-    return mergedCoverageData;
+    jsonReader.endObject();
+    return data;
   }
-}
 
+  private void readFileCoverage(@NotNull final JsonReader jsonReader) throws IOException {
+    // "source" usually goes before "hits", otherwise hits are buffered until the source is known
+    String source = null;
+    int[] pendingHits = null;
+    int pendingHitsCount = 0;
 
-class DartFileCoverageData {
-  @Nullable private String source;
-  @Nullable private List<Integer> hits;
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      final String name = jsonReader.nextName();
+      if ("source".equals(name) && jsonReader.peek() == JsonToken.STRING) {
+        source = jsonReader.nextString();
+      }
+      else if ("hits".equals(name) && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+        final LineHits lineHits = source != null ? getOrCreateLineHits(source) : null;
+        if (lineHits == null && pendingHits == null) {
+          pendingHits = new int[16];
+        }
 
-  @Nullable
-  public String getSource() {
-    return source;
-  }
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+          final int line = jsonReader.nextInt();
+          final int count = jsonReader.nextInt();
+          if (lineHits != null) {
+            lineHits.add(line, count);
+          }
+          else {
+            if (pendingHitsCount + 2 > pendingHits.length) {
+              pendingHits = Arrays.copyOf(pendingHits, pendingHits.length * 2);
+            }
+            pendingHits[pendingHitsCount++] = line;
+            pendingHits[pendingHitsCount++] = count;
+          }
+        }
+        jsonReader.endArray();
+      }
+      else {
+        jsonReader.skipValue();
+      }
+    }
+    jsonReader.endObject();
 
-  public void setSource(@Nullable String source) {
-    this.source = source;
-  }
+    if (source == null) return;
 
-  @Nullable
-  public List<Integer> getHits() {
-    return hits;
+    final LineHits lineHits = getOrCreateLineHits(source);
+    for (int i = 0; i < pendingHitsCount; i += 2) {
+      lineHits.add(pendingHits[i], pendingHits[i + 1]);
+    }
   }
 
-  public void setHits(@Nullable List<Integer> hits) {
-    this.hits = hits;
+  @NotNull
+  private LineHits getOrCreateLineHits(@NotNull final String source) {
+    LineHits lineHits = myLineHits.get(source);
+    if (lineHits == null) {
+      lineHits = new LineHits();
+      myLineHits.put(source, lineHits);
+    }
+    return lineHits;
   }
-}
\ No newline at end of file
+}
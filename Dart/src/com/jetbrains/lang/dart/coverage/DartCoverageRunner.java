@@ -15,13 +15,12 @@
  */
 package com.jetbrains.lang.dart.coverage;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import com.intellij.coverage.CoverageEngine;
 import com.intellij.coverage.CoverageRunner;
 import com.intellij.coverage.CoverageSuite;
 import com.intellij.execution.process.ProcessHandler;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
@@ -30,15 +29,15 @@ import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
 import com.jetbrains.lang.dart.analyzer.DartAnalysisServerService;
+import com.jetbrains.lang.dart.sdk.DartSdk;
+import com.jetbrains.lang.dart.util.DotPackagesFileUtil;
+import com.jetbrains.lang.dart.util.PubspecYamlUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.*;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.SortedMap;
 
 public class DartCoverageRunner extends CoverageRunner {
   private static final String ID = "DartCoverageRunner";
@@ -90,6 +89,12 @@ public class DartCoverageRunner extends CoverageRunner {
       return null;
     }
 
+    final String uriMappingStamp = getUriMappingStamp(project, contextFilePath);
+    final ProjectData snapshotData = DartCoverageSnapshot.read(sessionDataFile, uriMappingStamp);
+    if (snapshotData != null) {
+      return snapshotData;
+    }
+
     final String contextId = DartAnalysisServerService.getInstance(project).execution_createContext(contextFilePath);
     if (contextId == null) {
       return null;
@@ -97,37 +102,53 @@ public class DartCoverageRunner extends CoverageRunner {
 
     final ProjectData projectData = new ProjectData();
 
-    try {
-      DartCoverageData data = new Gson().fromJson(new BufferedReader(new FileReader(sessionDataFile)), DartCoverageData.class);
+    try (Reader reader = new BufferedReader(new FileReader(sessionDataFile))) {
+      final DartCoverageData data = DartCoverageData.read(reader);
       if (data == null) {
         LOG.warn("Coverage file does not contain valid data.");
         return null;
       }
 
-      for (Map.Entry<String, SortedMap<Integer, Integer>> entry : data.getMergedDartFileCoverageData().entrySet()) {
+      final Map<String, DartCoverageData.LineHits> fileHits = new LinkedHashMap<>();
+      boolean allUrisMapped = true;
+      for (Map.Entry<String, DartCoverageData.LineHits> entry : data.getLineHits().entrySet()) {
         ProgressManager.checkCanceled();
 
-        String filePath = getFileForUri(project, contextId, entry.getKey());
+        final String uri = entry.getKey();
+        if (isSdkInternalUri(uri)) {
+          continue;
+        }
+
+        String filePath = DartAnalysisServerService.getInstance(project).execution_mapUri(contextId, null, uri);
         if (filePath == null) {
-          // File is not found.
+          // File is not found, or the analysis server is not available right now
+          allUrisMapped = false;
           continue;
         }
-        SortedMap<Integer, Integer> lineHits = entry.getValue();
+        DartCoverageData.LineHits lineHits = entry.getValue();
+        fileHits.put(filePath, lineHits);
         ClassData classData = projectData.getOrCreateClassData(filePath);
-        if (lineHits.size() == 0) {
+        if (lineHits.getMaxLine() < 0) {
           classData.setLines(new LineData[1]);
           continue;
         }
-        LineData[] lines = new LineData[lineHits.lastKey() + 1];
-        for (Map.Entry<Integer, Integer> hit : lineHits.entrySet()) {
-          LineData lineData = new LineData(hit.getKey(), null);
-          lineData.setHits(hit.getValue());
-          lines[hit.getKey()] = lineData;
+        LineData[] lines = new LineData[lineHits.getMaxLine() + 1];
+        for (int line = 0; line < lines.length; line++) {
+          if (lineHits.hasData(line)) {
+            LineData lineData = new LineData(line, null);
+            lineData.setHits(lineHits.getHits(line));
+            lines[line] = lineData;
+          }
         }
         classData.setLines(lines);
       }
+
+      if (allUrisMapped) {
+        // otherwise files missed because of a transient analysis server failure would be missing each time the suite is reopened
+        DartCoverageSnapshot.write(sessionDataFile, uriMappingStamp, fileHits);
+      }
     }
-    catch (FileNotFoundException | JsonSyntaxException e) {
+    catch (IOException | IllegalStateException | NumberFormatException e) {
       LOG.warn(e);
     }
     finally {
@@ -137,14 +158,35 @@ public class DartCoverageRunner extends CoverageRunner {
     return projectData;
   }
 
-  @Nullable
-  private static String getFileForUri(@NotNull final Project project, @NotNull final String contextId, @NotNull final String uri) {
-    if (uri.startsWith("dart:_") || uri.startsWith("dart:") && uri.contains("-patch/")) {
-      // dart:_builtin or dart:core-patch/core_patch.dart
-      return null;
+  private static boolean isSdkInternalUri(@NotNull final String uri) {
+    // dart:_builtin or dart:core-patch/core_patch.dart
+    return uri.startsWith("dart:_") || uri.startsWith("dart:") && uri.contains("-patch/");
+  }
+
+  /**
+   * The analysis server maps uris to files according to the Dart SDK and the package map of the context file, so a snapshot made with
+   * another SDK or before 'pub get' is not used.
+   */
+  @NotNull
+  private static String getUriMappingStamp(@NotNull final Project project, @NotNull final String contextFilePath) {
+    final DartSdk sdk = ReadAction.compute(() -> DartSdk.getDartSdk(project));
+    final StringBuilder stamp = new StringBuilder();
+    if (sdk != null) {
+      stamp.append(sdk.getHomePath()).append(' ').append(sdk.getVersion());
     }
 
-    return DartAnalysisServerService.getInstance(project).execution_mapUri(contextId, null, uri);
+    for (File dir = new File(contextFilePath).getParentFile(); dir != null; dir = dir.getParentFile()) {
+      if (new File(dir, PubspecYamlUtil.PUBSPEC_YAML).isFile()) {
+        appendFileStamp(stamp, new File(dir, DotPackagesFileUtil.DOT_PACKAGES));
+        appendFileStamp(stamp, new File(dir, "pubspec.lock"));
+        break;
+      }
+    }
+    return stamp.toString();
+  }
+
+  private static void appendFileStamp(@NotNull final StringBuilder stamp, @NotNull final File file) {
+    stamp.append('\n').append(file.getPath()).append(' ').append(file.length()).append(' ').append(file.lastModified());
   }
 
   @NotNull
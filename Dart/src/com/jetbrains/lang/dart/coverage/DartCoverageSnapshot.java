@@ -0,0 +1,138 @@
+package com.jetbrains.lang.dart.coverage;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Binary snapshot of merged coverage data, stored next to the json written by the coverage collector. Reopening a coverage suite
+ * then neither parses the json again nor asks the analysis server to map source uris to files.
+ * <p>
+ * Format, big-endian: magic, {@link #VERSION}, length and timestamp of the json the snapshot was made from, the uri mapping stamp
+ * (modified utf-8, see {@link DataOutput#writeUTF}), file count, then for each file:
+ * utf-8 path length and bytes, line array length (0 if the file has no lines with data), number of lines with data and their
+ * (line, hits) pairs. All values are fixed-size ints and longs, so the file may be memory-mapped; it is read into a heap buffer
+ * though, because a mapped file stays locked on Windows until the buffer is garbage collected.
+ */
+final class DartCoverageSnapshot {
+  private static final Logger LOG = Logger.getInstance(DartCoverageSnapshot.class.getName());
+
+  private static final int MAGIC = 0x44434F56; // "DCOV"
+  private static final int VERSION = 2;
+  private static final String EXTENSION = ".snapshot";
+
+  private DartCoverageSnapshot() {
+  }
+
+  @NotNull
+  static File getSnapshotFile(@NotNull final File sessionDataFile) {
+    return new File(sessionDataFile.getPath() + EXTENSION);
+  }
+
+  /**
+   * @param uriMappingStamp describes the SDK and package map the uris were mapped with, the snapshot isn't read with another one
+   * @param fileHits        line hits by file path, as mapped by the analysis server
+   */
+  static void write(@NotNull final File sessionDataFile,
+                    @NotNull final String uriMappingStamp,
+                    @NotNull final Map<String, DartCoverageData.LineHits> fileHits) {
+    final File snapshotFile = getSnapshotFile(sessionDataFile);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(sessionDataFile.length());
+      out.writeLong(sessionDataFile.lastModified());
+      out.writeUTF(uriMappingStamp);
+      out.writeInt(fileHits.size());
+
+      for (Map.Entry<String, DartCoverageData.LineHits> entry : fileHits.entrySet()) {
+        final byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(path.length);
+        out.write(path);
+
+        final DartCoverageData.LineHits lineHits = entry.getValue();
+        final int maxLine = lineHits.getMaxLine();
+        int lineCount = 0;
+        for (int line = 0; line <= maxLine; line++) {
+          if (lineHits.hasData(line)) lineCount++;
+        }
+
+        out.writeInt(maxLine + 1);
+        out.writeInt(lineCount);
+        for (int line = 0; line <= maxLine; line++) {
+          if (lineHits.hasData(line)) {
+            out.writeInt(line);
+            out.writeInt(lineHits.getHits(line));
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      FileUtil.delete(snapshotFile);
+    }
+  }
+
+  /**
+   * @return <code>null</code> if there's no snapshot, or it is outdated, made with another uri mapping, corrupted or written by another
+   * version of the plugin
+   */
+  @Nullable
+  static ProjectData read(@NotNull final File sessionDataFile, @NotNull final String uriMappingStamp) {
+    final File snapshotFile = getSnapshotFile(sessionDataFile);
+    if (!snapshotFile.isFile()) return null;
+
+    try {
+      final ByteBuffer buffer = ByteBuffer.wrap(FileUtil.loadFileBytes(snapshotFile));
+      if (buffer.getInt() != MAGIC ||
+          buffer.getInt() != VERSION ||
+          buffer.getLong() != sessionDataFile.length() ||
+          buffer.getLong() != sessionDataFile.lastModified() ||
+          !uriMappingStamp.equals(readUTF(buffer))) {
+        return null;
+      }
+
+      final ProjectData projectData = new ProjectData();
+      final int fileCount = buffer.getInt();
+      for (int i = 0; i < fileCount; i++) {
+        final byte[] path = new byte[buffer.getInt()];
+        buffer.get(path);
+        final ClassData classData = projectData.getOrCreateClassData(new String(path, StandardCharsets.UTF_8));
+
+        final LineData[] lines = new LineData[Math.max(1, buffer.getInt())];
+        final int lineCount = buffer.getInt();
+        for (int j = 0; j < lineCount; j++) {
+          final int line = buffer.getInt();
+          final LineData lineData = new LineData(line, null);
+          lineData.setHits(buffer.getInt());
+          lines[line] = lineData;
+        }
+        classData.setLines(lines);
+      }
+      return projectData;
+    }
+    catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+      LOG.warn("Corrupted coverage snapshot " + snapshotFile.getPath(), e);
+      return null;
+    }
+  }
+
+  @NotNull
+  private static String readUTF(@NotNull final ByteBuffer buffer) throws IOException {
+    final int length = buffer.getShort() & 0xFFFF;
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.position() - 2, length + 2));
+    final String result = in.readUTF();
+    buffer.position(buffer.position() + length);
+    return result;
+  }
+}
@@ -23,11 +23,14 @@ import com.intellij.execution.process.ProcessHandler;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.InvalidDataException;
 import com.intellij.openapi.util.WriteExternalException;
+import com.intellij.openapi.util.io.FileUtil;
 import org.jdom.Element;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+
 public class DartCoverageSuite extends BaseCoverageSuite {
   @NonNls private static final String CONTEXT_FILE_PATH = "CONTEXT_FILE_PATH";
 
@@ -65,6 +68,12 @@ public class DartCoverageSuite extends BaseCoverageSuite {
     return myCoverageProcess;
   }
 
+  @Override
+  public void deleteCachedCoverageData() {
+    super.deleteCachedCoverageData();
+    FileUtil.delete(DartCoverageSnapshot.getSnapshotFile(new File(getCoverageDataFileName())));
+  }
+
   @Override
   public void writeExternal(final Element element) throws WriteExternalException {
     super.writeExternal(element);
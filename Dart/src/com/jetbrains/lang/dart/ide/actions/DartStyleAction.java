@@ -71,7 +71,7 @@ public class DartStyleAction extends AbstractDartFileProcessingAction {
       }
       else if (edits.size() == 1) {
         final String replacement = StringUtil.convertLineSeparators(edits.get(0).getReplacement());
-        document.replaceString(0, document.getTextLength(), replacement);
+        replaceChangedText(document, replacement);
         final int offset = das.getConvertedOffset(psiFile.getVirtualFile(), formatResult.getOffset());
         editor.getCaretModel().moveToOffset(offset);
         showHintLater(editor, DartBundle.message("dart.style.hint.success"), false);
@@ -140,7 +140,7 @@ public class DartStyleAction extends AbstractDartFileProcessingAction {
           final String newContent = entry.getValue();
 
           if (document != null && newContent != null) {
-            document.setText(newContent);
+            replaceChangedText(document, newContent);
           }
         }
       };
@@ -150,6 +150,21 @@ public class DartStyleAction extends AbstractDartFileProcessingAction {
     }
   }
 
+  /**
+   * dart_style always returns the whole file. Replacing only the changed middle part lets the PSI be reparsed incrementally
+   * and keeps range markers (folding, bookmarks, highlighting) outside of it.
+   */
+  private static void replaceChangedText(@NotNull final Document document, @NotNull final String newText) {
+    final CharSequence oldText = document.getImmutableCharSequence();
+    final int prefixLength = StringUtil.commonPrefixLength(oldText, newText);
+    if (prefixLength == oldText.length() && prefixLength == newText.length()) return;
+
+    final int maxSuffixLength = Math.min(oldText.length(), newText.length()) - prefixLength;
+    final int suffixLength = Math.min(StringUtil.commonSuffixLength(oldText, newText), maxSuffixLength);
+    document.replaceString(prefixLength, oldText.length() - suffixLength,
+                           newText.substring(prefixLength, newText.length() - suffixLength));
+  }
+
   private static int getRightMargin(@NotNull Project project) {
     return CodeStyleSettingsManager.getSettings(project).getCommonSettings(DartLanguage.INSTANCE).RIGHT_MARGIN;
   }
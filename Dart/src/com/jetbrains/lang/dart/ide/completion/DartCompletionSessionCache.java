@@ -0,0 +1,90 @@
+package com.jetbrains.lang.dart.ide.completion;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.dartlang.analysis.server.protocol.CompletionSuggestion;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * The last completion suggestions received from the analysis server. Each keystroke while the lookup is being calculated restarts
+ * completion with a new server round-trip, but as long as only the identifier at the replacement offset is typed the server returns
+ * the same suggestions (the IDE filters them by the prefix). So the previous suggestions are shown right away, and the fresh ones
+ * replace them in the cache when they come.
+ */
+final class DartCompletionSessionCache {
+
+  static final class Suggestions {
+    @NotNull private final VirtualFile myFile;
+    @NotNull private final CharSequence myText;
+    private final int myCompletionOffset;
+    final int myReplacementOffset;
+    @NotNull final List<CompletionSuggestion> mySuggestions;
+
+    private Suggestions(@NotNull final VirtualFile file,
+                        @NotNull final CharSequence text,
+                        final int completionOffset,
+                        final int replacementOffset,
+                        @NotNull final List<CompletionSuggestion> suggestions) {
+      myFile = file;
+      myText = text;
+      myCompletionOffset = completionOffset;
+      myReplacementOffset = replacementOffset;
+      mySuggestions = suggestions;
+    }
+  }
+
+  @Nullable private Suggestions myLastSuggestions;
+
+  /**
+   * @param text the document text, an immutable snapshot
+   * @return the last suggestions if the text differs from the one they were received for only by the identifier being completed
+   */
+  @Nullable
+  synchronized Suggestions get(@NotNull final VirtualFile file, @NotNull final CharSequence text, final int completionOffset) {
+    final Suggestions last = myLastSuggestions;
+    if (last == null || !last.myFile.equals(file)) return null;
+
+    final int replacementOffset = last.myReplacementOffset;
+    if (completionOffset < replacementOffset || completionOffset > text.length()) return null;
+
+    final int tailLength = last.myText.length() - last.myCompletionOffset;
+    if (text.length() - completionOffset != tailLength) return null;
+
+    for (int i = replacementOffset; i < completionOffset; i++) {
+      if (!Character.isJavaIdentifierPart(text.charAt(i))) return null;
+    }
+
+    if (!regionMatches(text, 0, last.myText, 0, replacementOffset) ||
+        !regionMatches(text, completionOffset, last.myText, last.myCompletionOffset, tailLength)) {
+      return null;
+    }
+
+    return last;
+  }
+
+  /**
+   * Replaces the cached suggestions with the ones just received from the server, <code>null</code> clears the cache.
+   */
+  synchronized void update(@NotNull final VirtualFile file,
+                           @NotNull final CharSequence text,
+                           final int completionOffset,
+                           final int replacementOffset,
+                           @Nullable final List<CompletionSuggestion> suggestions) {
+    myLastSuggestions = suggestions == null || replacementOffset < 0 || replacementOffset > completionOffset
+                        ? null
+                        : new Suggestions(file, text, completionOffset, replacementOffset, suggestions);
+  }
+
+  private static boolean regionMatches(@NotNull final CharSequence s1,
+                                       final int start1,
+                                       @NotNull final CharSequence s2,
+                                       final int start2,
+                                       final int length) {
+    for (int i = 0; i < length; i++) {
+      if (s1.charAt(start1 + i) != s2.charAt(start2 + i)) return false;
+    }
+    return true;
+  }
+}
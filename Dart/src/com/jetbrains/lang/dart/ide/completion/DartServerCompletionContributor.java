@@ -18,6 +18,7 @@ import com.intellij.lang.injection.InjectedLanguageManager;
 import com.intellij.lang.xml.XMLLanguage;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
@@ -42,19 +43,24 @@ import com.jetbrains.lang.dart.psi.DartUriElement;
 import com.jetbrains.lang.dart.sdk.DartSdk;
 import com.jetbrains.lang.dart.util.DartResolveUtil;
 import com.jetbrains.lang.dart.util.PubspecYamlUtil;
+import gnu.trove.THashSet;
 import org.apache.commons.lang3.StringUtils;
 import org.dartlang.analysis.server.protocol.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static com.intellij.patterns.PlatformPatterns.psiElement;
 import static com.intellij.patterns.PlatformPatterns.psiFile;
 import static com.intellij.patterns.StandardPatterns.or;
 
 public class DartServerCompletionContributor extends CompletionContributor {
+  private final DartCompletionSessionCache mySessionCache = new DartCompletionSessionCache();
+
   public DartServerCompletionContributor() {
     extend(CompletionType.BASIC,
            or(psiElement().withLanguage(DartLanguage.INSTANCE),
@@ -86,14 +92,35 @@ public class DartServerCompletionContributor extends CompletionContributor {
 
                final int offset =
                  InjectedLanguageManager.getInstance(project).injectedToHost(parameters.getOriginalFile(), parameters.getOffset());
+               final String uriPrefix = getPrefixIfCompletingUri(parameters);
+               final Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+               final CharSequence text = document == null ? null : document.getImmutableCharSequence();
+               final long startTime = System.nanoTime();
+
+               // cached suggestions are shown before the server is asked, and are not added again when the server returns them
+               final Set<CompletionSuggestion> shownSuggestions = new THashSet<>();
+               if (uriPrefix == null && text != null) {
+                 final DartCompletionSessionCache.Suggestions cached = mySessionCache.get(file, text, offset);
+                 if (cached != null && getPrefixForSpecialCases(parameters, cached.myReplacementOffset) == null) {
+                   for (CompletionSuggestion suggestion : cached.mySuggestions) {
+                     originalResultSet.addElement(createLookupElement(project, suggestion));
+                     shownSuggestions.add(suggestion);
+                   }
+                   das.getMetrics().completionShown(System.nanoTime() - startTime, true);
+                 }
+               }
+
                final String completionId = das.completion_getSuggestions(file, offset);
                if (completionId == null) return;
 
-               final String uriPrefix = getPrefixIfCompletingUri(parameters);
                final CompletionResultSet resultSet = uriPrefix != null
                                                      ? originalResultSet.withPrefixMatcher(uriPrefix)
                                                      : originalResultSet;
 
+               final List<CompletionSuggestion> receivedSuggestions = new ArrayList<>();
+               final int[] receivedReplacementOffset = {-1};
+               final boolean[] cacheable = {uriPrefix == null && text != null};
+
                das.addCompletions(file, completionId, (replacementOffset, replacementLength, suggestion) -> {
                  final CompletionResultSet updatedResultSet;
                  if (uriPrefix != null) {
@@ -103,15 +130,25 @@ public class DartServerCompletionContributor extends CompletionContributor {
                    final String specialPrefix = getPrefixForSpecialCases(parameters, replacementOffset);
                    if (specialPrefix != null) {
                      updatedResultSet = resultSet.withPrefixMatcher(specialPrefix);
+                     cacheable[0] = false;
                    }
                    else {
                      updatedResultSet = resultSet;
                    }
                  }
 
+                 receivedSuggestions.add(suggestion);
+                 receivedReplacementOffset[0] = replacementOffset;
+                 if (shownSuggestions.contains(suggestion)) return;
+
                  final LookupElement lookupElement = createLookupElement(project, suggestion);
                  updatedResultSet.addElement(lookupElement);
                });
+
+               das.getMetrics().completionShown(System.nanoTime() - startTime, false);
+               if (text != null) {
+                 mySessionCache.update(file, text, offset, receivedReplacementOffset[0], cacheable[0] ? receivedSuggestions : null);
+               }
              }
            });
   }
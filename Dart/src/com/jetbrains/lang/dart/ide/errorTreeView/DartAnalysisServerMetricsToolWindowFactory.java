@@ -0,0 +1,90 @@
+/*
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.lang.dart.ide.errorTreeView;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.ide.CopyPasteManager;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.SimpleToolWindowPanel;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.util.ui.UIUtil;
+import com.jetbrains.lang.dart.analyzer.DartAnalysisServerMetrics;
+import com.jetbrains.lang.dart.analyzer.DartAnalysisServerService;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+
+/**
+ * Internal tool window showing {@link DartAnalysisServerMetrics} as JSON, available only in internal mode.
+ */
+public class DartAnalysisServerMetricsToolWindowFactory implements ToolWindowFactory, Condition<Project>, DumbAware {
+
+  @Override
+  public boolean value(final Project project) {
+    return ApplicationManager.getApplication().isInternal();
+  }
+
+  @Override
+  public void createToolWindowContent(@NotNull final Project project, @NotNull final ToolWindow toolWindow) {
+    final DartAnalysisServerMetrics metrics = DartAnalysisServerService.getInstance(project).getMetrics();
+
+    final JTextArea textArea = new JTextArea();
+    textArea.setEditable(false);
+    textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, UIUtil.getLabelFont().getSize()));
+    textArea.setText(metrics.toJson());
+
+    final DefaultActionGroup group = new DefaultActionGroup();
+    group.add(new DumbAwareAction("Refresh", null, AllIcons.Actions.Refresh) {
+      @Override
+      public void actionPerformed(AnActionEvent e) {
+        textArea.setText(metrics.toJson());
+      }
+    });
+    group.add(new DumbAwareAction("Copy as JSON", null, AllIcons.Actions.Copy) {
+      @Override
+      public void actionPerformed(AnActionEvent e) {
+        final String json = metrics.toJson();
+        textArea.setText(json);
+        CopyPasteManager.getInstance().setContents(new StringSelection(json));
+      }
+    });
+    group.add(new DumbAwareAction("Reset", null, AllIcons.Actions.GC) {
+      @Override
+      public void actionPerformed(AnActionEvent e) {
+        metrics.reset();
+        textArea.setText(metrics.toJson());
+      }
+    });
+
+    final SimpleToolWindowPanel panel = new SimpleToolWindowPanel(false, true);
+    panel.setContent(new JBScrollPane(textArea));
+    panel.setToolbar(ActionManager.getInstance().createActionToolbar(ActionPlaces.UNKNOWN, group, false).getComponent());
+
+    final Content content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false);
+    toolWindow.getContentManager().addContent(content);
+  }
+}
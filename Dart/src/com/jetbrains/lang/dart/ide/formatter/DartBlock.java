@@ -27,10 +27,10 @@ public class DartBlock extends AbstractBlock implements BlockWithParent {
 
   private static final TokenSet LAST_TOKENS_IN_SWITCH_CASE = TokenSet.create(BREAK_STATEMENT, CONTINUE_STATEMENT, RETURN_STATEMENT);
 
-  private final DartIndentProcessor myIndentProcessor;
-  private final DartSpacingProcessor mySpacingProcessor;
-  private final DartWrappingProcessor myWrappingProcessor;
-  private final DartAlignmentProcessor myAlignmentProcessor;
+  // created on demand: most blocks are leaves and never asked for spacing or child wraps and alignments
+  private DartSpacingProcessor mySpacingProcessor;
+  private DartWrappingProcessor myWrappingProcessor;
+  private DartAlignmentProcessor myAlignmentProcessor;
   private final CodeStyleSettings mySettings;
   private final DartBlockContext myContext;
   private Wrap myChildWrap = null;
@@ -42,11 +42,7 @@ public class DartBlock extends AbstractBlock implements BlockWithParent {
     super(node, wrap, alignment);
     mySettings = settings;
     myContext = context;
-    myIndentProcessor = new DartIndentProcessor(context.getDartSettings());
-    mySpacingProcessor = new DartSpacingProcessor(node, context.getDartSettings());
-    myWrappingProcessor = new DartWrappingProcessor(node, context.getDartSettings());
-    myAlignmentProcessor = new DartAlignmentProcessor(node, context.getDartSettings());
-    myIndent = myIndentProcessor.getChildIndent(myNode, context.getMode());
+    myIndent = context.getIndentProcessor().getChildIndent(myNode, context.getMode());
   }
 
   @Override
@@ -56,6 +52,9 @@ public class DartBlock extends AbstractBlock implements BlockWithParent {
 
   @Override
   public Spacing getSpacing(Block child1, @NotNull Block child2) {
+    if (mySpacingProcessor == null) {
+      mySpacingProcessor = new DartSpacingProcessor(myNode, myContext.getDartSettings());
+    }
     return mySpacingProcessor.getSpacing(child1, child2);
   }
 
@@ -77,6 +76,9 @@ public class DartBlock extends AbstractBlock implements BlockWithParent {
 
   public Wrap createChildWrap(ASTNode child) {
     final IElementType childType = child.getElementType();
+    if (myWrappingProcessor == null) {
+      myWrappingProcessor = new DartWrappingProcessor(myNode, myContext.getDartSettings());
+    }
     final Wrap wrap = myWrappingProcessor.createChildWrap(child, Wrap.createWrap(WrapType.NONE, false), myChildWrap);
 
     if (childType == ASSIGNMENT_OPERATOR) {
@@ -89,6 +91,9 @@ public class DartBlock extends AbstractBlock implements BlockWithParent {
   protected Alignment createChildAlignment(ASTNode child) {
     final IElementType type = child.getElementType();
     if (type != LPAREN && !BLOCKS.contains(type)) {
+      if (myAlignmentProcessor == null) {
+        myAlignmentProcessor = new DartAlignmentProcessor(myNode, myContext.getDartSettings());
+      }
       return myAlignmentProcessor.createChildAlignment();
     }
     return null;
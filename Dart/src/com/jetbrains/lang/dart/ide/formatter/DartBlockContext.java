@@ -9,11 +9,13 @@ class DartBlockContext {
   private final CodeStyleSettings mySettings;
   private final FormattingMode myMode;
   private final CommonCodeStyleSettings myDartSettings;
+  private final DartIndentProcessor myIndentProcessor;
 
   public DartBlockContext(CodeStyleSettings settings, FormattingMode mode) {
     mySettings = settings;
     myMode = mode;
     myDartSettings = settings.getCommonSettings(DartLanguage.INSTANCE);
+    myIndentProcessor = new DartIndentProcessor(myDartSettings);
   }
 
   public CodeStyleSettings getSettings() {
@@ -24,6 +26,10 @@ class DartBlockContext {
     return myDartSettings;
   }
 
+  public DartIndentProcessor getIndentProcessor() {
+    return myIndentProcessor;
+  }
+
   public FormattingMode getMode() {
     return myMode;
   }
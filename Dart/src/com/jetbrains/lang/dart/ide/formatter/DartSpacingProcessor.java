@@ -4,6 +4,7 @@ import com.intellij.formatting.Block;
 import com.intellij.formatting.Spacing;
 import com.intellij.lang.ASTNode;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.codeStyle.CommonCodeStyleSettings;
 import com.intellij.psi.formatter.FormatterUtil;
 import com.intellij.psi.formatter.common.AbstractBlock;
@@ -962,7 +963,7 @@ public class DartSpacingProcessor {
       while (arg != null) {
         // TODO Max 9 args is totally arbitrary, possibly not even desirable.
         if (n++ == 10 || arg.getElementType() == FUNCTION_EXPRESSION) {
-          if (arg.getText().indexOf('\n') >= 0) {
+          if (containsLineFeed(arg)) {
             return true;
           }
         }
@@ -972,6 +973,18 @@ public class DartSpacingProcessor {
     return false;
   }
 
+  // unlike node.getText(), doesn't build the text of the whole (possibly large) function expression and stops at the first line feed
+  private static boolean containsLineFeed(@NotNull final ASTNode node) {
+    final ASTNode firstChild = node.getFirstChildNode();
+    if (firstChild == null) {
+      return StringUtil.indexOf(node.getChars(), '\n') >= 0;
+    }
+    for (ASTNode child = firstChild; child != null; child = child.getTreeNext()) {
+      if (containsLineFeed(child)) return true;
+    }
+    return false;
+  }
+
   private Spacing createSpacingForCallChain(CallChain calls, ASTNode node2) {
     // The rules involving call chains, like m.a.b().c.d(), are complex.
     if (calls.list.size() < 2) {
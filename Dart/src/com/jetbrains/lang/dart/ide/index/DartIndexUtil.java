@@ -1,11 +1,13 @@
 package com.jetbrains.lang.dart.ide.index;
 
 import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.indexing.FileContent;
 import com.jetbrains.lang.dart.DartComponentType;
+import com.jetbrains.lang.dart.DartFileType;
 import com.jetbrains.lang.dart.psi.*;
 import com.jetbrains.lang.dart.util.DartControlFlowUtil;
 import com.jetbrains.lang.dart.util.DartResolveUtil;
@@ -18,7 +20,7 @@ import static com.jetbrains.lang.dart.ide.index.DartImportOrExportInfo.Kind;
 
 public class DartIndexUtil {
   // inc when change parser
-  public static final int INDEX_VERSION = 23;
+  public static final int INDEX_VERSION = 24;
 
   private static final Key<DartFileIndexData> ourDartCachesData = Key.create("dart.caches.index.data");
 
@@ -29,13 +31,20 @@ public class DartIndexUtil {
     synchronized (content) {
       indexData = content.getUserData(ourDartCachesData);
       if (indexData != null) return indexData;
-      indexData = indexFileRoots(content.getPsiFile());
+      indexData = content.getFileType() == DartFileType.INSTANCE && Registry.is("dart.index.lexer.fast.path", true)
+                  ? DartLexerIndexer.index(content.getContentAsText(), content.getFileName())
+                  : null;
+      if (indexData == null) {
+        indexData = indexFileRoots(content.getPsiFile());
+      }
+      // the same content is indexed by several Dart indices one after another
+      content.putUserData(ourDartCachesData, indexData);
     }
 
     return indexData;
   }
 
-  private static DartFileIndexData indexFileRoots(PsiFile psiFile) {
+  static DartFileIndexData indexFileRoots(PsiFile psiFile) {
     DartFileIndexData result = new DartFileIndexData();
 
     result.setLibraryName(DartResolveUtil.getLibraryName(psiFile));
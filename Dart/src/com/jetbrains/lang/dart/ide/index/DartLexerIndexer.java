@@ -0,0 +1,630 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.ArrayUtil;
+import com.jetbrains.lang.dart.DartComponentType;
+import com.jetbrains.lang.dart.DartTokenTypesSets;
+import com.jetbrains.lang.dart.lexer.DartLexer;
+import com.jetbrains.lang.dart.util.DartPsiImplUtil;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static com.jetbrains.lang.dart.DartTokenTypes.*;
+import static com.jetbrains.lang.dart.ide.index.DartImportOrExportInfo.Kind;
+
+/**
+ * Builds the same {@link DartFileIndexData} as {@link DartIndexUtil#indexFileRoots} but from lexer tokens only, without building PSI.
+ * Only declarations that matter for indices are recognized: directives, top-level declarations and names of class members;
+ * function bodies and initializers are skipped as balanced token groups.
+ * <p>
+ * Whenever the token stream doesn't look like valid code this class can handle unambiguously ({@code part of 'uri'}, conditional imports,
+ * interpolated uris, syntax errors, etc.) {@link #index} returns <code>null</code> and the caller falls back to PSI-based indexing.
+ */
+final class DartLexerIndexer {
+  private static final String FUNCTION = "Function";
+
+  @NotNull private final CharSequence myText;
+  @NotNull private final String myFileName;
+  private IElementType[] myTypes = new IElementType[256];
+  private int[] myStarts = new int[256];
+  private int[] myEnds = new int[256];
+  private int myCount;
+  private int myPos;
+
+  @Nullable private String myLibraryStatementName;
+  @Nullable private String myPartOfLibraryName;
+  private final List<String> myTopLevelNames = new ArrayList<>();
+  private final List<DartComponentType> myTopLevelTypes = new ArrayList<>();
+  private final List<String> myImportPrefixes = new ArrayList<>();
+  private final DartFileIndexData myResult = new DartFileIndexData();
+
+  private DartLexerIndexer(@NotNull final CharSequence text, @NotNull final String fileName) {
+    myText = text;
+    myFileName = fileName;
+  }
+
+  /**
+   * @return <code>null</code> if the file contains constructs that need the parser to be indexed correctly
+   */
+  @Nullable
+  static DartFileIndexData index(@NotNull final CharSequence text, @NotNull final String fileName) {
+    final DartLexerIndexer indexer = new DartLexerIndexer(text, fileName);
+    indexer.tokenize();
+    return indexer.parseFile() ? indexer.myResult : null;
+  }
+
+  private void tokenize() {
+    final DartLexer lexer = new DartLexer();
+    lexer.start(myText);
+    IElementType tokenType;
+    while ((tokenType = lexer.getTokenType()) != null) {
+      if (tokenType != DartTokenTypesSets.WHITE_SPACE && !DartTokenTypesSets.COMMENTS.contains(tokenType)) {
+        if (myCount == myTypes.length) {
+          final int newLength = myCount * 2;
+          myTypes = Arrays.copyOf(myTypes, newLength);
+          myStarts = ArrayUtil.realloc(myStarts, newLength);
+          myEnds = ArrayUtil.realloc(myEnds, newLength);
+        }
+        myTypes[myCount] = tokenType;
+        myStarts[myCount] = lexer.getTokenStart();
+        myEnds[myCount] = lexer.getTokenEnd();
+        myCount++;
+      }
+      lexer.advance();
+    }
+  }
+
+  private boolean parseFile() {
+    while (myPos < myCount) {
+      if (!parseTopLevelDefinition()) return false;
+    }
+
+    final String libraryName = myLibraryStatementName != null ? myLibraryStatementName
+                                                              : myPartOfLibraryName != null ? myPartOfLibraryName : myFileName;
+    myResult.setLibraryName(libraryName);
+    for (int i = 0; i < myTopLevelNames.size(); i++) {
+      myResult.addComponentInfo(myTopLevelNames.get(i), new DartComponentInfo(myTopLevelTypes.get(i), libraryName));
+    }
+    // import prefixes win over top-level declarations with the same name, as in DartIndexUtil
+    for (String importPrefix : myImportPrefixes) {
+      myResult.addComponentInfo(importPrefix, new DartComponentInfo(DartComponentType.LABEL, null));
+    }
+    return true;
+  }
+
+  private boolean parseTopLevelDefinition() {
+    if (!skipMetadata()) return false;
+
+    final IElementType type = type(myPos);
+    if (type == LIBRARY && isId(myPos + 1)) return parseLibraryStatement();
+    if (type == PART && type(myPos + 1) == OF) return parsePartOfStatement();
+    if (type == PART && isStringStart(myPos + 1)) return parsePartStatement();
+    if ((type == IMPORT || type == EXPORT) && isStringStart(myPos + 1)) return parseImportOrExportStatement();
+    if (type == CLASS || type == ABSTRACT && type(myPos + 1) == CLASS) return parseClass();
+    if (type == ENUM) return parseEnum();
+    if (type == TYPEDEF) return parseTypedef();
+    if (type == SEMICOLON) {
+      myPos++;
+      return true;
+    }
+    return parseDeclaration(false);
+  }
+
+  private boolean parseLibraryStatement() {
+    myPos++;
+    final StringBuilder name = new StringBuilder(text(myPos));
+    myPos++;
+    while (type(myPos) == DOT && isId(myPos + 1)) {
+      name.append('.').append(text(myPos + 1));
+      myPos += 2;
+    }
+    if (!consume(SEMICOLON)) return false;
+
+    if (myLibraryStatementName == null) {
+      myLibraryStatementName = name.toString();
+    }
+    return true;
+  }
+
+  private boolean parsePartOfStatement() {
+    myPos += 2;
+    // 'part of' with uri needs the referenced file to get the library name
+    if (!isId(myPos)) return false;
+
+    final int start = myStarts[myPos];
+    myPos++;
+    while (type(myPos) == DOT && isId(myPos + 1)) {
+      myPos += 2;
+    }
+    final int end = myEnds[myPos - 1];
+    if (!consume(SEMICOLON)) return false;
+
+    if (myPartOfLibraryName == null) {
+      // PSI takes the text of the whole element, including whitespaces and comments between parts of the name
+      myPartOfLibraryName = myText.subSequence(start, end).toString();
+    }
+    myResult.setIsPart(true);
+    return true;
+  }
+
+  private boolean parsePartStatement() {
+    myPos++;
+    final String uri = parseUri();
+    if (uri == null || !consume(SEMICOLON)) return false;
+
+    myResult.addPartUri(uri);
+    return true;
+  }
+
+  private boolean parseImportOrExportStatement() {
+    final Kind kind = type(myPos) == IMPORT ? Kind.Import : Kind.Export;
+    myPos++;
+    final String uri = parseUri();
+    if (uri == null) return false;
+
+    String importPrefix = null;
+    if (kind == Kind.Import) {
+      if (type(myPos) == DEFERRED) {
+        myPos++;
+      }
+      if (type(myPos) == AS) {
+        if (!isId(myPos + 1)) return false;
+        importPrefix = text(myPos + 1);
+        myPos += 2;
+      }
+    }
+
+    final Set<String> showComponentNames = new THashSet<>();
+    final Set<String> hideComponentNames = new THashSet<>();
+    while (type(myPos) == SHOW || type(myPos) == HIDE) {
+      final Set<String> names = type(myPos) == SHOW ? showComponentNames : hideComponentNames;
+      myPos++;
+      if (!isId(myPos)) return false;
+      names.add(text(myPos));
+      myPos++;
+      while (type(myPos) == COMMA && isId(myPos + 1)) {
+        names.add(text(myPos + 1));
+        myPos += 2;
+      }
+    }
+
+    // conditional imports and anything unexpected are handled by the parser
+    if (!consume(SEMICOLON)) return false;
+
+    myResult.addImportInfo(new DartImportOrExportInfo(kind, uri, importPrefix, showComponentNames, hideComponentNames));
+    if (importPrefix != null) {
+      myImportPrefixes.add(importPrefix);
+    }
+    return true;
+  }
+
+  private boolean parseClass() {
+    if (type(myPos) == ABSTRACT) {
+      myPos++;
+    }
+    myPos++;
+    if (!isId(myPos)) return false;
+
+    final String className = text(myPos);
+    myPos++;
+    addTopLevelComponent(className, DartComponentType.CLASS);
+    myResult.addClassName(className);
+
+    if (type(myPos) == LT && !skipTypeArguments()) return false;
+
+    if (type(myPos) == EQ) {
+      // mixin application, no members
+      while (type(myPos) != SEMICOLON) {
+        if (!skipToken()) return false;
+      }
+      myPos++;
+      return true;
+    }
+
+    while (type(myPos) != LBRACE) {
+      final IElementType type = type(myPos);
+      if (type == SEMICOLON) {
+        myPos++;
+        return true;
+      }
+      if (type == null || type == RBRACE || !skipToken()) return false;
+    }
+    myPos++;
+
+    while (type(myPos) != RBRACE) {
+      if (type(myPos) == null || !parseClassMember()) return false;
+    }
+    myPos++;
+    return true;
+  }
+
+  private boolean parseEnum() {
+    myPos++;
+    if (!isId(myPos)) return false;
+
+    addTopLevelComponent(text(myPos), DartComponentType.CLASS);
+    myResult.addClassName(text(myPos));
+    myPos++;
+    if (!consume(LBRACE)) return false;
+
+    while (isId(myPos)) {
+      myResult.addSymbol(text(myPos));
+      myPos++;
+      if (type(myPos) != COMMA) break;
+      myPos++;
+    }
+    return consume(RBRACE);
+  }
+
+  private boolean parseTypedef() {
+    myPos++;
+    if (isId(myPos) && (type(myPos + 1) == EQ || type(myPos + 1) == LT && isGenericTypeAlias())) {
+      // typedef F<T> = void Function(T);
+      addTopLevelComponent(text(myPos), DartComponentType.TYPEDEF);
+      while (type(myPos) != SEMICOLON) {
+        if (!skipToken()) return false;
+      }
+      myPos++;
+      return true;
+    }
+
+    // typedef void F<T>(T t);
+    int nameIndex = -1;
+    while (type(myPos) != LPAREN) {
+      if (isId(myPos)) {
+        nameIndex = myPos;
+        myPos++;
+      }
+      else if (type(myPos) == VOID || type(myPos) == DOT) {
+        myPos++;
+      }
+      else if (type(myPos) != LT || !skipTypeArguments()) {
+        return false;
+      }
+    }
+    if (nameIndex < 0 || FUNCTION.equals(text(nameIndex))) return false;
+
+    addTopLevelComponent(text(nameIndex), DartComponentType.TYPEDEF);
+    if (!skipGroup()) return false;
+    if (type(myPos) == SEMICOLON) {
+      myPos++;
+    }
+    return true;
+  }
+
+  /**
+   * <code>operator(a)</code> and <code>operator&lt;T&gt;(a)</code> are methods named 'operator', but <code>operator &lt;(a)</code> is not.
+   */
+  private boolean isOperatorName(final int index) {
+    final IElementType type = type(index);
+    return type != LPAREN && (type != LT || type(index + 1) == LPAREN);
+  }
+
+  private boolean isGenericTypeAlias() {
+    final int start = myPos;
+    myPos++;
+    final boolean result = skipTypeArguments() && type(myPos) == EQ;
+    myPos = start;
+    return result;
+  }
+
+  private boolean parseClassMember() {
+    if (type(myPos) == SEMICOLON) {
+      myPos++;
+      return true;
+    }
+    if (!skipMetadata()) return false;
+
+    int factoryPos = myPos;
+    while (type(factoryPos) == EXTERNAL || type(factoryPos) == CONST) {
+      factoryPos++;
+    }
+    if (type(factoryPos) == FACTORY) {
+      myPos = factoryPos + 1;
+      return parseFactoryConstructor();
+    }
+
+    return parseDeclaration(true);
+  }
+
+  private boolean parseFactoryConstructor() {
+    if (!isId(myPos)) return false;
+
+    String name = text(myPos);
+    myPos++;
+    if (type(myPos) == DOT) {
+      if (!isId(myPos + 1)) return false;
+      name = text(myPos + 1);
+      myPos += 2;
+    }
+    if (type(myPos) == LT && !skipTypeArguments()) return false;
+    if (type(myPos) != LPAREN || !skipGroup()) return false;
+
+    myResult.addSymbol(name);
+    return skipFunctionTail();
+  }
+
+  /**
+   * Function, method, constructor, getter, setter, operator or variable declaration, starting after metadata.
+   */
+  private boolean parseDeclaration(final boolean classMember) {
+    boolean varOrFinalOrConst = false;
+    while (true) {
+      final IElementType type = type(myPos);
+      if (type == FINAL || type == CONST || type == VAR) {
+        varOrFinalOrConst = true;
+      }
+      else if (type != EXTERNAL && type != STATIC && type != COVARIANT) {
+        break;
+      }
+      myPos++;
+    }
+
+    int nameIndex = -1;
+    int typeAndNameCount = 0;
+    while (true) {
+      final IElementType type = type(myPos);
+      if ((type == GET || type == SET) && isId(myPos + 1)) {
+        addDeclaration(classMember, text(myPos + 1), DartComponentType.FUNCTION);
+        myPos += 2;
+        if (type(myPos) == LPAREN && !skipGroup()) return false;
+        return skipFunctionTail();
+      }
+
+      if (type == OPERATOR && classMember && isOperatorName(myPos + 1)) {
+        myPos++;
+        final int start = myStarts[myPos];
+        while (type(myPos) != LPAREN) {
+          if (!DartTokenTypesSets.OPERATORS.contains(type(myPos)) && type(myPos) != LBRACKET && type(myPos) != RBRACKET) return false;
+          myPos++;
+        }
+        addDeclaration(true, myText.subSequence(start, myEnds[myPos - 1]).toString(), null);
+        return skipGroup() && skipFunctionTail();
+      }
+
+      if (isId(myPos)) {
+        if (FUNCTION.equals(text(myPos)) && (type(myPos + 1) == LPAREN || type(myPos + 1) == LT)) {
+          // function type in the return type or variable type
+          myPos++;
+          if (type(myPos) == LT && !skipTypeArguments()) return false;
+          if (!skipGroup()) return false;
+          nameIndex = -1;
+          typeAndNameCount++;
+          continue;
+        }
+
+        nameIndex = myPos;
+        typeAndNameCount++;
+        myPos++;
+      }
+      else if (type == VOID) {
+        nameIndex = -1;
+        typeAndNameCount++;
+        myPos++;
+      }
+      else if (type == DOT) {
+        // qualified type or named constructor
+        if (nameIndex < 0 || !isId(myPos + 1)) return false;
+        nameIndex = -1;
+        myPos++;
+      }
+      else if (type == LT) {
+        if (!skipTypeArguments()) return false;
+      }
+      else if (type == LPAREN) {
+        if (nameIndex < 0) return false;
+        addDeclaration(classMember, text(nameIndex), DartComponentType.FUNCTION);
+        return skipGroup() && skipFunctionTail();
+      }
+      else if (type == EQ || type == COMMA || type == SEMICOLON) {
+        // 'Foo;' without type or var/final/const is an incomplete declaration, it doesn't declare anything
+        if (nameIndex < 0 || typeAndNameCount < 2 && !varOrFinalOrConst) return false;
+        addDeclaration(classMember, text(nameIndex), DartComponentType.VARIABLE);
+        return parseVariablesTail(classMember);
+      }
+      else {
+        return false;
+      }
+    }
+  }
+
+  private boolean parseVariablesTail(final boolean classMember) {
+    while (true) {
+      if (type(myPos) == EQ) {
+        myPos++;
+        while (type(myPos) != COMMA && type(myPos) != SEMICOLON) {
+          if (type(myPos) == RBRACE || !skipToken()) return false;
+        }
+      }
+
+      if (type(myPos) == SEMICOLON) {
+        myPos++;
+        return true;
+      }
+
+      myPos++; // comma
+      if (!isId(myPos)) return false;
+      addDeclaration(classMember, text(myPos), DartComponentType.VARIABLE);
+      myPos++;
+      final IElementType type = type(myPos);
+      if (type != EQ && type != COMMA && type != SEMICOLON) return false;
+    }
+  }
+
+  /**
+   * Skips everything after the formal parameter list: initializers, redirection, async modifiers and the body.
+   * A map literal or a closure in initializers may be taken for the body, then the rest is either a stray ';' or fails the member parsing.
+   */
+  private boolean skipFunctionTail() {
+    boolean initializers = false;
+    while (true) {
+      final IElementType type = type(myPos);
+      if (type == null) return true; // as the parser does
+      if (type == SEMICOLON) {
+        myPos++;
+        return true;
+      }
+      if (type == LBRACE) {
+        return skipGroup();
+      }
+      if (type == EXPRESSION_BODY_DEF || type == EQ && !initializers) {
+        myPos++;
+        while (type(myPos) != SEMICOLON) {
+          if (type(myPos) == RBRACE || !skipToken()) return false;
+        }
+        myPos++;
+        return true;
+      }
+      if (type == RBRACE) return false;
+      if (type == COLON) {
+        initializers = true;
+      }
+      // initializers, redirection, 'async', 'sync*', 'native "name"'
+      if (!skipToken()) return false;
+    }
+  }
+
+  private boolean skipMetadata() {
+    while (type(myPos) == AT) {
+      myPos++;
+      if (!isId(myPos)) return false;
+      myPos++;
+      while (type(myPos) == DOT && isId(myPos + 1)) {
+        myPos += 2;
+      }
+      if (type(myPos) == LPAREN && !skipGroup()) return false;
+    }
+    return true;
+  }
+
+  @Nullable
+  private String parseUri() {
+    final int start = myPos;
+    final IElementType type = type(myPos);
+    if (type == RAW_SINGLE_QUOTED_STRING || type == RAW_TRIPLE_QUOTED_STRING) {
+      myPos++;
+    }
+    else if (type == OPEN_QUOTE) {
+      myPos++;
+      if (type(myPos) == REGULAR_STRING_PART) {
+        myPos++;
+      }
+      if (!consume(CLOSING_QUOTE)) return null;
+    }
+    else {
+      return null;
+    }
+
+    // adjacent strings are handled by the parser
+    if (isStringStart(myPos)) return null;
+
+    final String literal = myText.subSequence(myStarts[start], myEnds[myPos - 1]).toString();
+    return DartPsiImplUtil.getUnquotedDartStringAndItsRange(literal).first;
+  }
+
+  /**
+   * Skips type arguments or type parameters, myPos must point to '<'.
+   */
+  private boolean skipTypeArguments() {
+    myPos++;
+    int depth = 1;
+    while (depth > 0) {
+      final IElementType type = type(myPos);
+      if (type == LT) {
+        depth++;
+      }
+      else if (type == GT) {
+        depth--;
+      }
+      else if (type == LPAREN) {
+        if (!skipGroup()) return false;
+        continue;
+      }
+      else if (type == null || type == SEMICOLON || type == LBRACE || type == RBRACE) {
+        return false;
+      }
+      myPos++;
+    }
+    return true;
+  }
+
+  /**
+   * Skips one token, or a whole balanced group if myPos points to an opening paren, bracket or brace.
+   */
+  private boolean skipToken() {
+    final IElementType type = type(myPos);
+    if (type == null) return false;
+    if (type == LPAREN || type == LBRACKET || type == LBRACE) return skipGroup();
+    if (type == RPAREN || type == RBRACKET || type == RBRACE) return false;
+    myPos++;
+    return true;
+  }
+
+  /**
+   * Skips a balanced group, myPos must point to an opening paren, bracket or brace.
+   */
+  private boolean skipGroup() {
+    int depth = 0;
+    do {
+      final IElementType type = type(myPos);
+      if (type == null) return false;
+      if (type == LPAREN || type == LBRACKET || type == LBRACE) {
+        depth++;
+      }
+      else if (type == RPAREN || type == RBRACKET || type == RBRACE) {
+        depth--;
+      }
+      myPos++;
+    }
+    while (depth > 0);
+    return true;
+  }
+
+  private void addDeclaration(final boolean classMember, @NotNull final String name, @Nullable final DartComponentType topLevelType) {
+    if (classMember) {
+      myResult.addSymbol(name);
+    }
+    else {
+      addTopLevelComponent(name, topLevelType);
+    }
+  }
+
+  private void addTopLevelComponent(@NotNull final String name, @Nullable final DartComponentType type) {
+    myResult.addSymbol(name);
+    // component infos need the library name that is known only at the end of the file
+    myTopLevelNames.add(name);
+    myTopLevelTypes.add(type);
+  }
+
+  private boolean consume(@NotNull final IElementType type) {
+    if (type(myPos) != type) return false;
+    myPos++;
+    return true;
+  }
+
+  @Nullable
+  private IElementType type(final int index) {
+    return index < myCount ? myTypes[index] : null;
+  }
+
+  private boolean isId(final int index) {
+    final IElementType type = type(index);
+    return type == IDENTIFIER || DartTokenTypesSets.BUILT_IN_IDENTIFIERS.contains(type);
+  }
+
+  private boolean isStringStart(final int index) {
+    final IElementType type = type(index);
+    return type == OPEN_QUOTE || type == RAW_SINGLE_QUOTED_STRING || type == RAW_TRIPLE_QUOTED_STRING;
+  }
+
+  @NotNull
+  private String text(final int index) {
+    return myText.subSequence(myStarts[index], myEnds[index]).toString();
+  }
+}
@@ -0,0 +1,304 @@
+package com.jetbrains.lang.dart.ide.runner.server.vmService;
+
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.SmartList;
+import gnu.trove.THashMap;
+import org.dartlang.vm.service.VmService;
+import org.dartlang.vm.service.consumer.GetObjectConsumer;
+import org.dartlang.vm.service.element.Obj;
+import org.dartlang.vm.service.element.RPCError;
+import org.dartlang.vm.service.element.Sentinel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * getObject() requests made while an isolate is paused. Objects can't change until the isolate resumes, so responses are cached per
+ * isolate till {@link #invalidate(String)}, and concurrent requests for the same object share one round-trip.
+ * <p>
+ * Requests are pipelined, but at most {@link #MAX_REQUESTS_IN_FLIGHT} of them wait for a response at a time, so that expanding
+ * a large object graph doesn't flood the VM; the rest are queued. The VM may never answer requests sent before the isolate resumed or
+ * exited, so {@link #invalidate(String)} frees all slots and fails the queued requests of the isolate.
+ */
+final class VmServiceObjectCache {
+  private static final Logger LOG = Logger.getInstance(VmServiceObjectCache.class.getName());
+
+  private static final int MAX_REQUESTS_IN_FLIGHT = 16;
+  // JSON-RPC code for a request that the client gave up on
+  private static final int REQUEST_CANCELED = -32800;
+
+  private static final class Entry {
+    // null when the response is received
+    @Nullable private List<GetObjectConsumer> myConsumers = new SmartList<>();
+    @Nullable private Obj myObj;
+    @Nullable private Sentinel mySentinel;
+  }
+
+  private static final class Request {
+    @NotNull private final String myIsolateId;
+    @NotNull private final GetObjectConsumer myConsumer;
+    private Runnable mySender;
+    // window generation when the request got its slot, guarded by VmServiceObjectCache.this
+    private int myGeneration;
+
+    private Request(@NotNull final String isolateId, @NotNull final GetObjectConsumer consumer) {
+      myIsolateId = isolateId;
+      myConsumer = consumer;
+    }
+  }
+
+  private static final class IsolateObjects {
+    private final Map<String, Entry> myEntries = new THashMap<>();
+    private int myRequestCount;
+    private int myRoundTripCount;
+  }
+
+  @NotNull private final VmService myVmService;
+  @NotNull private final Predicate<Runnable> myRequestScheduler;
+
+  private final Map<String, IsolateObjects> myIsolateIdToObjects = new THashMap<>();
+  private final Queue<Request> myQueuedRequests = new ArrayDeque<>();
+  private int myRequestsInFlight;
+  // incremented when the slots are freed by invalidate(), responses to the requests of older generations don't free slots
+  private int myGeneration;
+
+  /**
+   * @param requestScheduler runs the given request in the thread where the VM service is called, returns <code>false</code> if the request
+   *                         is rejected and will never run
+   */
+  VmServiceObjectCache(@NotNull final VmService vmService, @NotNull final Predicate<Runnable> requestScheduler) {
+    myVmService = vmService;
+    myRequestScheduler = requestScheduler;
+  }
+
+  /**
+   * @param cacheable <code>false</code> if the isolate is not paused, the request is then just sent
+   */
+  void getObject(@NotNull final String isolateId,
+                 @NotNull final String objectId,
+                 @Nullable final Integer offset,
+                 @Nullable final Integer count,
+                 final boolean cacheable,
+                 @NotNull final GetObjectConsumer consumer) {
+    if (!cacheable) {
+      send(isolateId, objectId, offset, count, consumer);
+      return;
+    }
+
+    final String key = offset == null ? objectId : objectId + "[" + offset + "," + count + "]";
+    final Entry entry;
+    final boolean cached;
+    synchronized (this) {
+      final IsolateObjects objects = myIsolateIdToObjects.computeIfAbsent(isolateId, id -> new IsolateObjects());
+      objects.myRequestCount++;
+
+      final Entry existing = objects.myEntries.get(key);
+      if (existing == null) {
+        objects.myRoundTripCount++;
+        entry = new Entry();
+        //noinspection ConstantConditions
+        entry.myConsumers.add(consumer);
+        objects.myEntries.put(key, entry);
+        cached = false;
+      }
+      else if (existing.myConsumers != null) {
+        existing.myConsumers.add(consumer); // response is on the way
+        return;
+      }
+      else {
+        entry = existing;
+        cached = true;
+      }
+    }
+
+    if (cached) {
+      // not in the calling thread: it may be EDT, and consumers expect to be called asynchronously
+      ApplicationManager.getApplication().executeOnPooledThread(() -> deliver(consumer, entry.myObj, entry.mySentinel));
+      return;
+    }
+
+    send(isolateId, objectId, offset, count, new GetObjectConsumer() {
+      @Override
+      public void received(final Obj response) {
+        done(response, null);
+      }
+
+      @Override
+      public void received(final Sentinel response) {
+        done(null, response);
+      }
+
+      @Override
+      public void onError(final RPCError error) {
+        final List<GetObjectConsumer> consumers;
+        synchronized (VmServiceObjectCache.this) {
+          consumers = entry.myConsumers;
+          entry.myConsumers = null;
+          // errors are not cached, next request will try again
+          final IsolateObjects objects = myIsolateIdToObjects.get(isolateId);
+          if (objects != null && objects.myEntries.get(key) == entry) {
+            objects.myEntries.remove(key);
+          }
+        }
+
+        if (consumers != null) {
+          for (GetObjectConsumer consumer : consumers) {
+            consumer.onError(error);
+          }
+        }
+      }
+
+      private void done(@Nullable final Obj obj, @Nullable final Sentinel sentinel) {
+        final List<GetObjectConsumer> consumers;
+        synchronized (VmServiceObjectCache.this) {
+          consumers = entry.myConsumers;
+          entry.myConsumers = null;
+          entry.myObj = obj;
+          entry.mySentinel = sentinel;
+        }
+
+        if (consumers != null) {
+          for (GetObjectConsumer consumer : consumers) {
+            deliver(consumer, obj, sentinel);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Must be called when the isolate is resumed or may have changed its state while paused, e.g. because an expression was evaluated.
+   * Responses to the requests already sent are delivered anyway, but not cached.
+   */
+  void invalidate(@NotNull final String isolateId) {
+    final List<Request> canceled = new SmartList<>();
+    final List<Request> toSend = new SmartList<>();
+    synchronized (this) {
+      final IsolateObjects objects = myIsolateIdToObjects.remove(isolateId);
+      if (objects != null && LOG.isDebugEnabled()) {
+        LOG.debug("Isolate " + isolateId + ": " + objects.myRequestCount + " getObject() requests, " +
+                  objects.myRoundTripCount + " round-trips");
+      }
+
+      myGeneration++;
+      myRequestsInFlight = 0;
+      for (Iterator<Request> iterator = myQueuedRequests.iterator(); iterator.hasNext(); ) {
+        final Request request = iterator.next();
+        if (request.myIsolateId.equals(isolateId)) {
+          iterator.remove();
+          canceled.add(request);
+        }
+      }
+      Request request;
+      while (myRequestsInFlight < MAX_REQUESTS_IN_FLIGHT && (request = myQueuedRequests.poll()) != null) {
+        takeSlot(request);
+        toSend.add(request);
+      }
+    }
+
+    if (!canceled.isEmpty()) {
+      // not in the calling thread, see getObject()
+      ApplicationManager.getApplication().executeOnPooledThread(() -> {
+        for (Request request : canceled) {
+          request.myConsumer.onError(createCanceledError("isolate " + isolateId + " resumed or changed"));
+        }
+      });
+    }
+    for (Request request : toSend) {
+      sendInSlot(request);
+    }
+  }
+
+  private static void deliver(@NotNull final GetObjectConsumer consumer, @Nullable final Obj obj, @Nullable final Sentinel sentinel) {
+    if (obj != null) {
+      consumer.received(obj);
+    }
+    else {
+      consumer.received(sentinel);
+    }
+  }
+
+  private void send(@NotNull final String isolateId,
+                    @NotNull final String objectId,
+                    @Nullable final Integer offset,
+                    @Nullable final Integer count,
+                    @NotNull final GetObjectConsumer consumer) {
+    final Request request = new Request(isolateId, consumer);
+    final GetObjectConsumer windowConsumer = new GetObjectConsumer() {
+      @Override
+      public void received(final Obj response) {
+        sendInSlot(releaseSlot(request));
+        consumer.received(response);
+      }
+
+      @Override
+      public void received(final Sentinel response) {
+        sendInSlot(releaseSlot(request));
+        consumer.received(response);
+      }
+
+      @Override
+      public void onError(final RPCError error) {
+        sendInSlot(releaseSlot(request));
+        consumer.onError(error);
+      }
+    };
+
+    request.mySender = offset == null
+                       ? () -> myVmService.getObject(isolateId, objectId, windowConsumer)
+                       : () -> myVmService.getObject(isolateId, objectId, offset, count, windowConsumer);
+
+    synchronized (this) {
+      if (myRequestsInFlight >= MAX_REQUESTS_IN_FLIGHT) {
+        myQueuedRequests.add(request);
+        return;
+      }
+      takeSlot(request);
+    }
+
+    sendInSlot(request);
+  }
+
+  private void takeSlot(@NotNull final Request request) {
+    myRequestsInFlight++;
+    request.myGeneration = myGeneration;
+  }
+
+  /**
+   * @return the queued request that got the slot of the given one
+   */
+  @Nullable
+  private synchronized Request releaseSlot(@NotNull final Request request) {
+    if (request.myGeneration != myGeneration) return null; // the slot was freed by invalidate()
+
+    final Request next = myQueuedRequests.poll();
+    if (next == null) {
+      myRequestsInFlight--;
+      return null;
+    }
+    next.myGeneration = myGeneration;
+    return next;
+  }
+
+  private void sendInSlot(@Nullable Request request) {
+    while (request != null) {
+      if (myRequestScheduler.test(request.mySender)) return;
+
+      // rejected, e.g. the debug session is over, the response will never come
+      request.myConsumer.onError(createCanceledError("request rejected by the scheduler"));
+      request = releaseSlot(request);
+    }
+  }
+
+  @NotNull
+  private static RPCError createCanceledError(@NotNull final String reason) {
+    final JsonObject json = new JsonObject();
+    json.addProperty("code", REQUEST_CANCELED);
+    json.addProperty("message", "getObject() canceled: " + reason);
+    return new RPCError(json);
+  }
+}
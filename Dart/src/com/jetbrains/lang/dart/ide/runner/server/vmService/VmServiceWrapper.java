@@ -43,6 +43,7 @@ public class VmServiceWrapper implements Disposable {
   private final IsolatesInfo myIsolatesInfo;
   private final DartVmServiceBreakpointHandler myBreakpointHandler;
   private final Alarm myRequestsScheduler;
+  private final VmServiceObjectCache myObjectCache;
 
   private long myVmServiceReceiverThreadId;
 
@@ -59,6 +60,7 @@ public class VmServiceWrapper implements Disposable {
     myIsolatesInfo = isolatesInfo;
     myBreakpointHandler = breakpointHandler;
     myRequestsScheduler = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    myObjectCache = new VmServiceObjectCache(vmService, this::scheduleRequest);
   }
 
   @Override
@@ -66,9 +68,17 @@ public class VmServiceWrapper implements Disposable {
   }
 
   private void addRequest(@NotNull final Runnable runnable) {
-    if (!myRequestsScheduler.isDisposed()) {
-      myRequestsScheduler.addRequest(runnable, 0);
-    }
+    scheduleRequest(runnable);
+  }
+
+  /**
+   * @return <code>false</code> if the scheduler is disposed and the runnable will never run
+   */
+  private boolean scheduleRequest(@NotNull final Runnable runnable) {
+    if (myRequestsScheduler.isDisposed()) return false;
+
+    myRequestsScheduler.addRequest(runnable, 0);
+    return true;
   }
 
   @Nullable
@@ -324,6 +334,7 @@ public class VmServiceWrapper implements Disposable {
 
   public void resumeIsolate(@NotNull final String isolateId, @Nullable final StepOption stepOption) {
     addRequest(() -> {
+      myObjectCache.invalidate(isolateId);
       myLatestStep = stepOption;
       myVmService.resume(isolateId, stepOption, null, VmServiceConsumers.EMPTY_SUCCESS_CONSUMER);
     });
@@ -337,6 +348,7 @@ public class VmServiceWrapper implements Disposable {
    */
   public void dropFrame(@NotNull final String isolateId, int frameIndex) {
     addRequest(() -> {
+      myObjectCache.invalidate(isolateId);
       myLatestStep = StepOption.Rewind;
       myVmService.resume(isolateId, StepOption.Rewind, frameIndex, new SuccessConsumer() {
         @Override
@@ -398,6 +410,11 @@ public class VmServiceWrapper implements Disposable {
             }
           }
           container.addStackFrames(firstFrameIndex == 0 ? xStackFrames : xStackFrames.subList(firstFrameIndex, xStackFrames.size()), true);
+
+          if (firstFrameIndex == 0 && !xStackFrames.isEmpty() && xStackFrames.get(0) instanceof DartVmServiceStackFrame) {
+            // the top frame gets selected, so its variables will be shown right away
+            ((DartVmServiceStackFrame)xStackFrames.get(0)).prefetchVariables();
+          }
         });
       }
 
@@ -440,7 +457,7 @@ public class VmServiceWrapper implements Disposable {
   }
 
   public void getObject(@NotNull final String isolateId, @NotNull final String objectId, @NotNull final GetObjectConsumer consumer) {
-    addRequest(() -> myVmService.getObject(isolateId, objectId, consumer));
+    myObjectCache.getObject(isolateId, objectId, null, null, myDebugProcess.isIsolateSuspended(isolateId), consumer);
   }
 
   public void getCollectionObject(@NotNull final String isolateId,
@@ -448,13 +465,31 @@ public class VmServiceWrapper implements Disposable {
                                   final int offset,
                                   final int count,
                                   @NotNull final GetObjectConsumer consumer) {
-    addRequest(() -> myVmService.getObject(isolateId, objectId, offset, count, consumer));
+    myObjectCache.getObject(isolateId, objectId, offset, count, myDebugProcess.isIsolateSuspended(isolateId), consumer);
+  }
+
+  /**
+   * Puts the object to the cache of the paused isolate, so that a later {@link #getObject} doesn't wait for the round-trip.
+   */
+  public void prefetchObject(@NotNull final String isolateId, @NotNull final String objectId) {
+    if (myDebugProcess.isIsolateSuspended(isolateId)) {
+      myObjectCache.getObject(isolateId, objectId, null, null, true, VmServiceConsumers.EMPTY_GET_OBJECT_CONSUMER);
+    }
+  }
+
+  /**
+   * Must be called when the isolate has resumed or exited.
+   */
+  public void invalidateObjectCache(@NotNull final String isolateId) {
+    myObjectCache.invalidate(isolateId);
   }
 
   public void evaluateInFrame(@NotNull final String isolateId,
                               @NotNull final Frame vmFrame,
                               @NotNull final String expression,
                               @NotNull final XDebuggerEvaluator.XEvaluationCallback callback) {
+    // the expression may change objects of the paused isolate
+    myObjectCache.invalidate(isolateId);
     addRequest(() -> myVmService.evaluateInFrame(isolateId, vmFrame.getIndex(), expression, new EvaluateInFrameConsumer() {
       @Override
       public void received(InstanceRef instanceRef) {
@@ -158,6 +158,27 @@ public class DartVmServiceStackFrame extends XStackFrame {
     });
   }
 
+  /**
+   * Requests the objects that {@link #computeChildren} and expanding of the variables will need, so that the Variables view
+   * doesn't wait for the round-trips one by one.
+   */
+  public void prefetchVariables() {
+    final ElementList<BoundVariable> vars = myVmFrame.getVars();
+    if (vars == null) return;
+
+    for (BoundVariable var : vars) {
+      final InstanceRef value = var.getValue();
+      if (value == null) continue;
+
+      if ("this".equals(var.getName())) {
+        myDebugProcess.getVmServiceWrapper().prefetchObject(myIsolateId, value.getClassRef().getId());
+      }
+      if (value.getKind() == InstanceKind.PlainInstance) {
+        myDebugProcess.getVmServiceWrapper().prefetchObject(myIsolateId, value.getId());
+      }
+    }
+  }
+
   private void addVars(@NotNull final XCompositeNode node, @NotNull final ElementList<BoundVariable> vars) {
     final XValueChildrenList childrenList = new XValueChildrenList(vars.size());
 
@@ -2,7 +2,6 @@ package com.jetbrains.lang.dart.ide.runner.server.vmService.frame;
 
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.ui.LayeredIcon;
 import com.intellij.xdebugger.XSourcePosition;
@@ -18,6 +17,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
 
 // TODO: implement some combination of XValue.getEvaluationExpression() /
 // XValue.calculateEvaluationExpression() in order to support evaluate expression in variable values.
@@ -37,8 +39,6 @@ public class DartVmServiceValue extends XNamedValue {
   @Nullable private final FieldRef myFieldRef;
   private final boolean myIsException;
 
-  private Ref<Integer> myCollectionChildrenAlreadyShown = new Ref<>(0);
-
   public DartVmServiceValue(@NotNull final DartVmServiceDebugProcess debugProcess,
                             @NotNull final String isolateId,
                             @NotNull final String name,
@@ -342,27 +342,46 @@ public class DartVmServiceValue extends XNamedValue {
   }
 
   private void computeCollectionChildren(@NotNull final XCompositeNode node) {
-    final int offset = myCollectionChildrenAlreadyShown.get();
-    final int count = Math.min(myInstanceRef.getLength() - offset, XCompositeNode.MAX_CHILDREN_TO_SHOW);
+    computeCollectionChildren(node, 0, myInstanceRef.getLength());
+  }
+
+  /**
+   * Children for elements [offset, offset + count) of the list or map. Long ranges are split into subranges that are fetched only
+   * when expanded, so a huge collection costs no more requests and nodes than the part of it that is actually looked at.
+   */
+  private void computeCollectionChildren(@NotNull final XCompositeNode node, final int offset, final int count) {
+    if (count > XCompositeNode.MAX_CHILDREN_TO_SHOW) {
+      int rangeSize = XCompositeNode.MAX_CHILDREN_TO_SHOW;
+      while ((long)rangeSize * XCompositeNode.MAX_CHILDREN_TO_SHOW < count) {
+        rangeSize *= XCompositeNode.MAX_CHILDREN_TO_SHOW;
+      }
+
+      final XValueChildrenList childrenList = new XValueChildrenList();
+      for (int start = offset; start < offset + count; start += rangeSize) {
+        childrenList.add(new CollectionRange(start, Math.min(rangeSize, offset + count - start)));
+      }
+      node.addChildren(childrenList, true);
+      return;
+    }
 
     myDebugProcess.getVmServiceWrapper().getCollectionObject(myIsolateId, myInstanceRef.getId(), offset, count, new GetObjectConsumer() {
       @Override
       public void received(Obj instance) {
         if (isListKind(myInstanceRef.getKind())) {
-          addListChildren(node, ((Instance)instance).getElements());
+          final ElementList<InstanceRef> elements = ((Instance)instance).getElements();
+          if (elements != null) {
+            addListChildren(node, offset, elements);
+          }
+          else {
+            addTypedDataChildren(node, offset, (Instance)instance);
+          }
         }
         else if (myInstanceRef.getKind() == InstanceKind.Map) {
-          addMapChildren(node, ((Instance)instance).getAssociations());
+          addMapChildren(node, offset, ((Instance)instance).getAssociations());
         }
         else {
           assert false : myInstanceRef.getKind();
         }
-
-        myCollectionChildrenAlreadyShown.set(myCollectionChildrenAlreadyShown.get() + count);
-
-        if (offset + count < myInstanceRef.getLength()) {
-          node.tooManyChildren(myInstanceRef.getLength() - offset - count);
-        }
       }
 
       @Override
@@ -377,18 +396,136 @@ public class DartVmServiceValue extends XNamedValue {
     });
   }
 
-  private void addListChildren(@NotNull final XCompositeNode node, @NotNull final ElementList<InstanceRef> listElements) {
+  private void addListChildren(@NotNull final XCompositeNode node,
+                               final int offset,
+                               @NotNull final ElementList<InstanceRef> listElements) {
     final XValueChildrenList childrenList = new XValueChildrenList(listElements.size());
-    int index = myCollectionChildrenAlreadyShown.get();
+    int index = offset;
     for (InstanceRef listElement : listElements) {
       childrenList.add(new DartVmServiceValue(myDebugProcess, myIsolateId, String.valueOf(index++), listElement, null, null, false));
     }
     node.addChildren(childrenList, true);
   }
 
-  private void addMapChildren(@NotNull final XCompositeNode node, @NotNull final ElementList<MapAssociation> mapAssociations) {
+  private static void addTypedDataChildren(@NotNull final XCompositeNode node, final int offset, @NotNull final Instance instance) {
+    // elements of typed data lists are not sent as instance refs, but all together as bytes
+    final String[] values;
+    try {
+      values = decodeTypedData(instance.getKind(), Base64.getDecoder().decode(instance.getBytes()));
+    }
+    catch (IllegalArgumentException | NullPointerException e) {
+      node.setErrorMessage("Failed to decode " + instance.getKind() + " data");
+      return;
+    }
+
+    if (values == null) {
+      node.setErrorMessage("Unexpected kind: " + instance.getKind());
+      return;
+    }
+
+    final XValueChildrenList childrenList = new XValueChildrenList(values.length);
+    for (int i = 0; i < values.length; i++) {
+      final String value = values[i];
+      childrenList.add(new XNamedValue(String.valueOf(offset + i)) {
+        @Override
+        public void computePresentation(@NotNull XValueNode node, @NotNull XValuePlace place) {
+          node.setPresentation(AllIcons.Debugger.Db_primitive, new XNumericValuePresentation(value), false);
+        }
+      });
+    }
+    node.addChildren(childrenList, true);
+  }
+
+  /**
+   * @return presentable elements of the typed data list, or <code>null</code> if the kind is not a typed data list
+   */
+  @Nullable
+  static String[] decodeTypedData(@NotNull final InstanceKind kind, @NotNull final byte[] bytes) {
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    final int elementSize = getTypedDataElementSize(kind);
+    if (elementSize == 0) return null;
+
+    final String[] values = new String[bytes.length / elementSize];
+    for (int i = 0; i < values.length; i++) {
+      switch (kind) {
+        case Uint8ClampedList:
+        case Uint8List:
+          values[i] = String.valueOf(buffer.get() & 0xFF);
+          break;
+        case Int8List:
+          values[i] = String.valueOf(buffer.get());
+          break;
+        case Uint16List:
+          values[i] = String.valueOf(buffer.getShort() & 0xFFFF);
+          break;
+        case Int16List:
+          values[i] = String.valueOf(buffer.getShort());
+          break;
+        case Uint32List:
+          values[i] = String.valueOf(buffer.getInt() & 0xFFFFFFFFL);
+          break;
+        case Int32List:
+          values[i] = String.valueOf(buffer.getInt());
+          break;
+        case Uint64List:
+          values[i] = Long.toUnsignedString(buffer.getLong());
+          break;
+        case Int64List:
+          values[i] = String.valueOf(buffer.getLong());
+          break;
+        case Float32List:
+          values[i] = String.valueOf(buffer.getFloat());
+          break;
+        case Float64List:
+          values[i] = String.valueOf(buffer.getDouble());
+          break;
+        case Int32x4List:
+          values[i] = "[" + buffer.getInt() + ", " + buffer.getInt() + ", " + buffer.getInt() + ", " + buffer.getInt() + "]";
+          break;
+        case Float32x4List:
+          values[i] = "[" + buffer.getFloat() + ", " + buffer.getFloat() + ", " + buffer.getFloat() + ", " + buffer.getFloat() + "]";
+          break;
+        case Float64x2List:
+          values[i] = "[" + buffer.getDouble() + ", " + buffer.getDouble() + "]";
+          break;
+        default:
+          return null;
+      }
+    }
+    return values;
+  }
+
+  private static int getTypedDataElementSize(@NotNull final InstanceKind kind) {
+    switch (kind) {
+      case Uint8ClampedList:
+      case Uint8List:
+      case Int8List:
+        return 1;
+      case Uint16List:
+      case Int16List:
+        return 2;
+      case Uint32List:
+      case Int32List:
+      case Float32List:
+        return 4;
+      case Uint64List:
+      case Int64List:
+      case Float64List:
+        return 8;
+      case Int32x4List:
+      case Float32x4List:
+      case Float64x2List:
+        return 16;
+      default:
+        return 0;
+    }
+  }
+
+  private void addMapChildren(@NotNull final XCompositeNode node,
+                              final int offset,
+                              @NotNull final ElementList<MapAssociation> mapAssociations) {
     final XValueChildrenList childrenList = new XValueChildrenList(mapAssociations.size());
-    int index = myCollectionChildrenAlreadyShown.get();
+    int index = offset;
     for (MapAssociation mapAssociation : mapAssociations) {
       final InstanceRef keyInstanceRef = mapAssociation.getKey();
       final InstanceRef valueInstanceRef = mapAssociation.getValue();
@@ -467,6 +604,30 @@ public class DartVmServiceValue extends XNamedValue {
            kind == InstanceKind.Float64x2List;
   }
 
+  /**
+   * A node like <code>[100..199]</code> that stands for a part of a long list or map.
+   */
+  private class CollectionRange extends XNamedValue {
+    private final int myOffset;
+    private final int myCount;
+
+    private CollectionRange(final int offset, final int count) {
+      super("[" + offset + ".." + (offset + count - 1) + "]");
+      myOffset = offset;
+      myCount = count;
+    }
+
+    @Override
+    public void computePresentation(@NotNull final XValueNode node, @NotNull final XValuePlace place) {
+      node.setPresentation(AllIcons.Debugger.Db_array, null, "", true);
+    }
+
+    @Override
+    public void computeChildren(@NotNull final XCompositeNode node) {
+      computeCollectionChildren(node, myOffset, myCount);
+    }
+  }
+
   @NotNull
   public InstanceRef getInstanceRef() {
     return myInstanceRef;
@@ -0,0 +1,295 @@
+package com.jetbrains.lang.dart.ide.runner.test;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * An event of the package:test JSON reporter, decoded from a single output line without building a JSON tree.
+ * Only the fields used by {@link DartTestEventsConverter} are kept, all other values are skipped by the reader.
+ * Absent and <code>null</code> numbers are {@link #ABSENT}, absent and <code>null</code> strings and objects are <code>null</code>.
+ */
+final class DartTestEvent {
+  static final int ABSENT = -1; // ids in package:test events are never negative
+
+  private static final String DEF_GROUP = "group";
+  private static final String DEF_SUITE = "suite";
+  private static final String DEF_TEST = "test";
+  private static final String DEF_METADATA = "metadata";
+
+  private static final String JSON_TYPE = "type";
+  private static final String JSON_NAME = "name";
+  private static final String JSON_ID = "id";
+  private static final String JSON_TEST_ID = "testID";
+  private static final String JSON_SUITE_ID = "suiteID";
+  private static final String JSON_PARENT_ID = "parentID";
+  private static final String JSON_GROUP_IDS = "groupIDs";
+  private static final String JSON_RESULT = "result";
+  private static final String JSON_MILLIS = "time";
+  private static final String JSON_COUNT = "count";
+  private static final String JSON_TEST_COUNT = "testCount";
+  private static final String JSON_MESSAGE = "message";
+  private static final String JSON_ERROR_MESSAGE = "error";
+  private static final String JSON_STACK_TRACE = "stackTrace";
+  private static final String JSON_IS_FAILURE = "isFailure";
+  private static final String JSON_PATH = "path";
+  private static final String JSON_PLATFORM = "platform";
+  private static final String JSON_LINE = "line";
+  private static final String JSON_COLUMN = "column";
+  private static final String JSON_URL = "url";
+  private static final String JSON_SKIP = "skip";
+  private static final String JSON_SKIP_REASON = "skipReason";
+
+  /**
+   * 'test', 'group' or 'suite' object of an event.
+   */
+  static final class Node {
+    int id = ABSENT;
+    int parentId = ABSENT;
+    int suiteId = ABSENT;
+    int lastGroupId = ABSENT; // the innermost group from 'groupIDs'
+    int testCount = ABSENT;
+    int line = ABSENT;
+    int column = ABSENT;
+    @Nullable String name;
+    @Nullable String url;
+    @Nullable String path;
+    @Nullable String platform;
+    boolean skip;
+    @Nullable String skipReason;
+  }
+
+  @Nullable String type;
+  long time;
+  boolean hasTime;
+  int testId = ABSENT;
+  int count = ABSENT;
+  @Nullable Node test;
+  @Nullable Node group;
+  @Nullable Node suite;
+  @Nullable String result;
+  @Nullable String message;
+  @Nullable String error;
+  @Nullable String stackTrace;
+  boolean isFailure;
+  boolean hasIsFailure;
+
+  private DartTestEvent() {
+  }
+
+  /**
+   * Accepts the same (lenient) syntax as {@link com.google.gson.JsonParser}.
+   *
+   * @return <code>null</code> if the text is a valid JSON value, but not an object, or is empty
+   * @throws IOException if the text is not JSON, for example a service message or plain output of the test
+   */
+  @Nullable
+  static DartTestEvent parse(@NotNull final String text) throws IOException {
+    final JsonReader reader = new JsonReader(new StringReader(text));
+    reader.setLenient(true);
+
+    final JsonToken token;
+    try {
+      token = reader.peek();
+    }
+    catch (EOFException e) {
+      return null;
+    }
+
+    if (token != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      checkEnd(reader);
+      return null;
+    }
+
+    final DartTestEvent event = new DartTestEvent();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case JSON_TYPE:
+          event.type = readString(reader);
+          break;
+        case JSON_MILLIS:
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+          }
+          else {
+            event.time = reader.nextLong();
+            event.hasTime = true;
+          }
+          break;
+        case JSON_TEST_ID:
+          event.testId = readInt(reader);
+          break;
+        case JSON_COUNT:
+          event.count = readInt(reader);
+          break;
+        case DEF_TEST:
+          event.test = readNode(reader);
+          break;
+        case DEF_GROUP:
+          event.group = readNode(reader);
+          break;
+        case DEF_SUITE:
+          event.suite = readNode(reader);
+          break;
+        case JSON_RESULT:
+          event.result = readString(reader);
+          break;
+        case JSON_MESSAGE:
+          event.message = readString(reader);
+          break;
+        case JSON_ERROR_MESSAGE:
+          event.error = readString(reader);
+          break;
+        case JSON_STACK_TRACE:
+          event.stackTrace = readString(reader);
+          break;
+        case JSON_IS_FAILURE:
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+          }
+          else {
+            event.isFailure = reader.nextBoolean();
+            event.hasIsFailure = true;
+          }
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    checkEnd(reader);
+    return event;
+  }
+
+  @Nullable
+  private static Node readNode(@NotNull final JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      return null;
+    }
+
+    final Node node = new Node();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case JSON_ID:
+          node.id = readInt(reader);
+          break;
+        case JSON_NAME:
+          node.name = readString(reader);
+          break;
+        case JSON_PARENT_ID:
+          node.parentId = readInt(reader);
+          break;
+        case JSON_SUITE_ID:
+          node.suiteId = readInt(reader);
+          break;
+        case JSON_GROUP_IDS:
+          node.lastGroupId = readLastInt(reader);
+          break;
+        case JSON_TEST_COUNT:
+          node.testCount = readInt(reader);
+          break;
+        case JSON_LINE:
+          node.line = readInt(reader);
+          break;
+        case JSON_COLUMN:
+          node.column = readInt(reader);
+          break;
+        case JSON_URL:
+          node.url = readString(reader);
+          break;
+        case JSON_PATH:
+          node.path = readString(reader);
+          break;
+        case JSON_PLATFORM:
+          node.platform = readString(reader);
+          break;
+        case DEF_METADATA:
+          readMetadata(reader, node);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return node;
+  }
+
+  private static void readMetadata(@NotNull final JsonReader reader, @NotNull final Node node) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      return;
+    }
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case JSON_SKIP:
+          if (reader.peek() == JsonToken.BOOLEAN) {
+            node.skip = reader.nextBoolean();
+          }
+          else {
+            reader.skipValue();
+          }
+          break;
+        case JSON_SKIP_REASON:
+          node.skipReason = readString(reader);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
+  private static int readInt(@NotNull final JsonReader reader) throws IOException {
+    final JsonToken token = reader.peek();
+    if (token == JsonToken.NUMBER || token == JsonToken.STRING) return reader.nextInt();
+    reader.skipValue();
+    return ABSENT;
+  }
+
+  private static int readLastInt(@NotNull final JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+      reader.skipValue();
+      return ABSENT;
+    }
+
+    int last = ABSENT;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      last = readInt(reader);
+    }
+    reader.endArray();
+    return last;
+  }
+
+  @Nullable
+  private static String readString(@NotNull final JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case STRING:
+      case NUMBER:
+        return reader.nextString();
+      case BOOLEAN:
+        return String.valueOf(reader.nextBoolean());
+      default:
+        reader.skipValue();
+        return null;
+    }
+  }
+
+  private static void checkEnd(@NotNull final JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.END_DOCUMENT) {
+      throw new MalformedJsonException("Did not consume the entire document");
+    }
+  }
+}
@@ -1,6 +1,6 @@
 package com.jetbrains.lang.dart.ide.runner.test;
 
-import com.google.gson.*;
+import com.google.gson.Gson;
 import com.intellij.execution.testframework.TestConsoleProperties;
 import com.intellij.execution.testframework.sm.ServiceMessageBuilder;
 import com.intellij.execution.testframework.sm.runner.OutputToGeneralTestEventsConverter;
@@ -12,16 +12,16 @@ import com.intellij.util.PathUtil;
 import com.jetbrains.lang.dart.ide.runner.util.DartTestLocationProvider;
 import com.jetbrains.lang.dart.util.DartUrlResolver;
 import gnu.trove.TIntLongHashMap;
+import gnu.trove.TIntObjectHashMap;
 import jetbrains.buildServer.messages.serviceMessages.ServiceMessageVisitor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -45,37 +45,12 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
   private static final String TYPE_TEST_START = "testStart";
   private static final String TYPE_TEST_DONE = "testDone";
 
-  private static final String DEF_GROUP = "group";
-  private static final String DEF_SUITE = "suite";
-  private static final String DEF_TEST = "test";
-  private static final String DEF_METADATA = "metadata";
-
-  private static final String JSON_TYPE = "type";
-  private static final String JSON_NAME = "name";
-  private static final String JSON_ID = "id";
-  private static final String JSON_TEST_ID = "testID";
-  private static final String JSON_SUITE_ID = "suiteID";
-  private static final String JSON_PARENT_ID = "parentID";
-  private static final String JSON_GROUP_IDS = "groupIDs";
-  private static final String JSON_RESULT = "result";
-  private static final String JSON_MILLIS = "time";
-  private static final String JSON_COUNT = "count";
-  private static final String JSON_TEST_COUNT = "testCount";
-  private static final String JSON_MESSAGE = "message";
-  private static final String JSON_ERROR_MESSAGE = "error";
-  private static final String JSON_STACK_TRACE = "stackTrace";
-  private static final String JSON_IS_FAILURE = "isFailure";
-  private static final String JSON_PATH = "path";
-  private static final String JSON_PLATFORM = "platform";
-  private static final String JSON_LINE = "line";
-  private static final String JSON_COLUMN = "column";
-  private static final String JSON_URL = "url";
-
   private static final String RESULT_SUCCESS = "success";
   private static final String RESULT_FAILURE = "failure";
   private static final String RESULT_ERROR = "error";
 
   private static final String EXPECTED = "Expected: ";
+  private static final String DIFFER = "\n Differ";
   private static final Pattern EXPECTED_ACTUAL_RESULT = Pattern.compile("\\nExpected: (.*)\\n  Actual: (.*)\\n *\\^\\n Differ.*\\n");
   private static final String FILE_URL_PREFIX = "dart_location://";
   private static final String LOADING_PREFIX = "loading ";
@@ -91,9 +66,9 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
   private Key myCurrentOutputType;
   private ServiceMessageVisitor myCurrentVisitor;
   private TIntLongHashMap myTestIdToTimestamp;
-  private Map<Integer, Test> myTestData;
-  private Map<Integer, Group> myGroupData;
-  private Map<Integer, Suite> mySuiteData;
+  private TIntObjectHashMap<Test> myTestData;
+  private TIntObjectHashMap<Group> myGroupData;
+  private TIntObjectHashMap<Suite> mySuiteData;
   private int mySuitCount;
 
   public DartTestEventsConverter(@NotNull final String testFrameworkName,
@@ -102,27 +77,28 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     super(testFrameworkName, consoleProperties);
     myUrlResolver = urlResolver;
     myTestIdToTimestamp = new TIntLongHashMap();
-    myTestData = new HashMap<>();
-    myGroupData = new HashMap<>();
-    mySuiteData = new HashMap<>();
+    myTestData = new TIntObjectHashMap<>();
+    myGroupData = new TIntObjectHashMap<>();
+    mySuiteData = new TIntObjectHashMap<>();
   }
 
   protected boolean processServiceMessages(final String text, final Key outputType, final ServiceMessageVisitor visitor)
     throws ParseException {
-    LOG.debug("<<< " + text.trim());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("<<< " + text.trim());
+    }
     myCurrentOutputType = outputType;
     myCurrentVisitor = visitor;
     // service message parser expects line like "##teamcity[ .... ]" without whitespaces in the end.
     return processEventText(text);
   }
 
-  private boolean processEventText(final String text) throws JsonSyntaxException, ParseException {
-    JsonParser jp = new JsonParser();
-    JsonElement elem;
+  private boolean processEventText(final String text) throws ParseException {
+    final DartTestEvent event;
     try {
-      elem = jp.parse(text);
+      event = DartTestEvent.parse(text);
     }
-    catch (JsonSyntaxException ex) {
+    catch (IOException | IllegalStateException | NumberFormatException ex) {
       if (text.contains("\"json\" is not an allowed value for option \"reporter\"")) {
         final ServiceMessageBuilder testStarted = ServiceMessageBuilder.testStarted("Failed to start");
         final ServiceMessageBuilder testFailed = ServiceMessageBuilder.testFailed("Failed to start");
@@ -133,55 +109,53 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
 
       return doProcessServiceMessages(text);
     }
-    if (elem == null || !elem.isJsonObject()) return false;
-    return process(elem.getAsJsonObject());
+    return event != null && process(event);
   }
 
   private boolean doProcessServiceMessages(@NotNull final String text) throws ParseException {
-    LOG.debug(">>> " + text);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(">>> " + text);
+    }
     return super.processServiceMessages(text, myCurrentOutputType, myCurrentVisitor);
   }
 
-  private boolean process(JsonObject obj) throws JsonSyntaxException, ParseException {
-    String type = obj.get(JSON_TYPE).getAsString();
+  private boolean process(@NotNull final DartTestEvent event) throws ParseException {
+    final String type = event.type;
     if (TYPE_TEST_START.equals(type)) {
-      return handleTestStart(obj);
+      return handleTestStart(event);
     }
     else if (TYPE_TEST_DONE.equals(type)) {
-      return handleTestDone(obj);
+      return handleTestDone(event);
     }
     else if (TYPE_ERROR.equals(type)) {
-      return handleError(obj);
+      return handleError(event);
     }
     else if (TYPE_PRINT.equals(type)) {
-      return handlePrint(obj);
+      return handlePrint(event);
     }
     else if (TYPE_GROUP.equals(type)) {
-      return handleGroup(obj);
+      return handleGroup(event);
     }
     else if (TYPE_SUITE.equals(type)) {
-      return handleSuite(obj);
+      return handleSuite(event);
     }
     else if (TYPE_ALL_SUITES.equals(type)) {
-      return handleAllSuites(obj);
+      return handleAllSuites(event);
     }
     else if (TYPE_START.equals(type)) {
-      return handleStart(obj);
+      return handleStart(event);
     }
     else if (TYPE_DONE.equals(type)) {
-      return handleDone(obj);
+      return handleDone(event);
     }
     else {
       return true;
     }
   }
 
-  private boolean handleTestStart(JsonObject obj) throws ParseException {
-    final JsonObject testObj = obj.getAsJsonObject(DEF_TEST);
-
-    // Not reached if testObj == null.
-    final Test test = getTest(obj);
-    myTestIdToTimestamp.put(test.getId(), getTimestamp(obj));
+  private boolean handleTestStart(@NotNull final DartTestEvent event) throws ParseException {
+    final Test test = getTest(event);
+    myTestIdToTimestamp.put(test.getId(), getTimestamp(event));
 
     if (shouldTestBeHiddenIfPassed(test)) {
       // Virtual test that represents loading or compiling a test suite. See lib/src/runner/loader.dart -> Loader.loadFile() in pkg/test source code
@@ -207,7 +181,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     addLocationHint(testStarted, test);
     boolean result = finishMessage(testStarted, test.getId(), test.getValidParentId());
 
-    final Metadata metadata = Metadata.from(testObj.getAsJsonObject(DEF_METADATA));
+    final Metadata metadata = test.getMetadata();
     if (metadata.skip) {
       final ServiceMessageBuilder message = ServiceMessageBuilder.testIgnored(test.getBaseName());
       if (metadata.skipReason != null) message.addAttribute("message", metadata.skipReason);
@@ -229,14 +203,14 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
            group != null && group.getDoneTestsCount() > 0 && test.getBaseName().equals(TEAR_DOWN_ALL_VIRTUAL_TEST_NAME);
   }
 
-  private boolean handleTestDone(JsonObject obj) throws ParseException {
-    final Test test = getTest(obj);
+  private boolean handleTestDone(@NotNull final DartTestEvent event) throws ParseException {
+    final Test test = getTest(event);
 
     if (!test.myTestStartReported) return true;
 
-    String result = getResult(obj);
+    String result = getResult(event);
     if (!result.equals(RESULT_SUCCESS) && !result.equals(RESULT_FAILURE) && !result.equals(RESULT_ERROR)) {
-      throw new ParseException("Unknown result: " + obj, 0);
+      throw new ParseException("Unknown result: " + result, 0);
     }
 
     test.testDone();
@@ -244,7 +218,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     //if (test.getMetadata().skip) return true; // skipped tests are reported as ignored in handleTestStart(). testFinished signal must follow
 
     ServiceMessageBuilder testFinished = ServiceMessageBuilder.testFinished(test.getBaseName());
-    long duration = getTimestamp(obj) - myTestIdToTimestamp.get(test.getId());
+    long duration = getTimestamp(event) - myTestIdToTimestamp.get(test.getId());
     testFinished.addAttribute("duration", Long.toString(duration));
 
     return finishMessage(testFinished, test.getId(), test.getValidParentId()) && checkGroupDone(test.getParent());
@@ -257,8 +231,8 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return true;
   }
 
-  private boolean handleGroup(JsonObject obj) throws ParseException {
-    Group group = getGroup(obj.getAsJsonObject(DEF_GROUP));
+  private boolean handleGroup(@NotNull final DartTestEvent event) throws ParseException {
+    Group group = getGroup(event.group);
 
     // From spec: The implicit group at the root of each test suite has null name and parentID attributes.
     if (group.getParent() == null && group.getTestCount() > 0) {
@@ -276,17 +250,17 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return finishMessage(groupMsg, group.getId(), group.getValidParentId());
   }
 
-  private boolean handleSuite(JsonObject obj) throws ParseException {
-    Suite suite = getSuite(obj.getAsJsonObject(DEF_SUITE));
+  private boolean handleSuite(@NotNull final DartTestEvent event) throws ParseException {
+    Suite suite = getSuite(event.suite);
     if (!suite.hasPath()) {
       mySuiteData.remove(suite.getId());
     }
     return true;
   }
 
-  private boolean handleError(JsonObject obj) throws ParseException {
-    final Test test = getTest(obj);
-    final String message = getErrorMessage(obj);
+  private boolean handleError(@NotNull final DartTestEvent event) throws ParseException {
+    final Test test = getTest(event);
+    final String message = getErrorMessage(event);
     boolean result = true;
 
     if (!test.myTestStartReported) {
@@ -306,7 +280,8 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
 
       String failureMessage = message;
       int firstExpectedIndex = message.indexOf(EXPECTED);
-      if (firstExpectedIndex >= 0) {
+      // the regexp is tried only if both its literal parts are there
+      if (firstExpectedIndex >= 0 && message.indexOf(DIFFER, firstExpectedIndex) > 0) {
         Matcher matcher = EXPECTED_ACTUAL_RESULT.matcher(message);
         if (matcher.find(firstExpectedIndex + EXPECTED.length())) {
           String expectedText = matcher.group(1);
@@ -322,13 +297,13 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
         }
       }
 
-      if (!getBoolean(obj, JSON_IS_FAILURE)) testError.addAttribute("error", "true");
+      if (!isFailure(event)) testError.addAttribute("error", "true");
       testError.addAttribute("message", appendLineBreakIfNeeded(failureMessage));
 
       result &= finishMessage(testError, test.getId(), test.getValidParentId());
     }
 
-    final String stackTrace = getStackTrace(obj);
+    final String stackTrace = getStackTrace(event);
     if (!StringUtil.isEmptyOrSpaces(stackTrace)) {
       final ServiceMessageBuilder stackTraceMessage = ServiceMessageBuilder.testStdErr(test.getBaseName());
       stackTraceMessage.addAttribute("out", appendLineBreakIfNeeded(stackTrace));
@@ -343,15 +318,15 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return message.endsWith("\n") ? message : message + "\n";
   }
 
-  private boolean handleAllSuites(JsonObject obj) {
-    JsonElement elem = obj.get(JSON_COUNT);
-    if (elem == null || !elem.isJsonPrimitive()) return true;
-    mySuitCount = elem.getAsInt();
+  private boolean handleAllSuites(@NotNull final DartTestEvent event) {
+    if (event.count != DartTestEvent.ABSENT) {
+      mySuitCount = event.count;
+    }
     return true;
   }
 
-  private boolean handlePrint(JsonObject obj) throws ParseException {
-    final Test test = getTest(obj);
+  private boolean handlePrint(@NotNull final DartTestEvent event) throws ParseException {
+    final Test test = getTest(event);
     boolean result = true;
 
     if (!test.myTestStartReported) {
@@ -365,12 +340,12 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     }
 
     ServiceMessageBuilder message = ServiceMessageBuilder.testStdOut(test.getBaseName());
-    message.addAttribute("out", appendLineBreakIfNeeded(getMessage(obj)));
+    message.addAttribute("out", appendLineBreakIfNeeded(getMessage(event)));
 
     return result & finishMessage(message, test.getId(), test.getValidParentId());
   }
 
-  private boolean handleStart(JsonObject obj) throws ParseException {
+  private boolean handleStart(@NotNull final DartTestEvent event) throws ParseException {
     myTestIdToTimestamp.clear();
     myTestData.clear();
     myGroupData.clear();
@@ -380,7 +355,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return doProcessServiceMessages(new ServiceMessageBuilder("enteredTheMatrix").toString());
   }
 
-  private boolean handleDone(JsonObject obj) throws ParseException {
+  private boolean handleDone(@NotNull final DartTestEvent event) throws ParseException {
     // The test runner has reached the end of the tests.
     processAllTestsDone();
     return true;
@@ -388,10 +363,13 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
 
   private void processAllTestsDone() {
     // All tests are done.
-    for (Group group : myGroupData.values()) {
+    final int[] groupIds = myGroupData.keys();
+    Arrays.sort(groupIds);
+    for (int groupId : groupIds) {
+      final Group group = myGroupData.get(groupId);
       // For package: test prior to v. 0.12.9 there were no Group.testCount field, so need to finish them all at the end.
-      // AFAIK the order does not matter. A depth-first post-order traversal of the tree would work
-      // if order does matter. Note: Currently, there is no tree representation, just parent links.
+      // AFAIK the order does not matter, groups are finished in the order of ids to keep it stable. A depth-first post-order
+      // traversal of the tree would work if order does matter. Note: Currently, there is no tree representation, just parent links.
 
       if (group.getTestCount() == 0 || group.getDoneTestsCount() != group.getTestCount()) {
         try {
@@ -445,101 +423,67 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     messageBuilder.addAttribute("locationHint", location);
   }
 
-  private static long getTimestamp(JsonObject obj) throws ParseException {
-    return getLong(obj, JSON_MILLIS);
-  }
-
-  private static long getLong(JsonObject obj, String name) throws ParseException {
-    JsonElement val = obj == null ? null : obj.get(name);
-    if (val == null || !val.isJsonPrimitive()) throw new ParseException("Value is not type long: " + val, 0);
-    return val.getAsLong();
+  private static long getTimestamp(@NotNull final DartTestEvent event) throws ParseException {
+    if (!event.hasTime) throw new ParseException("Value is not type long: null", 0);
+    return event.time;
   }
 
-  private static boolean getBoolean(JsonObject obj, String name) throws ParseException {
-    JsonElement val = obj == null ? null : obj.get(name);
-    if (val == null || !val.isJsonPrimitive()) throw new ParseException("Value is not type boolean: " + val, 0);
-    return val.getAsBoolean();
+  private static boolean isFailure(@NotNull final DartTestEvent event) throws ParseException {
+    if (!event.hasIsFailure) throw new ParseException("Value is not type boolean: null", 0);
+    return event.isFailure;
   }
 
   @NotNull
-  private Test getTest(JsonObject obj) throws ParseException {
-    return getItem(obj, myTestData);
-  }
+  private Test getTest(@NotNull final DartTestEvent event) throws ParseException {
+    if (event.testId != DartTestEvent.ABSENT) {
+      return myTestData.get(event.testId);
+    }
+    if (event.test == null) throw new ParseException("No testId in json object", 0);
 
-  @NotNull
-  private Group getGroup(JsonObject obj) throws ParseException {
-    return getItem(obj, myGroupData);
+    final Test test = Test.from(checkId(event.test), myGroupData, mySuiteData);
+    myTestData.put(test.getId(), test);
+    return test;
   }
 
   @NotNull
-  private Suite getSuite(JsonObject obj) throws ParseException {
-    return getItem(obj, mySuiteData);
+  private Group getGroup(@Nullable final DartTestEvent.Node node) throws ParseException {
+    final Group group = Group.from(checkId(node), myGroupData, mySuiteData);
+    myGroupData.put(group.getId(), group);
+    return group;
   }
 
   @NotNull
-  private <T extends Item> T getItem(JsonObject obj, Map<Integer, T> items) throws ParseException {
-    if (obj == null) throw new ParseException("Unexpected null json object", 0);
-    T item;
-    JsonElement id = obj.get(JSON_ID);
-    if (id != null) {
-      if (items == myTestData) {
-        @SuppressWarnings("unchecked") T type = (T)Test.from(obj, myGroupData, mySuiteData);
-        item = type;
-      }
-      else if (items == myGroupData) {
-        @SuppressWarnings("unchecked") T group = (T)Group.from(obj, myGroupData, mySuiteData);
-        item = group;
-      }
-      else {
-        @SuppressWarnings("unchecked") T suite = (T)Suite.from(obj);
-        item = suite;
-      }
-      items.put(id.getAsInt(), item);
-    }
-    else {
-      JsonElement testId = obj.get(JSON_TEST_ID);
-      if (testId != null) {
-        int baseId = testId.getAsInt();
-        item = items.get(baseId);
-      }
-      else {
-        JsonElement testObj = obj.get(DEF_TEST);
-        if (testObj != null) {
-          return getItem(testObj.getAsJsonObject(), items);
-        }
-        else {
-          throw new ParseException("No testId in json object", 0);
-        }
-      }
-    }
-    return item;
+  private Suite getSuite(@Nullable final DartTestEvent.Node node) throws ParseException {
+    final Suite suite = Suite.from(checkId(node));
+    mySuiteData.put(suite.getId(), suite);
+    return suite;
   }
 
   @NotNull
-  private static String getErrorMessage(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_ERROR_MESSAGE, "<no error message>");
+  private static DartTestEvent.Node checkId(@Nullable final DartTestEvent.Node node) throws ParseException {
+    if (node == null) throw new ParseException("Unexpected null json object", 0);
+    if (node.id == DartTestEvent.ABSENT) throw new ParseException("No id in json object", 0);
+    return node;
   }
 
   @NotNull
-  private static String getMessage(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_MESSAGE, "<no message>");
+  private static String getErrorMessage(@NotNull final DartTestEvent event) {
+    return StringUtil.notNullize(event.error, "<no error message>");
   }
 
   @NotNull
-  private static String getStackTrace(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_STACK_TRACE, "<no stack trace>");
+  private static String getMessage(@NotNull final DartTestEvent event) {
+    return StringUtil.notNullize(event.message, "<no message>");
   }
 
   @NotNull
-  private static String getResult(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_RESULT, "<no result>");
+  private static String getStackTrace(@NotNull final DartTestEvent event) {
+    return StringUtil.notNullize(event.stackTrace, "<no stack trace>");
   }
 
   @NotNull
-  private static String nonNullJsonValue(JsonObject obj, @NotNull String id, @NotNull String def) {
-    JsonElement val = obj == null ? null : obj.get(id);
-    if (val == null || !val.isJsonPrimitive()) return def;
-    return val.getAsString();
+  private static String getResult(@NotNull final DartTestEvent event) {
+    return StringUtil.notNullize(event.result, "<no result>");
   }
 
   private static class Item {
@@ -553,30 +497,12 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     private final int myColumn;
     private final String myUrl;
 
-    static int extractInt(JsonObject obj, String memberName) {
-      JsonElement elem = obj.get(memberName);
-      if (elem == null || !elem.isJsonPrimitive()) return -1;
-      return elem.getAsInt();
-    }
-
-    static String extractString(JsonObject obj, String memberName, String defaultResult) {
-      JsonElement elem = obj.get(memberName);
-      if (elem == null || elem.isJsonNull()) return defaultResult;
-      return elem.getAsString();
+    static int toZeroBased(int oneBased) {
+      return oneBased < 0 ? -1 : oneBased - 1;
     }
 
-    static Metadata extractMetadata(JsonObject obj) {
-      return Metadata.from(obj.get(DEF_METADATA));
-    }
-
-    static Suite lookupSuite(JsonObject obj, Map<Integer, Suite> suites) {
-      JsonElement suiteObj = obj.get(JSON_SUITE_ID);
-      Suite suite = null;
-      if (suiteObj != null && suiteObj.isJsonPrimitive()) {
-        int parentId = suiteObj.getAsInt();
-        suite = suites.get(parentId);
-      }
-      return suite;
+    static String nameOrDefault(@Nullable String name, String defaultResult) {
+      return name == null ? defaultResult : name;
     }
 
     Item(int id, String name, Group parent, Suite suite, Metadata metadata, int line, int column, String url) {
@@ -702,17 +628,10 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     private boolean myTestStartReported = false;
     private boolean myTestErrorReported = false;
 
-    static Test from(JsonObject obj, Map<Integer, Group> groups, Map<Integer, Suite> suites) {
-      int[] groupIds = GSON.fromJson(obj.get(JSON_GROUP_IDS), (Type)int[].class);
-      Group parent = null;
-      if (groupIds != null && groupIds.length > 0) {
-        parent = groups.get(groupIds[groupIds.length - 1]);
-      }
-      Suite suite = lookupSuite(obj, suites);
-      final int line = extractInt(obj, JSON_LINE);
-      final int column = extractInt(obj, JSON_COLUMN);
-      return new Test(extractInt(obj, JSON_ID), extractString(obj, JSON_NAME, NO_NAME), parent, suite, extractMetadata(obj),
-                      line < 0 ? -1 : line - 1, column < 0 ? -1 : column - 1, extractString(obj, JSON_URL, null));
+    static Test from(DartTestEvent.Node node, TIntObjectHashMap<Group> groups, TIntObjectHashMap<Suite> suites) {
+      // lookups by DartTestEvent.ABSENT find nothing
+      return new Test(node.id, nameOrDefault(node.name, NO_NAME), groups.get(node.lastGroupId), suites.get(node.suiteId),
+                      Metadata.from(node), toZeroBased(node.line), toZeroBased(node.column), node.url);
     }
 
     Test(int id, String name, Group parent, Suite suite, Metadata metadata, int line, int column, String url) {
@@ -730,19 +649,9 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     private int myTestCount = 0;
     private int myDoneTestsCount = 0;
 
-    static Group from(JsonObject obj, Map<Integer, Group> groups, Map<Integer, Suite> suites) {
-      JsonElement parentObj = obj.get(JSON_PARENT_ID);
-      Group parent = null;
-      if (parentObj != null && parentObj.isJsonPrimitive()) {
-        int parentId = parentObj.getAsInt();
-        parent = groups.get(parentId);
-      }
-      Suite suite = lookupSuite(obj, suites);
-      final int line = extractInt(obj, JSON_LINE);
-      final int column = extractInt(obj, JSON_COLUMN);
-      return new Group(extractInt(obj, JSON_ID), extractString(obj, JSON_NAME, NO_NAME), parent, suite, extractMetadata(obj),
-                       extractInt(obj, JSON_TEST_COUNT), line < 0 ? -1 : line - 1, column < 0 ? -1 : column - 1,
-                       extractString(obj, JSON_URL, null));
+    static Group from(DartTestEvent.Node node, TIntObjectHashMap<Group> groups, TIntObjectHashMap<Suite> suites) {
+      return new Group(node.id, nameOrDefault(node.name, NO_NAME), groups.get(node.parentId), suites.get(node.suiteId),
+                       Metadata.from(node), node.testCount, toZeroBased(node.line), toZeroBased(node.column), node.url);
     }
 
     Group(int id, String name, Group parent, Suite suite, Metadata metadata, int count, int line, int column, String url) {
@@ -768,11 +677,11 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
   }
 
   private static class Suite extends Item {
-    static Metadata NoMetadata = new Metadata();
+    static Metadata NoMetadata = Metadata.NONE;
     static String NONE = "<none>";
 
-    static Suite from(JsonObject obj) {
-      return new Suite(extractInt(obj, JSON_ID), extractString(obj, JSON_PATH, NONE), extractString(obj, JSON_PLATFORM, NONE));
+    static Suite from(DartTestEvent.Node node) {
+      return new Suite(node.id, nameOrDefault(node.path, NONE), nameOrDefault(node.platform, NONE));
     }
 
     private final String myPlatform;
@@ -796,12 +705,20 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
   }
 
   private static class Metadata {
-    @SuppressWarnings("unused") private boolean skip; // assigned by GSON via reflection
-    @SuppressWarnings("unused") private String skipReason; // assigned by GSON via reflection
+    static final Metadata NONE = new Metadata(false, null);
+
+    private final boolean skip;
+    private final String skipReason;
+
+    private Metadata(boolean skip, String skipReason) {
+      this.skip = skip;
+      this.skipReason = skipReason;
+    }
 
-    static Metadata from(JsonElement elem) {
-      if (elem == null) return new Metadata();
-      return GSON.fromJson(elem, (Type)Metadata.class);
+    static Metadata from(DartTestEvent.Node node) {
+      // almost all tests are not skipped, share a single instance for them
+      if (!node.skip && node.skipReason == null) return NONE;
+      return new Metadata(node.skip, node.skipReason);
     }
   }
 }
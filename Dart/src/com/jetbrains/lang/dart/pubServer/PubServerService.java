@@ -39,6 +39,7 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.handler.codec.http.*;
+import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCounted;
 import io.netty.util.internal.PlatformDependent;
 import org.jetbrains.annotations.NotNull;
@@ -67,6 +68,14 @@ final class PubServerService extends NetService {
   private static final String PUB_SERVE = "Pub Serve";
   private static final NotificationGroup NOTIFICATION_GROUP = NotificationGroup.toolWindowGroup(PUB_SERVE, PUB_SERVE, false);
 
+  // browsers open up to 6 connections per host
+  private static final int MAX_FREE_SERVER_CHANNELS = 8;
+  // pub serve may silently drop a connection that has been idle for a while, don't reuse such connections
+  private static final long MAX_SERVER_CHANNEL_IDLE_TIME = 15000;
+
+  private static final AttributeKey<ServerInfo> SERVER_INFO = AttributeKey.valueOf("dart.pub.serve.server.info");
+  private static final AttributeKey<Long> IDLE_SINCE = AttributeKey.valueOf("dart.pub.serve.idle.since");
+
   private volatile VirtualFile firstServedDir;
 
   private final Bootstrap bootstrap = nioClientBootstrap(new NioEventLoopGroup(1, PooledThreadExecutor.INSTANCE));
@@ -88,23 +97,48 @@ final class PubServerService extends NetService {
   private static class ClientInfo {
     private final Channel channel;
     private final HttpHeaders extraHeaders;
-
-    private ClientInfo(@NotNull Channel channel, @NotNull HttpHeaders extraHeaders) {
+    private final String pathToPubServe;
+    // retained copy of the request sent over a reused server channel, to resend it if pub serve has closed that channel meanwhile
+    @Nullable private FullHttpRequest retryRequest;
+    private boolean serverKeepAlive;
+
+    private ClientInfo(@NotNull Channel channel,
+                       @NotNull HttpHeaders extraHeaders,
+                       @NotNull String pathToPubServe,
+                       @Nullable FullHttpRequest retryRequest) {
       this.channel = channel;
       this.extraHeaders = extraHeaders;
+      this.pathToPubServe = pathToPubServe;
+      this.retryRequest = retryRequest;
+    }
+
+    private void releaseRetryRequest() {
+      if (retryRequest != null) {
+        retryRequest.release();
+        retryRequest = null;
+      }
     }
   }
 
   private final ChannelFutureListener serverChannelCloseListener = future -> {
     Channel channel = future.channel();
-    ServerInfo serverInfo = getServerInfo(channel);
+    ServerInfo serverInfo = channel.attr(SERVER_INFO).get();
     if (serverInfo != null) {
       serverInfo.freeServerChannels.remove(channel);
     }
 
     ClientInfo clientInfo = serverToClientChannel.remove(channel);
     if (clientInfo != null) {
-      sendBadGateway(clientInfo.channel, clientInfo.extraHeaders);
+      final FullHttpRequest retryRequest = clientInfo.retryRequest;
+      if (retryRequest != null && serverInfo != null && clientInfo.channel.isActive()) {
+        // reused channel was closed by pub serve before the response started, try once more with a new connection
+        clientInfo.retryRequest = null;
+        connectAndSend(serverInfo, clientInfo.channel, retryRequest, clientInfo.extraHeaders, clientInfo.pathToPubServe);
+      }
+      else {
+        clientInfo.releaseRetryRequest();
+        sendBadGateway(clientInfo.channel, clientInfo.extraHeaders);
+      }
     }
   };
 
@@ -120,16 +154,6 @@ final class PubServerService extends NetService {
     });
   }
 
-  @Nullable
-  private ServerInfo getServerInfo(@NotNull Channel channel) {
-    for (ServerInfo serverInstanceInfo : servedDirToSocketAddress.values()) {
-      if (channel.remoteAddress().equals(serverInstanceInfo.address)) {
-        return serverInstanceInfo;
-      }
-    }
-    return null;
-  }
-
   @Override
   @NotNull
   protected String getConsoleToolWindowId() {
@@ -217,8 +241,6 @@ final class PubServerService extends NetService {
 
   @Override
   protected void closeProcessConnections() {
-    servedDirToSocketAddress.clear();
-
     ClientInfo[] list;
     try {
       Collection<ClientInfo> clientInfos = serverToClientChannel.values();
@@ -226,6 +248,7 @@ final class PubServerService extends NetService {
       for (ServerInfo serverInstanceInfo : servedDirToSocketAddress.values()) {
         serverInstanceInfo.freeServerChannels.clear();
       }
+      servedDirToSocketAddress.clear();
       serverToClientChannel.clear();
     }
     finally {
@@ -234,6 +257,7 @@ final class PubServerService extends NetService {
 
     for (ClientInfo info : list) {
       try {
+        info.releaseRetryRequest();
         sendBadGateway(info.channel, info.extraHeaders);
       }
       catch (Exception e) {
@@ -286,44 +310,75 @@ final class PubServerService extends NetService {
 
     Channel serverChannel = findFreeServerChannel(serverInstanceInfo.freeServerChannels);
     if (serverChannel == null) {
-      connect(bootstrap, address, serverChannel1 -> {
-        if (serverChannel1 == null) {
-          if (clientChannel.isActive()) {
-            Responses.send(HttpResponseStatus.BAD_GATEWAY, clientChannel, clientRequest, null, extraHeaders);
-          }
-        }
-        else {
-          serverChannel1.closeFuture().addListener(serverChannelCloseListener);
-          sendToServer(clientChannel, clientRequest, extraHeaders, pathToPubServe, serverChannel1);
-        }
-      });
+      connectAndSend(serverInstanceInfo, clientChannel, clientRequest, extraHeaders, pathToPubServe);
     }
     else {
-      sendToServer(clientChannel, clientRequest, extraHeaders, pathToPubServe, serverChannel);
+      sendToServer(clientChannel, clientRequest, extraHeaders, pathToPubServe, serverChannel, true);
     }
   }
 
+  private void connectAndSend(@NotNull final ServerInfo serverInfo,
+                              @NotNull final Channel clientChannel,
+                              @NotNull final FullHttpRequest clientRequest,
+                              @NotNull final HttpHeaders extraHeaders,
+                              @NotNull final String pathToPubServe) {
+    connect(bootstrap, serverInfo.address, serverChannel -> {
+      if (serverChannel == null) {
+        if (clientChannel.isActive()) {
+          Responses.send(HttpResponseStatus.BAD_GATEWAY, clientChannel, clientRequest, null, extraHeaders);
+        }
+        clientRequest.release();
+      }
+      else {
+        serverChannel.attr(SERVER_INFO).set(serverInfo);
+        serverChannel.closeFuture().addListener(serverChannelCloseListener);
+        sendToServer(clientChannel, clientRequest, extraHeaders, pathToPubServe, serverChannel, false);
+      }
+    });
+  }
+
   @Nullable
   private static Channel findFreeServerChannel(@NotNull Deque<Channel> freeServerChannels) {
     while (true) {
+      // the most recently used channel is the least likely to be dropped by pub serve
       Channel channel = freeServerChannels.pollLast();
       if (channel == null) {
         break;
       }
 
-      if (channel.isActive()) {
+      Long idleSince = channel.attr(IDLE_SINCE).get();
+      if (channel.isActive() && idleSince != null && System.currentTimeMillis() - idleSince < MAX_SERVER_CHANNEL_IDLE_TIME) {
         return channel;
       }
+      channel.close();
     }
     return null;
   }
 
+  private static void releaseServerChannel(@NotNull Channel serverChannel, boolean keepAlive) {
+    ServerInfo serverInfo = serverChannel.attr(SERVER_INFO).get();
+    if (keepAlive &&
+        serverInfo != null &&
+        serverChannel.isActive() &&
+        serverInfo.freeServerChannels.size() < MAX_FREE_SERVER_CHANNELS) {
+      serverChannel.attr(IDLE_SINCE).set(System.currentTimeMillis());
+      serverInfo.freeServerChannels.add(serverChannel);
+    }
+    else {
+      serverChannel.close();
+    }
+  }
+
   private void sendToServer(@NotNull final Channel clientChannel,
                             @NotNull FullHttpRequest clientRequest,
                             @NotNull HttpHeaders extraHeaders,
                             @NotNull String pathToPubServe,
-                            @NotNull Channel serverChannel) {
-    ClientInfo oldClientInfo = serverToClientChannel.put(serverChannel, new ClientInfo(clientChannel, extraHeaders));
+                            @NotNull Channel serverChannel,
+                            boolean reusedServerChannel) {
+    // writing the request releases it, keep one more reference for a possible retry
+    FullHttpRequest retryRequest = reusedServerChannel ? clientRequest.retain() : null;
+    ClientInfo oldClientInfo =
+      serverToClientChannel.put(serverChannel, new ClientInfo(clientChannel, extraHeaders, pathToPubServe, retryRequest));
     LOG.assertTrue(oldClientInfo == null);
 
     // duplicate - content will be shared (opposite to copy), so, we use duplicate. see ByteBuf javadoc.
@@ -370,6 +425,9 @@ final class PubServerService extends NetService {
       if (clientInfo == null || !clientInfo.channel.isActive()) {
         // client abort request, so, just close server channel as well and don't try to reuse it
         serverToClientChannel.remove(serverChannel);
+        if (clientInfo != null) {
+          clientInfo.releaseRetryRequest();
+        }
         serverChannel.close();
 
         if (message instanceof ReferenceCounted) {
@@ -378,21 +436,25 @@ final class PubServerService extends NetService {
       }
       else {
         if (message instanceof HttpResponse) {
+          // the response has started, the request can't be resent anymore
+          clientInfo.releaseRetryRequest();
+
           HttpResponse response = (HttpResponse)message;
+          clientInfo.serverKeepAlive = HttpUtil.isKeepAlive(response);
           HttpUtil.setKeepAlive(response, true);
           response.headers().add(clientInfo.extraHeaders);
         }
         if (message instanceof LastHttpContent) {
           serverToClientChannel.remove(serverChannel);
-          ServerInfo serverInfo = getServerInfo(serverChannel);
-          if (serverInfo != null) {
-            // todo sometimes dart pub server stops to respond, so, we don't reuse it for now
-            //serverInfo.freeServerChannels.add(serverChannel);
-            serverChannel.close();
-          }
+          releaseServerChannel(serverChannel, clientInfo.serverKeepAlive);
         }
 
-        clientInfo.channel.writeAndFlush(message);
+        ChannelFuture future = clientInfo.channel.writeAndFlush(message);
+        if (!clientInfo.channel.isWritable()) {
+          // slow client: stop reading a large response from pub serve until the written part is flushed
+          serverChannel.config().setAutoRead(false);
+          future.addListener(f -> serverChannel.config().setAutoRead(true));
+        }
       }
     }
   }
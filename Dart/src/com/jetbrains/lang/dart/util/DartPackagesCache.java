@@ -0,0 +1,282 @@
+package com.jetbrains.lang.dart.util;
+
+import com.intellij.ProjectTopics;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.*;
+import com.intellij.openapi.roots.impl.libraries.LibraryEx;
+import com.intellij.openapi.roots.libraries.LibraryProperties;
+import com.intellij.openapi.roots.libraries.LibraryTablesRegistrar;
+import com.intellij.openapi.vfs.*;
+import com.intellij.util.containers.ContainerUtil;
+import com.jetbrains.lang.dart.sdk.DartPackagesLibraryProperties;
+import com.jetbrains.lang.dart.sdk.DartPackagesLibraryType;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.jetbrains.lang.dart.util.DartUrlResolver.PACKAGE_PREFIX;
+
+/**
+ * Package maps used by {@link DartUrlResolverImpl}, shared by all resolvers in the project. A resolver is created for almost each
+ * resolved import and each file-to-url conversion, so building the maps from .packages, pubspec.yaml files and library properties
+ * every time is noticeable in big projects.
+ * <p>
+ * The maps are dropped when a pubspec.yaml or .packages file is changed, a pubspec.yaml document is edited, any folder is
+ * created, deleted, moved or renamed (a 'lib' folder may appear), or project roots change.
+ */
+public class DartPackagesCache {
+
+  /**
+   * Live packages of a pubspec.yaml file: from the .packages file if there is one, otherwise the package itself and path packages.
+   */
+  static final class LivePackages {
+    static final LivePackages EMPTY = new LivePackages(Collections.emptyMap());
+
+    @NotNull final Map<String, VirtualFile> myPackageNameToDir;
+    @NotNull private final Map<VirtualFile, String> myDirToPackageName = new THashMap<>();
+
+    private LivePackages(@NotNull final Map<String, VirtualFile> packageNameToDir) {
+      myPackageNameToDir = Collections.unmodifiableMap(packageNameToDir);
+      for (Map.Entry<String, VirtualFile> entry : packageNameToDir.entrySet()) {
+        myDirToPackageName.putIfAbsent(entry.getValue(), entry.getKey());
+      }
+    }
+
+    /**
+     * Walks up from the file instead of checking each package dir, the innermost package dir wins.
+     */
+    @Nullable
+    String getUrlForFile(@NotNull final VirtualFile file) {
+      if (myDirToPackageName.isEmpty()) return null;
+
+      for (VirtualFile dir = file; dir != null; dir = dir.getParent()) {
+        final String packageName = myDirToPackageName.get(dir);
+        if (packageName != null) {
+          return PACKAGE_PREFIX + packageName + "/" + VfsUtilCore.getRelativePath(file, dir, '/');
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Packages from the 'Dart Packages' library, used if there's no pubspec.yaml file.
+   */
+  static final class LibPackages {
+    static final LibPackages EMPTY = new LibPackages(Collections.emptyMap());
+
+    @NotNull final Map<String, List<String>> myPackageNameToDirPaths;
+    @NotNull private final Map<String, String> myDirPathToPackageName = new THashMap<>();
+
+    private LibPackages(@NotNull final Map<String, List<String>> packageNameToDirPaths) {
+      myPackageNameToDirPaths = Collections.unmodifiableMap(packageNameToDirPaths);
+      for (Map.Entry<String, List<String>> entry : packageNameToDirPaths.entrySet()) {
+        for (String dirPath : entry.getValue()) {
+          myDirPathToPackageName.putIfAbsent(dirPath, entry.getKey());
+        }
+      }
+    }
+
+    /**
+     * Looks up each parent path of the file instead of checking each package dir, the innermost package dir wins.
+     */
+    @Nullable
+    String getUrlForFile(@NotNull final VirtualFile file) {
+      if (myDirPathToPackageName.isEmpty()) return null;
+
+      final String path = file.getPath();
+      for (int slashIndex = path.lastIndexOf('/'); slashIndex > 0; slashIndex = path.lastIndexOf('/', slashIndex - 1)) {
+        final String packageName = myDirPathToPackageName.get(path.substring(0, slashIndex));
+        if (packageName != null) {
+          return PACKAGE_PREFIX + packageName + path.substring(slashIndex);
+        }
+      }
+      return null;
+    }
+  }
+
+  @NotNull private final Project myProject;
+  @NotNull private final ConcurrentMap<VirtualFile, LivePackages> myPubspecToLivePackages = ContainerUtil.newConcurrentMap();
+  @NotNull private final ConcurrentMap<Module, LibPackages> myModuleToLibPackages = ContainerUtil.newConcurrentMap();
+  // incremented on each invalidation, so that maps computed concurrently with it are not cached
+  private volatile int myModificationCount;
+
+  @NotNull
+  public static DartPackagesCache getInstance(@NotNull final Project project) {
+    return ServiceManager.getService(project, DartPackagesCache.class);
+  }
+
+  public DartPackagesCache(@NotNull final Project project) {
+    myProject = project;
+
+    VirtualFileManager.getInstance().addVirtualFileListener(new VirtualFileListener() {
+      @Override
+      public void propertyChanged(@NotNull final VirtualFilePropertyEvent event) {
+        if (VirtualFile.PROP_NAME.equals(event.getPropertyName()) &&
+            (event.getFile().isDirectory() || isPackagesFileName(event.getOldValue()) || isPackagesFileName(event.getNewValue()))) {
+          invalidate();
+        }
+      }
+
+      @Override
+      public void contentsChanged(@NotNull final VirtualFileEvent event) {
+        if (isPackagesFileName(event.getFileName())) {
+          invalidate();
+        }
+      }
+
+      @Override
+      public void fileCreated(@NotNull final VirtualFileEvent event) {
+        fileAddedOrRemoved(event);
+      }
+
+      @Override
+      public void fileDeleted(@NotNull final VirtualFileEvent event) {
+        fileAddedOrRemoved(event);
+      }
+
+      @Override
+      public void fileMoved(@NotNull final VirtualFileMoveEvent event) {
+        fileAddedOrRemoved(event);
+      }
+
+      private void fileAddedOrRemoved(@NotNull final VirtualFileEvent event) {
+        if (event.getFile().isDirectory() || isPackagesFileName(event.getFileName())) {
+          invalidate();
+        }
+      }
+    }, project);
+
+    EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentListener() {
+      @Override
+      public void documentChanged(DocumentEvent e) {
+        final VirtualFile file = FileDocumentManager.getInstance().getFile(e.getDocument());
+        if (file != null && PubspecYamlUtil.PUBSPEC_YAML.equals(file.getName())) {
+          invalidate();
+        }
+      }
+    }, project);
+
+    project.getMessageBus().connect().subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootListener() {
+      @Override
+      public void rootsChanged(final ModuleRootEvent event) {
+        invalidate();
+      }
+    });
+  }
+
+  private static boolean isPackagesFileName(@Nullable final Object fileName) {
+    return PubspecYamlUtil.PUBSPEC_YAML.equals(fileName) || DotPackagesFileUtil.DOT_PACKAGES.equals(fileName);
+  }
+
+  private synchronized void invalidate() {
+    myModificationCount++;
+    myPubspecToLivePackages.clear();
+    myModuleToLibPackages.clear();
+  }
+
+  private synchronized <K, V> void cache(@NotNull final Map<K, V> map,
+                                         @NotNull final K key,
+                                         @NotNull final V value,
+                                         final int modificationCount) {
+    if (myModificationCount == modificationCount) {
+      map.put(key, value);
+    }
+  }
+
+  @NotNull
+  LivePackages getLivePackages(@NotNull final VirtualFile pubspecYamlFile) {
+    LivePackages packages = myPubspecToLivePackages.get(pubspecYamlFile);
+    if (packages == null) {
+      final int modificationCount = myModificationCount;
+      packages = computeLivePackages(pubspecYamlFile);
+      cache(myPubspecToLivePackages, pubspecYamlFile, packages, modificationCount);
+    }
+    return packages;
+  }
+
+  /**
+   * @param module <code>null</code> if the context file is not in a module, the result is not cached then
+   */
+  @NotNull
+  LibPackages getLibPackages(@Nullable final Module module, @NotNull final VirtualFile contextFile) {
+    if (module == null) {
+      return computeLibPackages(ProjectRootManager.getInstance(myProject).getFileIndex().getOrderEntriesForFile(contextFile));
+    }
+
+    LibPackages packages = myModuleToLibPackages.get(module);
+    if (packages == null) {
+      final int modificationCount = myModificationCount;
+      packages = computeLibPackages(Arrays.asList(ModuleRootManager.getInstance(module).getOrderEntries()));
+      cache(myModuleToLibPackages, module, packages, modificationCount);
+    }
+    return packages;
+  }
+
+  @NotNull
+  private LivePackages computeLivePackages(@NotNull final VirtualFile pubspecYamlFile) {
+    final VirtualFile baseDir = pubspecYamlFile.getParent();
+    if (baseDir == null) return LivePackages.EMPTY;
+
+    final Map<String, VirtualFile> packageNameToDir = new THashMap<>();
+    final VirtualFile dotPackagesFile = baseDir.findChild(DotPackagesFileUtil.DOT_PACKAGES);
+
+    if (dotPackagesFile != null && !dotPackagesFile.isDirectory()) {
+      final Map<String, String> packagesMap = DotPackagesFileUtil.getPackagesMap(dotPackagesFile);
+      if (packagesMap != null) {
+        for (Map.Entry<String, String> entry : packagesMap.entrySet()) {
+          final String packageName = entry.getKey();
+          final String packagePath = entry.getValue();
+          final VirtualFile packageDir = pubspecYamlFile.getFileSystem().findFileByPath(packagePath);
+          if (packageDir != null) {
+            packageNameToDir.put(packageName, packageDir);
+          }
+        }
+      }
+    }
+    else {
+      final String name = PubspecYamlUtil.getDartProjectName(pubspecYamlFile);
+      final VirtualFile libFolder = baseDir.findChild(PubspecYamlUtil.LIB_DIR_NAME);
+
+      if (name != null && libFolder != null && libFolder.isDirectory()) {
+        packageNameToDir.put(name, libFolder);
+      }
+
+      PubspecYamlUtil.processInProjectPathPackagesRecursively(myProject, pubspecYamlFile, packageNameToDir::put);
+    }
+
+    return packageNameToDir.isEmpty() ? LivePackages.EMPTY : new LivePackages(packageNameToDir);
+  }
+
+  @NotNull
+  private static LibPackages computeLibPackages(@NotNull final List<OrderEntry> orderEntries) {
+    for (OrderEntry orderEntry : orderEntries) {
+      if (orderEntry instanceof LibraryOrderEntry &&
+          LibraryTablesRegistrar.PROJECT_LEVEL.equals(((LibraryOrderEntry)orderEntry).getLibraryLevel()) &&
+          DartPackagesLibraryType.DART_PACKAGES_LIBRARY_NAME.equals(((LibraryOrderEntry)orderEntry).getLibraryName())) {
+        final LibraryEx library = (LibraryEx)((LibraryOrderEntry)orderEntry).getLibrary();
+        final LibraryProperties properties = library == null ? null : library.getProperties();
+
+        if (properties instanceof DartPackagesLibraryProperties) {
+          final Map<String, List<String>> packageNameToDirPaths = new THashMap<>();
+          for (Map.Entry<String, List<String>> entry : ((DartPackagesLibraryProperties)properties).getPackageNameToDirsMap().entrySet()) {
+            if (entry != null && entry.getKey() != null && entry.getValue() != null) {
+              packageNameToDirPaths.put(entry.getKey(), entry.getValue());
+            }
+          }
+          return new LibPackages(packageNameToDirPaths);
+        }
+      }
+    }
+    return LibPackages.EMPTY;
+  }
+}
@@ -0,0 +1,77 @@
+package com.jetbrains.dart.analysisServer;
+
+import com.google.dart.server.AnalysisServerListenerAdapter;
+import com.google.dart.server.internal.remote.StreamingResponseStream;
+import com.google.gson.JsonObject;
+import junit.framework.TestCase;
+import org.dartlang.analysis.server.protocol.AnalysisError;
+import org.dartlang.analysis.server.protocol.HighlightRegion;
+import org.dartlang.analysis.server.protocol.NavigationRegion;
+import org.dartlang.analysis.server.protocol.NavigationTarget;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DartStreamingResponseStreamTest extends TestCase {
+  private static final String TRAFFIC =
+    "Observatory listening on http://127.0.0.1:8181\n" +
+    "{\"event\":\"analysis.highlights\",\"params\":{\"file\":\"/a.dart\",\"regions\":[" +
+    "{\"type\":\"KEYWORD\",\"offset\":0,\"length\":5},{\"type\":\"CLASS\",\"offset\":6,\"length\":3}]}}\r\n" +
+    "{\"id\":\"1\",\"result\":{\"version\":\"1.18.0\"}}\n" +
+    "{\"event\":\"analysis.navigation\",\"params\":{\"file\":\"/a.dart\",\"regions\":[" +
+    "{\"offset\":6,\"length\":3,\"targets\":[0]}],\"targets\":[" +
+    "{\"kind\":\"CLASS\",\"fileIndex\":0,\"offset\":10,\"length\":3,\"startLine\":2,\"startColumn\":7}]," +
+    "\"files\":[\"/b.dart\"]}}\n" +
+    "{\"event\":\"analysis.errors\",\"params\":{\"file\":\"/a.dart\",\"errors\":[" +
+    "{\"severity\":\"ERROR\",\"type\":\"SYNTACTIC_ERROR\",\"location\":{\"file\":\"/a.dart\",\"offset\":1,\"length\":2," +
+    "\"startLine\":1,\"startColumn\":2},\"message\":\"Expected \\u0027;\\u0027\",\"code\":\"expected_token\",\"hasFix\":true}]}}\n" +
+    "{\"event\":\"server.status\",\"params\":{\"analysis\":{\"isAnalyzing\":false}}}";
+
+  public void testNotificationsDecodedInOrder() throws Exception {
+    final List<String> events = new ArrayList<>();
+    final StreamingResponseStream stream =
+      new StreamingResponseStream(new ByteArrayInputStream(TRAFFIC.getBytes(StandardCharsets.UTF_8)), null, null);
+    stream.setListener(new AnalysisServerListenerAdapter() {
+      @Override
+      public void computedHighlights(String file, List<HighlightRegion> highlights) {
+        assertEquals("/a.dart", file);
+        assertEquals(2, highlights.size());
+        assertEquals(new HighlightRegion("CLASS", 6, 3), highlights.get(1));
+        events.add("highlights");
+      }
+
+      @Override
+      public void computedNavigation(String file, List<NavigationRegion> regions) {
+        assertEquals(1, regions.size());
+        final NavigationTarget target = regions.get(0).getTargetObjects().get(0);
+        assertEquals("/b.dart", target.getFile());
+        assertEquals(10, target.getOffset());
+        events.add("navigation");
+      }
+
+      @Override
+      public void computedErrors(String file, List<AnalysisError> errors) {
+        assertEquals(1, errors.size());
+        final AnalysisError error = errors.get(0);
+        assertEquals("Expected ';'", error.getMessage());
+        assertEquals(2, error.getLocation().getStartColumn());
+        assertNull(error.getCorrection());
+        assertEquals(Boolean.TRUE, error.getHasFix());
+        events.add("errors");
+      }
+    });
+
+    final JsonObject version = stream.take();
+    assertEquals("1", version.get("id").getAsString());
+    events.add("response");
+
+    final JsonObject status = stream.take();
+    assertEquals("server.status", status.get("event").getAsString());
+    events.add("status");
+
+    assertNull(stream.take());
+    assertEquals("[highlights, response, navigation, errors, status]", events.toString());
+  }
+}
@@ -0,0 +1,92 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import com.intellij.openapi.util.text.StringUtil;
+import junit.framework.TestCase;
+import org.dartlang.analysis.server.protocol.SourceEdit;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+public class DartPendingEditsTest extends TestCase {
+  private static final String PATH = "/project/lib/main.dart";
+
+  private final DartPendingEdits myEdits = new DartPendingEdits();
+  private StringBuilder myText;
+  private long myStamp;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myText = new StringBuilder("void main() {\n  print('hello');\n}\n");
+    myStamp = 1;
+  }
+
+  private void change(final int offset, final int oldLength, @NotNull final String newText) {
+    myEdits.beforeDocumentChange(PATH, myStamp, offset, oldLength, newText, myText.length());
+    myText.replace(offset, offset + oldLength, newText);
+    myStamp++;
+  }
+
+  private void checkEdits(@NotNull final String originalText, final int expectedEditCount) {
+    final List<SourceEdit> edits = myEdits.takeEdits(PATH, 1);
+    assertNotNull(edits);
+    assertEquals(expectedEditCount, edits.size());
+
+    final StringBuilder text = new StringBuilder(originalText);
+    for (SourceEdit edit : edits) {
+      text.replace(edit.getOffset(), edit.getOffset() + edit.getLength(), edit.getReplacement());
+    }
+    assertEquals(myText.toString(), text.toString());
+  }
+
+  public void testTypingCoalesced() {
+    final String original = myText.toString();
+    change(22, 0, "w");
+    change(23, 0, "o");
+    change(24, 0, "r");
+    change(25, 0, "l");
+    change(26, 0, "d");
+    checkEdits(original, 1);
+  }
+
+  public void testBackspaceCoalesced() {
+    final String original = myText.toString();
+    change(22, 0, "x");
+    change(23, 0, "y");
+    change(23, 1, "");
+    change(22, 1, "");
+    change(21, 1, "");
+    change(20, 1, "");
+    checkEdits(original, 1);
+  }
+
+  public void testOverlappingReplacementCoalesced() {
+    final String original = myText.toString();
+    change(17, 5, "debugPrint");
+    change(14, 5, "   ");
+    change(25, 4, "Pr");
+    checkEdits(original, 1);
+  }
+
+  public void testDistantEditsKeptInOrder() {
+    final String original = myText.toString();
+    change(0, 4, "int");
+    change(30, 0, " ");
+    change(5, 0, "_");
+    checkEdits(original, 3);
+  }
+
+  public void testOtherBaseStamp() {
+    change(22, 0, "w");
+    assertNull(myEdits.takeEdits(PATH, 0));
+    assertNull(myEdits.takeEdits(PATH, 1));
+  }
+
+  public void testTooManyEdits() {
+    myText.append(StringUtil.repeat("// comment\n", 50));
+    for (int i = 0; i <= DartPendingEdits.MAX_EDITS_PER_FILE; i++) {
+      change(i * 2, 1, "a");
+    }
+    assertNull(myEdits.takeEdits(PATH, 1));
+  }
+}
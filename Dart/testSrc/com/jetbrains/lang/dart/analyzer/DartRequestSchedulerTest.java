@@ -0,0 +1,79 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import com.jetbrains.lang.dart.analyzer.DartRequestScheduler.Priority;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DartRequestSchedulerTest extends TestCase {
+  private final DartRequestScheduler myScheduler = new DartRequestScheduler(null);
+  private final List<String> mySent = new ArrayList<>();
+
+  @NotNull
+  private DartRequestScheduler.Request submit(@NotNull final Priority priority, @NotNull final String name) {
+    return myScheduler.submit(priority, name, "/" + name + ".dart", () -> mySent.add(name));
+  }
+
+  public void testInteractiveSentAtOnce() {
+    submit(Priority.BACKGROUND, "search");
+    submit(Priority.INTERACTIVE, "completion");
+    submit(Priority.VISIBLE, "fixes");
+    assertEquals("[search, completion, fixes]", mySent.toString());
+  }
+
+  public void testBackgroundHeldWhileInteractiveInFlight() {
+    final DartRequestScheduler.Request completion = submit(Priority.INTERACTIVE, "completion");
+    final DartRequestScheduler.Request format = submit(Priority.BACKGROUND, "format");
+    final DartRequestScheduler.Request search = submit(Priority.BACKGROUND, "search");
+    assertEquals("[completion]", mySent.toString());
+    assertEquals(2, myScheduler.getQueueSize());
+
+    completion.finished(true);
+    assertEquals("[completion, format]", mySent.toString());
+    assertTrue(format.isSent());
+    assertFalse(search.isSent());
+
+    format.finished(true);
+    assertEquals("[completion, format, search]", mySent.toString());
+    search.finished(true);
+
+    assertEquals(1, myScheduler.getLatencyStats().get(Priority.INTERACTIVE).getCount());
+    assertEquals(2, myScheduler.getLatencyStats().get(Priority.BACKGROUND).getCount());
+  }
+
+  public void testSendTimeSetWhenHeldRequestSent() {
+    final DartRequestScheduler.Request completion = submit(Priority.INTERACTIVE, "completion");
+    final DartRequestScheduler.Request search = submit(Priority.BACKGROUND, "search");
+    assertTrue(completion.getSendTime() >= 0);
+    assertEquals(-1, search.getSendTime());
+
+    final long beforeSend = System.currentTimeMillis();
+    completion.finished(true);
+    assertTrue(search.getSendTime() >= beforeSend);
+    search.finished(true);
+  }
+
+  public void testCanceledRequestNotSent() {
+    final DartRequestScheduler.Request hover = submit(Priority.INTERACTIVE, "hover");
+    final DartRequestScheduler.Request hierarchy = submit(Priority.BACKGROUND, "hierarchy");
+    hierarchy.finished(false);
+    hover.finished(false);
+
+    assertEquals("[hover]", mySent.toString());
+    assertEquals(0, myScheduler.getQueueSize());
+    assertEquals(1, myScheduler.getLatencyStats().get(Priority.BACKGROUND).getDroppedCount());
+    assertEquals(1, myScheduler.getLatencyStats().get(Priority.INTERACTIVE).getTimedOutCount());
+  }
+
+  public void testQueuedSentBeforeContentUpdate() {
+    submit(Priority.VISIBLE, "assists");
+    submit(Priority.BACKGROUND, "format");
+    submit(Priority.BACKGROUND, "sort");
+    myScheduler.sendQueued(Collections.singleton("/sort.dart"));
+    assertEquals("[assists, sort]", mySent.toString());
+    assertEquals(1, myScheduler.getQueueSize());
+  }
+}
@@ -0,0 +1,75 @@
+package com.jetbrains.lang.dart.coverage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DartCoverageDataTest extends TestCase {
+
+  @NotNull
+  private static Map<String, DartCoverageData.LineHits> read(@NotNull final String json) throws IOException {
+    final DartCoverageData data = DartCoverageData.read(new StringReader(json));
+    assertNotNull(data);
+    return data.getLineHits();
+  }
+
+  public void testMergedAcrossIsolates() throws IOException {
+    final Map<String, DartCoverageData.LineHits> hits =
+      read("{\"type\": \"CodeCoverage\", \"coverage\": [" +
+           "{\"source\": \"file:///a.dart\", \"script\": {\"type\": \"@Script\"}, \"hits\": [3, 1, 5, 0, 40, 2]}," +
+           "{\"source\": \"file:///b.dart\", \"hits\": []}," +
+           "{\"hits\": [1, 1], \"source\": \"file:///a.dart\"}," +
+           "{\"source\": \"file:///a.dart\", \"hits\": [3, 4, 5, 0]}" +
+           "]}");
+    assertEquals(2, hits.size());
+
+    final DartCoverageData.LineHits a = hits.get("file:///a.dart");
+    assertEquals(40, a.getMaxLine());
+    assertEquals(1, a.getHits(1));
+    assertEquals(5, a.getHits(3));
+    assertTrue(a.hasData(5));
+    assertEquals(0, a.getHits(5));
+    assertEquals(2, a.getHits(40));
+    assertFalse(a.hasData(2));
+    assertFalse(a.hasData(41));
+
+    assertEquals(-1, hits.get("file:///b.dart").getMaxLine());
+  }
+
+  public void testSnapshot() throws IOException {
+    final File sessionDataFile = FileUtil.createTempFile("coverage", ".json", true);
+    final Map<String, DartCoverageData.LineHits> hits = read("{\"coverage\": [" +
+                                                             "{\"source\": \"a.dart\", \"hits\": [2, 3, 4, 0]}," +
+                                                             "{\"source\": \"b.dart\", \"hits\": []}]}");
+    final Map<String, DartCoverageData.LineHits> fileHits = new LinkedHashMap<>();
+    fileHits.put("/src/a.dart", hits.get("a.dart"));
+    fileHits.put("/src/b.dart", hits.get("b.dart"));
+    DartCoverageSnapshot.write(sessionDataFile, "sdk 1.20", fileHits);
+
+    assertNull(DartCoverageSnapshot.read(sessionDataFile, "sdk 1.21"));
+    final ProjectData projectData = DartCoverageSnapshot.read(sessionDataFile, "sdk 1.20");
+    assertNotNull(projectData);
+    final Object[] aLines = projectData.getClassData("/src/a.dart").getLines();
+    assertEquals(5, aLines.length);
+    assertNull(aLines[3]);
+    assertEquals(3, ((LineData)aLines[2]).getHits());
+    assertEquals(0, ((LineData)aLines[4]).getHits());
+    assertEquals(1, projectData.getClassData("/src/b.dart").getLines().length);
+
+    FileUtil.writeToFile(sessionDataFile, "{}");
+    assertNull(DartCoverageSnapshot.read(sessionDataFile, "sdk 1.20"));
+  }
+
+  public void testEmpty() throws IOException {
+    assertNull(DartCoverageData.read(new StringReader("")));
+    assertTrue(read("{}").isEmpty());
+  }
+}
@@ -0,0 +1,109 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiFile;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+import com.jetbrains.lang.dart.util.DartTestUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TreeSet;
+
+public class DartLexerIndexerTest extends DartCodeInsightFixtureTestCase {
+
+  private void doTest(@NotNull final String fileName, @NotNull final String text) {
+    final PsiFile psiFile = myFixture.configureByText(fileName, text);
+    final DartFileIndexData expected = DartIndexUtil.indexFileRoots(psiFile);
+    final DartFileIndexData actual = DartLexerIndexer.index(text, fileName);
+    assertNotNull(fileName, actual);
+
+    assertEquals(fileName, expected.getLibraryName(), actual.getLibraryName());
+    assertEquals(fileName, expected.isPart(), actual.isPart());
+    assertEquals(fileName, new TreeSet<>(expected.getClassNames()), new TreeSet<>(actual.getClassNames()));
+    assertEquals(fileName, new TreeSet<>(expected.getSymbols()), new TreeSet<>(actual.getSymbols()));
+    assertEquals(fileName, expected.getComponentInfoMap(), actual.getComponentInfoMap());
+    assertEquals(fileName, expected.getImportAndExportInfos(), actual.getImportAndExportInfos());
+    assertEquals(fileName, expected.getPartUris(), actual.getPartUris());
+  }
+
+  private static void doTestFallback(@NotNull final String text) {
+    assertNull(DartLexerIndexer.index(text, "a.dart"));
+  }
+
+  public void testDirectives() {
+    doTest("a.dart", "@Meta.x(1, 2)\n" +
+                     "library my . lib;\n" +
+                     "import 'dart:async' deferred as async show Future, Stream hide Timer;\n" +
+                     "import r\"package:foo/foo.dart\" as foo;\n" +
+                     "export \"\"\"src/a.dart\"\"\" show A hide B, C;\n" +
+                     "part 'src/b.dart';\n" +
+                     "const async = 1;");
+  }
+
+  public void testPartOf() {
+    doTest("a.dart", "part of my. /* comment */ lib;\n" +
+                     "class A {}");
+  }
+
+  public void testTopLevelDeclarations() {
+    doTest("a.dart", "typedef void Callback<T>(T value);\n" +
+                     "typedef int Compare(Object a, Object b)\n" +
+                     "typedef Mapper<S, T> = T Function(S);\n" +
+                     "class Mixed = Base with M;\n" +
+                     "enum Color { red, green, blue, }\n" +
+                     "int top = 1, other;\n" +
+                     "final fin = 1;\n" +
+                     "var Function(int) fn;\n" +
+                     "Map<String, int> get topGetter => {};\n" +
+                     "set topSetter(v) {}\n" +
+                     "void main() { var x = 1; }\n" +
+                     "external foo();\n" +
+                     "List<List<int>> nested() => [[1]];\n" +
+                     "foo.Bar qualified;");
+  }
+
+  public void testClassMembers() {
+    doTest("a.dart", "abstract class Base<T extends Comparable<T>> extends Object with M implements I {\n" +
+                     "  static const int a = 1, b = 2;\n" +
+                     "  final Map<String, List<int>> _map = {};\n" +
+                     "  covariant var c;\n" +
+                     "  Base(this.c) : assert(c != null), super();\n" +
+                     "  Base.named() : this(1);\n" +
+                     "  const factory Base.redirect(int x) = _Impl<T>;\n" +
+                     "  factory Base.create() { return null; }\n" +
+                     "  T get value => null;\n" +
+                     "  set value(T v) {}\n" +
+                     "  bool operator ==(other) => false;\n" +
+                     "  bool operator <(other) => false;\n" +
+                     "  operator [](int i) => i;\n" +
+                     "  void operator []=(int i, v) {}\n" +
+                     "  int operator -() => 0;\n" +
+                     "  void operator(a) {}\n" +
+                     "  void Function(int) callback() => null;\n" +
+                     "  Stream<int> gen() async* { yield 1; }\n" +
+                     "  external int ext();\n" +
+                     "  @override\n" +
+                     "  String toString() => '${a}';\n" +
+                     "  V get<V>(K key) => null;\n" +
+                     "}");
+  }
+
+  public void testFallback() {
+    doTestFallback("part of 'lib.dart';");
+    doTestFallback("import 'a.dart' if (dart.library.io) 'b.dart';");
+    doTestFallback("import 'a$b.dart';");
+    doTestFallback("class A { foo() { }");
+    doTestFallback("Foo;");
+  }
+
+  public void testSdkFiles() throws IOException {
+    final File coreDir = new File(DartTestUtils.SDK_HOME_PATH, "lib/core");
+    final File[] files = coreDir.listFiles((dir, name) -> name.endsWith(".dart"));
+    assertNotNull(files);
+    for (File file : files) {
+      doTest(file.getName(), StringUtil.convertLineSeparators(FileUtil.loadFile(file)));
+    }
+  }
+}
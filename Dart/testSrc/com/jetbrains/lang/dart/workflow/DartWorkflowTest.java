@@ -148,4 +148,26 @@ public class DartWorkflowTest extends DartCodeInsightFixtureTestCase {
     assertEquals(rootPath + "/pub/global/cache/SomePackage/lib/somepack.dart", file.getPath());
     assertEquals("package:SomePackage/somepack.dart", resolver.getDartUrlForFile(file));
   }
+
+  public void testDartUrlResolverCacheInvalidation() throws Exception {
+    final VirtualFile pubspec = myFixture.addFileToProject("pubspec.yaml", "name: RootProject").getVirtualFile();
+    final VirtualFile rootLib = myFixture.addFileToProject("lib/rootlib.dart", "").getVirtualFile();
+    final VirtualFile otherLib = myFixture.addFileToProject("other/lib/otherlib.dart", "").getVirtualFile();
+    myFixture.addFileToProject("other/pubspec.yaml", "name: OtherProject");
+
+    assertEquals("package:RootProject/rootlib.dart", DartUrlResolver.getInstance(getProject(), pubspec).getDartUrlForFile(rootLib));
+    assertNull(DartUrlResolver.getInstance(getProject(), pubspec).findFileByDartUrl("package:OtherProject/otherlib.dart"));
+
+    myFixture.saveText(pubspec, "name: RootProject\n" +
+                                "dependencies:\n" +
+                                "  OtherProject:\n" +
+                                "    path: other");
+    assertEquals(otherLib, DartUrlResolver.getInstance(getProject(), pubspec).findFileByDartUrl("package:OtherProject/otherlib.dart"));
+
+    final VirtualFile dotPackages = myFixture.addFileToProject(".packages", "").getVirtualFile();
+    assertNull(DartUrlResolver.getInstance(getProject(), pubspec).findFileByDartUrl("package:RootProject/rootlib.dart"));
+
+    myFixture.saveText(dotPackages, "Renamed:lib/");
+    assertEquals("package:Renamed/rootlib.dart", DartUrlResolver.getInstance(getProject(), pubspec).getDartUrlForFile(rootLib));
+  }
 }
@@ -13,6 +13,8 @@
  */
 package com.google.dart.server;
 
+import org.dartlang.analysis.server.protocol.RequestError;
+
 /**
  * The interface {@code UpdateContentConsumer} defines the behavior of objects that consume
  * 'analysis.updateContent' responses.
@@ -24,4 +26,12 @@ public interface UpdateContentConsumer extends Consumer {
    * A response to the request was received.
    */
   public void onResponse();
+
+  /**
+   * If the content could not be updated, e.g. a {@code ChangeContentOverlay} does not apply to the
+   * content that the server has, then an error is passed instead of calling {@link #onResponse()}.
+   *
+   * @param requestError the reason why the content was not updated
+   */
+  public void onError(RequestError requestError);
 }
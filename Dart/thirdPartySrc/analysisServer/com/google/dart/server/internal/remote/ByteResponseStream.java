@@ -13,6 +13,7 @@
  */
 package com.google.dart.server.internal.remote;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
@@ -86,6 +87,8 @@ public class ByteResponseStream implements ResponseStream {
    */
   private final BlockingQueue<String> lineQueue = new LinkedBlockingQueue<String>();
 
+  private volatile ResponseStreamMonitor monitor;
+
   /**
    * Initializes a newly created response stream.
    *
@@ -103,6 +106,13 @@ public class ByteResponseStream implements ResponseStream {
   public void lastRequestProcessed() {
   }
 
+  /**
+   * Sets the monitor to report the taken messages to, may be {@code null}.
+   */
+  public void setMonitor(ResponseStreamMonitor monitor) {
+    this.monitor = monitor;
+  }
+
   @Override
   public JsonObject take() throws Exception {
     String line = lineQueue.take();
@@ -111,7 +121,13 @@ public class ByteResponseStream implements ResponseStream {
       return null;
     }
     try {
-      return (JsonObject) new JsonParser().parse(line);
+      JsonObject response = (JsonObject) new JsonParser().parse(line);
+      ResponseStreamMonitor monitor = this.monitor;
+      if (monitor != null) {
+        JsonElement event = response.get("event");
+        monitor.messageRead(event != null ? event.getAsString() : null, line.length(), lineQueue.size());
+      }
+      return response;
     } catch (JsonSyntaxException e) {
       // Include the line in the message so that we can better diagnose the problem
       throw new JsonSyntaxException("Parse server message failed: " + line, e);
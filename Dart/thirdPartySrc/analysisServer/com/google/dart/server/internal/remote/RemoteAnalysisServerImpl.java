@@ -554,7 +554,12 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
     // Analysis Domain
     //
     if (consumer instanceof UpdateContentConsumer) {
-      ((UpdateContentConsumer)consumer).onResponse();
+      if (requestError != null) {
+        ((UpdateContentConsumer)consumer).onError(requestError);
+      }
+      else {
+        ((UpdateContentConsumer)consumer).onResponse();
+      }
     }
     //
     // Completion Domain
@@ -684,6 +689,12 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
     requestSink = socket.getRequestSink();
     responseStream = socket.getResponseStream();
     errorStream = socket.getErrorStream();
+    if (responseStream instanceof StreamingResponseStream) {
+      StreamingResponseStream streamingResponseStream = (StreamingResponseStream)responseStream;
+      streamingResponseStream.setListener(listener);
+      // notifications are delivered inside take(), keep the response time fresh while they are
+      streamingResponseStream.setNotificationRunnable(() -> lastResponseTime.set(System.currentTimeMillis()));
+    }
     new ServerResponseReaderThread(responseStream).start();
     if (errorStream != null) {
       new ServerErrorReaderThread(errorStream, listener).start();
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2014, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.server.internal.remote;
+
+/**
+ * Receives statistics about the messages read by a {@link ResponseStream}. Called from the stream
+ * threads, so implementations must be thread-safe and fast.
+ *
+ * @coverage dart.server.remote
+ */
+public interface ResponseStreamMonitor {
+  /**
+   * Called for each JSON message read from the server.
+   *
+   * @param event the notification event name, or {@code null} if the message is a response
+   * @param size the length of the message line
+   * @param queueSize the number of messages read from the server but not yet processed
+   */
+  void messageRead(String event, int size, int queueSize);
+}
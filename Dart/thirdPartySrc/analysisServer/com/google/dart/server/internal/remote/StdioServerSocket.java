@@ -53,6 +53,17 @@ public class StdioServerSocket implements AnalysisServerSocket {
    */
   private String clientVersion;
 
+  /**
+   * {@code true} if the high-volume notifications should be decoded directly from the server
+   * output, see {@link StreamingResponseStream}.
+   */
+  private boolean streamingDecoding;
+
+  /**
+   * The monitor to report the messages read from the server to, may be {@code null}.
+   */
+  private ResponseStreamMonitor responseStreamMonitor;
+
   public StdioServerSocket(String runtimePath, List<String> additionalVmArguments,
       String analysisServerPath, List<String> additionalServerArguments,
       DebugPrintStream debugStream) {
@@ -109,6 +120,23 @@ public class StdioServerSocket implements AnalysisServerSocket {
     clientVersion = version;
   }
 
+  /**
+   * Set whether the high-volume analysis notifications should be decoded directly from the server
+   * output, without building intermediate JSON trees. Must be set before the server has been
+   * started.
+   */
+  public void setStreamingDecoding(boolean streamingDecoding) {
+    this.streamingDecoding = streamingDecoding;
+  }
+
+  /**
+   * Set the monitor to report the messages read from the server to. Must be set before the server
+   * has been started.
+   */
+  public void setResponseStreamMonitor(ResponseStreamMonitor monitor) {
+    this.responseStreamMonitor = monitor;
+  }
+
   @Override
   public void start() throws Exception {
     String[] arguments = computeProcessArguments();
@@ -128,7 +156,15 @@ public class StdioServerSocket implements AnalysisServerSocket {
     ProcessBuilder processBuilder = new ProcessBuilder(arguments);
     process = processBuilder.start();
     requestSink = new ByteRequestSink(process.getOutputStream(), debugStream);
-    responseStream = new ByteResponseStream(process.getInputStream(), debugStream, () -> requestSink.close());
+    if (streamingDecoding) {
+      StreamingResponseStream stream = new StreamingResponseStream(process.getInputStream(), debugStream, () -> requestSink.close());
+      stream.setMonitor(responseStreamMonitor);
+      responseStream = stream;
+    } else {
+      ByteResponseStream stream = new ByteResponseStream(process.getInputStream(), debugStream, () -> requestSink.close());
+      stream.setMonitor(responseStreamMonitor);
+      responseStream = stream;
+    }
     errorStream = new ByteLineReaderStream(process.getErrorStream());
   }
 
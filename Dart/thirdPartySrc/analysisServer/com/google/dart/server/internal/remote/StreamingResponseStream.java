@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2016, the Dart project authors.
+ *
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.server.internal.remote;
+
+import com.google.dart.server.AnalysisServerListener;
+import com.google.dart.server.internal.remote.processor.StreamingNotificationDecoder;
+import com.google.dart.server.internal.remote.processor.StreamingNotificationDecoder.DecodedNotification;
+import com.google.dart.server.utilities.logging.Logging;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An {@link InputStream} based implementation of {@link ResponseStream} which decodes the
+ * high-volume analysis notifications directly from the bytes of each line into protocol objects,
+ * see {@link StreamingNotificationDecoder}. Lines are read into a reused byte buffer, so no
+ * intermediate {@link String} is created for them. Each line must contain exactly one complete
+ * JSON object.
+ * <p>
+ * Decoded notifications are delivered to the listener set with {@link #setListener} from
+ * {@link #take()}, so that they are seen in the same order as all other responses. As {@link #take()}
+ * does not return for them, the runnable set with {@link #setNotificationRunnable} is run before
+ * each one, so that the server can still see that responses are coming.
+ *
+ * @coverage dart.server.remote
+ */
+public class StreamingResponseStream implements ResponseStream {
+  private class LinesReaderThread extends Thread {
+    public LinesReaderThread() {
+      setName("StreamingResponseStream.LinesReaderThread");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        boolean hasLine;
+        try {
+          hasLine = readLine();
+        } catch (IOException e) {
+          hasLine = false;
+        }
+        // check for EOF
+        if (!hasLine) {
+          queue.add(EOF);
+
+          if (onStreamEndRunnable != null) {
+            onStreamEndRunnable.run();
+          }
+
+          return;
+        }
+        // debug output
+        if (debugStream != null) {
+          debugStream.println(System.currentTimeMillis() + " <= " + new String(lineBytes, 0, lineLength, StandardCharsets.UTF_8));
+        }
+        // ignore non-JSON (debug) lines
+        if (lineLength == 0 || lineBytes[0] != '{') {
+          continue;
+        }
+        // add a decoded notification or a JSON object
+        Object item = decodeLine();
+        queue.add(item);
+        ResponseStreamMonitor monitor = StreamingResponseStream.this.monitor;
+        if (monitor != null) {
+          monitor.messageRead(getEvent(item), lineLength, queue.size());
+        }
+      }
+    }
+  }
+
+  private static final Object EOF = new Object();
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * A larger {@link #lineBytes} buffer left by an exceptionally long line is released before
+   * reading the next one.
+   */
+  private static final int MAX_RETAINED_LINE_SIZE = 1024 * 1024;
+
+  private final InputStream stream;
+
+  /**
+   * The {@link DebugPrintStream} to print all lines to.
+   */
+  private final DebugPrintStream debugStream;
+  private final Runnable onStreamEndRunnable;
+
+  private final StreamingNotificationDecoder decoder = new StreamingNotificationDecoder();
+
+  /**
+   * The raw bytes read from {@link #stream} and not yet split into lines.
+   */
+  private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+  private int readPosition;
+  private int readLimit;
+
+  /**
+   * The bytes of the current line, without the line terminator. Reused for all lines.
+   */
+  private byte[] lineBytes = new byte[READ_BUFFER_SIZE];
+  private int lineLength;
+
+  /**
+   * The queue of {@link JsonObject}s, {@link DecodedNotification}s and
+   * {@link JsonSyntaxException}s for the lines that could not be parsed.
+   */
+  private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+
+  private volatile AnalysisServerListener listener;
+
+  private volatile Runnable notificationRunnable;
+
+  private volatile ResponseStreamMonitor monitor;
+
+  /**
+   * Initializes a newly created response stream.
+   *
+   * @param stream the byte stream to read JSON strings from
+   * @param debugStream the {@link PrintStream} to print all lines to, may be {@code null}
+   */
+  public StreamingResponseStream(InputStream stream, DebugPrintStream debugStream, Runnable onStreamEndRunnable) {
+    this.stream = stream;
+    this.debugStream = debugStream;
+    this.onStreamEndRunnable = onStreamEndRunnable;
+    new LinesReaderThread().start();
+  }
+
+  @Override
+  public void lastRequestProcessed() {
+  }
+
+  /**
+   * Sets the listener to deliver the decoded notifications to.
+   */
+  public void setListener(AnalysisServerListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets the runnable to run before each decoded notification is delivered, may be {@code null}.
+   */
+  public void setNotificationRunnable(Runnable notificationRunnable) {
+    this.notificationRunnable = notificationRunnable;
+  }
+
+  /**
+   * Sets the monitor to report the read messages to, may be {@code null}.
+   */
+  public void setMonitor(ResponseStreamMonitor monitor) {
+    this.monitor = monitor;
+  }
+
+  @Override
+  public JsonObject take() throws Exception {
+    while (true) {
+      Object item = queue.take();
+      if (item == EOF) {
+        queue.add(item);
+        return null;
+      }
+      if (item instanceof DecodedNotification) {
+        Runnable notificationRunnable = this.notificationRunnable;
+        if (notificationRunnable != null) {
+          notificationRunnable.run();
+        }
+        AnalysisServerListener listener = this.listener;
+        if (listener != null) {
+          try {
+            ((DecodedNotification)item).dispatch(listener);
+          } catch (Throwable e) {
+            // a failing listener must not make take() lose the responses queued after the notification
+            Logging.getLogger().logError("Failed to process a notification", e);
+          }
+        }
+        continue;
+      }
+      if (item instanceof JsonSyntaxException) {
+        throw (JsonSyntaxException)item;
+      }
+      return (JsonObject)item;
+    }
+  }
+
+  private Object decodeLine() {
+    try {
+      DecodedNotification notification = decoder.decode(() -> new JsonReader(newLineReader()));
+      if (notification != null) {
+        return notification;
+      }
+    }
+    catch (IOException e) {
+      // fall back to the full parse below, which reports the problem
+    }
+    catch (RuntimeException e) {
+      // fall back to the full parse below, which reports the problem
+    }
+    try {
+      return new JsonParser().parse(newLineReader()).getAsJsonObject();
+    } catch (JsonParseException e) {
+      // Include the line in the message so that we can better diagnose the problem.
+      // The exception is rethrown from take(), so that this thread continues reading.
+      String line = new String(lineBytes, 0, lineLength, StandardCharsets.UTF_8);
+      return new JsonSyntaxException("Parse server message failed: " + line, e);
+    }
+  }
+
+  private String getEvent(Object item) {
+    if (item instanceof DecodedNotification) {
+      return decoder.getLastEvent();
+    }
+    if (item instanceof JsonObject) {
+      JsonElement event = ((JsonObject)item).get("event");
+      return event != null ? event.getAsString() : null;
+    }
+    return null;
+  }
+
+  private Reader newLineReader() {
+    return new InputStreamReader(new ByteArrayInputStream(lineBytes, 0, lineLength), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the next line into {@link #lineBytes}. Returns {@code false} if the end of the stream is
+   * reached and there are no more lines.
+   */
+  private boolean readLine() throws IOException {
+    if (lineBytes.length > MAX_RETAINED_LINE_SIZE) {
+      lineBytes = new byte[READ_BUFFER_SIZE];
+    }
+    lineLength = 0;
+    boolean hasData = false;
+    while (true) {
+      if (readPosition == readLimit) {
+        readLimit = stream.read(readBuffer, 0, readBuffer.length);
+        readPosition = 0;
+        if (readLimit <= 0) {
+          readLimit = 0;
+          return hasData;
+        }
+      }
+      hasData = true;
+      int start = readPosition;
+      while (readPosition < readLimit && readBuffer[readPosition] != '\n') {
+        readPosition++;
+      }
+      appendToLine(start, readPosition);
+      if (readPosition < readLimit) {
+        // skip '\n' and a preceding '\r'
+        readPosition++;
+        if (lineLength > 0 && lineBytes[lineLength - 1] == '\r') {
+          lineLength--;
+        }
+        return true;
+      }
+    }
+  }
+
+  private void appendToLine(int start, int end) {
+    int count = end - start;
+    if (lineLength + count > lineBytes.length) {
+      byte[] newLineBytes = new byte[Math.max(lineBytes.length * 2, lineLength + count)];
+      System.arraycopy(lineBytes, 0, newLineBytes, 0, lineLength);
+      lineBytes = newLineBytes;
+    }
+    System.arraycopy(readBuffer, start, lineBytes, lineLength, count);
+    lineLength += count;
+  }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2016, the Dart project authors.
+ *
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.server.internal.remote.processor;
+
+import com.google.common.collect.Lists;
+import com.google.dart.server.AnalysisServerListener;
+import com.google.dart.server.utilities.general.StringUtilities;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.dartlang.analysis.server.protocol.AnalysisError;
+import org.dartlang.analysis.server.protocol.HighlightRegion;
+import org.dartlang.analysis.server.protocol.Location;
+import org.dartlang.analysis.server.protocol.NavigationRegion;
+import org.dartlang.analysis.server.protocol.NavigationTarget;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Decodes the high-volume "analysis.highlights", "analysis.navigation" and "analysis.errors"
+ * notifications straight from a {@link JsonReader} into protocol objects, without building an
+ * intermediate {@link com.google.gson.JsonObject} tree. Other messages are left to the
+ * {@link NotificationProcessor}s.
+ * <p>
+ * Instances are not thread-safe, each response stream should use its own decoder.
+ *
+ * @coverage dart.server.remote
+ */
+public class StreamingNotificationDecoder {
+  /**
+   * A notification decoded by {@link StreamingNotificationDecoder}, ready to be delivered to an
+   * {@link AnalysisServerListener}.
+   */
+  public interface DecodedNotification {
+    void dispatch(AnalysisServerListener listener);
+  }
+
+  private static final String ANALYSIS_NOTIFICATION_ERRORS = "analysis.errors";
+  private static final String ANALYSIS_NOTIFICATION_HIGHLIGHTS = "analysis.highlights";
+  private static final String ANALYSIS_NOTIFICATION_NAVIGATION = "analysis.navigation";
+
+  /**
+   * Canonical instances of the small set of repeating strings (highlight types, element kinds,
+   * error severities and codes), so that decoded regions do not retain a copy each.
+   */
+  private final Map<String, String> names = new HashMap<String, String>();
+
+  private String lastEvent;
+
+  /**
+   * Attempts to decode the message read by the readers from the given supplier, each reader reads
+   * the message from its start. Returns {@code null} if the message is not one of the supported
+   * notifications; in this case the caller should parse the message again in the usual way.
+   * <p>
+   * The "event" key may be anywhere in the message. If "params" come before it, they are skipped
+   * and decoded by a second reader once the event is known.
+   */
+  public DecodedNotification decode(Supplier<JsonReader> readers) throws IOException {
+    lastEvent = null;
+    JsonReader reader = readers.get();
+    reader.beginObject();
+    boolean paramsSkipped = false;
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("event".equals(name)) {
+        if (reader.peek() != JsonToken.STRING) {
+          return null;
+        }
+        lastEvent = reader.nextString();
+        if (!isDecodedEvent(lastEvent)) {
+          return null;
+        }
+        if (paramsSkipped) {
+          return decodeParamsAgain(readers.get(), lastEvent);
+        }
+      }
+      else if ("params".equals(name)) {
+        if (lastEvent != null) {
+          return decodeParams(reader, lastEvent);
+        }
+        reader.skipValue();
+        paramsSkipped = true;
+      }
+      else if ("id".equals(name)) {
+        // a response, not a notification; don't scan its result
+        return null;
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    return null;
+  }
+
+  private static boolean isDecodedEvent(String event) {
+    return ANALYSIS_NOTIFICATION_HIGHLIGHTS.equals(event) ||
+           ANALYSIS_NOTIFICATION_NAVIGATION.equals(event) ||
+           ANALYSIS_NOTIFICATION_ERRORS.equals(event);
+  }
+
+  private DecodedNotification decodeParamsAgain(JsonReader reader, String event) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("params".equals(reader.nextName())) {
+        return decodeParams(reader, event);
+      }
+      reader.skipValue();
+    }
+    return null;
+  }
+
+  private DecodedNotification decodeParams(JsonReader reader, String event) throws IOException {
+    if (ANALYSIS_NOTIFICATION_HIGHLIGHTS.equals(event)) {
+      return decodeHighlights(reader);
+    }
+    if (ANALYSIS_NOTIFICATION_NAVIGATION.equals(event)) {
+      return decodeNavigation(reader);
+    }
+    return decodeErrors(reader);
+  }
+
+  /**
+   * Returns the event name of the notification passed to the last {@link #decode} call, or
+   * {@code null} if the message was not a notification.
+   */
+  public String getLastEvent() {
+    return lastEvent;
+  }
+
+  private DecodedNotification decodeErrors(JsonReader reader) throws IOException {
+    String file = null;
+    List<AnalysisError> errors = AnalysisError.EMPTY_LIST;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      }
+      else if ("errors".equals(name)) {
+        errors = Lists.newArrayList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          errors.add(readError(reader));
+        }
+        reader.endArray();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    final String finalFile = file;
+    final List<AnalysisError> finalErrors = errors;
+    return listener -> listener.computedErrors(finalFile, finalErrors);
+  }
+
+  private DecodedNotification decodeHighlights(JsonReader reader) throws IOException {
+    String file = null;
+    List<HighlightRegion> regions = HighlightRegion.EMPTY_LIST;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      }
+      else if ("regions".equals(name)) {
+        regions = Lists.newArrayList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          regions.add(readHighlightRegion(reader));
+        }
+        reader.endArray();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    final String finalFile = file;
+    final List<HighlightRegion> finalRegions = regions;
+    return listener -> listener.computedHighlights(finalFile, finalRegions);
+  }
+
+  private DecodedNotification decodeNavigation(JsonReader reader) throws IOException {
+    String file = null;
+    String[] targetFiles = StringUtilities.EMPTY_ARRAY;
+    List<NavigationTarget> targets = NavigationTarget.EMPTY_LIST;
+    List<NavigationRegion> regions = NavigationRegion.EMPTY_LIST;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      }
+      else if ("files".equals(name)) {
+        List<String> files = Lists.newArrayList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          files.add(reader.nextString());
+        }
+        reader.endArray();
+        targetFiles = files.toArray(new String[files.size()]);
+      }
+      else if ("targets".equals(name)) {
+        targets = Lists.newArrayList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          targets.add(readNavigationTarget(reader));
+        }
+        reader.endArray();
+      }
+      else if ("regions".equals(name)) {
+        regions = Lists.newArrayList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          regions.add(readNavigationRegion(reader));
+        }
+        reader.endArray();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    // "files" and "targets" may come in any order, so resolve references only now
+    for (NavigationTarget target : targets) {
+      target.lookupFile(targetFiles);
+    }
+    for (NavigationRegion region : regions) {
+      region.lookupTargets(targets);
+    }
+    final String finalFile = file;
+    final List<NavigationRegion> finalRegions = regions;
+    return listener -> listener.computedNavigation(finalFile, finalRegions);
+  }
+
+  private String canonicalName(String name) {
+    String existing = names.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    names.put(name, name);
+    return name;
+  }
+
+  private AnalysisError readError(JsonReader reader) throws IOException {
+    String severity = null;
+    String type = null;
+    Location location = null;
+    String message = null;
+    String correction = null;
+    String code = null;
+    Boolean hasFix = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("severity".equals(name)) {
+        severity = canonicalName(reader.nextString());
+      }
+      else if ("type".equals(name)) {
+        type = canonicalName(reader.nextString());
+      }
+      else if ("location".equals(name)) {
+        location = readLocation(reader);
+      }
+      else if ("message".equals(name)) {
+        message = reader.nextString();
+      }
+      else if ("correction".equals(name)) {
+        correction = reader.nextString();
+      }
+      else if ("code".equals(name)) {
+        code = canonicalName(reader.nextString());
+      }
+      else if ("hasFix".equals(name)) {
+        hasFix = reader.nextBoolean();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new AnalysisError(severity, type, location, message, correction, code, hasFix);
+  }
+
+  private HighlightRegion readHighlightRegion(JsonReader reader) throws IOException {
+    String type = null;
+    int offset = 0;
+    int length = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("type".equals(name)) {
+        type = canonicalName(reader.nextString());
+      }
+      else if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      }
+      else if ("length".equals(name)) {
+        length = reader.nextInt();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new HighlightRegion(type, offset, length);
+  }
+
+  private Location readLocation(JsonReader reader) throws IOException {
+    String file = null;
+    int offset = 0;
+    int length = 0;
+    int startLine = 0;
+    int startColumn = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      }
+      else if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      }
+      else if ("length".equals(name)) {
+        length = reader.nextInt();
+      }
+      else if ("startLine".equals(name)) {
+        startLine = reader.nextInt();
+      }
+      else if ("startColumn".equals(name)) {
+        startColumn = reader.nextInt();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new Location(file, offset, length, startLine, startColumn);
+  }
+
+  private NavigationRegion readNavigationRegion(JsonReader reader) throws IOException {
+    int offset = 0;
+    int length = 0;
+    int[] targets = new int[0];
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      }
+      else if ("length".equals(name)) {
+        length = reader.nextInt();
+      }
+      else if ("targets".equals(name)) {
+        targets = readIntArray(reader);
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new NavigationRegion(offset, length, targets);
+  }
+
+  private NavigationTarget readNavigationTarget(JsonReader reader) throws IOException {
+    String kind = null;
+    int fileIndex = 0;
+    int offset = 0;
+    int length = 0;
+    int startLine = 0;
+    int startColumn = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("kind".equals(name)) {
+        kind = canonicalName(reader.nextString());
+      }
+      else if ("fileIndex".equals(name)) {
+        fileIndex = reader.nextInt();
+      }
+      else if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      }
+      else if ("length".equals(name)) {
+        length = reader.nextInt();
+      }
+      else if ("startLine".equals(name)) {
+        startLine = reader.nextInt();
+      }
+      else if ("startColumn".equals(name)) {
+        startColumn = reader.nextInt();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new NavigationTarget(kind, fileIndex, offset, length, startLine, startColumn);
+  }
+
+  private static int[] readIntArray(JsonReader reader) throws IOException {
+    int[] ints = new int[4];
+    int size = 0;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (size == ints.length) {
+        int[] newInts = new int[size * 2];
+        System.arraycopy(ints, 0, newInts, 0, size);
+        ints = newInts;
+      }
+      ints[size++] = reader.nextInt();
+    }
+    reader.endArray();
+    if (size == ints.length) {
+      return ints;
+    }
+    int[] result = new int[size];
+    System.arraycopy(ints, 0, result, 0, size);
+    return result;
+  }
+}
@@ -7,7 +7,11 @@ import com.intellij.lang.javascript.psi.stubs.impl.JSFileCachedData;
 import com.intellij.lang.javascript.psi.stubs.impl.JSFileStubImpl;
 import com.intellij.lang.javascript.types.JSFileElementType;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.stubs.BinaryFileStubBuilder;
 import com.intellij.psi.stubs.PsiFileStub;
@@ -16,14 +20,13 @@ import com.intellij.psi.stubs.StubElement;
 import com.intellij.util.indexing.FileContent;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayInputStream;
-
 /**
  * @author Maxim.Mossienko
  *         Date: Sep 18, 2008
  *         Time: 3:49:24 PM
  */
 public class SwfFileStubBuilder implements BinaryFileStubBuilder {
+  private static final Logger LOG = Logger.getInstance(SwfFileStubBuilder.class.getName());
   private static final int VERSION = 2;
 
   public boolean acceptsFile(@NotNull final VirtualFile file) {
@@ -36,22 +39,63 @@ public class SwfFileStubBuilder implements BinaryFileStubBuilder {
   }
 
   static PsiFileStub buildFileStub(VirtualFile file, byte[] content) {
+    final long start = System.nanoTime();
+    final SwfStubCache cache = isCacheable(file) ? SwfStubCache.getInstance(getVersion()) : null;
+    final String key = cache == null ? null : SwfStubCache.getKey(content);
+
+    if (key != null) {
+      final PsiFileStub cachedStub = cache.get(key);
+      if (cachedStub != null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(file.getPath() + ": stubs loaded from cache in " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return cachedStub;
+      }
+    }
+
     PsiFileStubImpl stub = new JSFileStubImpl(JavaScriptSupportLoader.ECMA_SCRIPT_L4, new JSFileCachedData());
     try {
 
-      FlexImporter.buildStubsInterfaceFromStream(
-        new ByteArrayInputStream(content),
-        stub
-      );
+      FlexImporter.buildStubsInterface(content, stub);
 
     } catch (Exception ex) {
-      Logger.getInstance(SwfFileStubBuilder.class.getName()).warn(file.getPath(), ex);
+      LOG.warn(file.getPath(), ex);
+      return stub;
     }
 
+    if (key != null) {
+      cache.put(key, stub);
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(file.getPath() + ": stubs built in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
     return stub;
   }
 
+  /**
+   * SWCs in project content, build output included, change with every build and would only fill the cache with stale stubs.
+   */
+  private static boolean isCacheable(@NotNull final VirtualFile file) {
+    final VirtualFile swc = JarFileSystem.getInstance().getVirtualFileForJar(file);
+    if (swc == null) return false;
+
+    for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+      if (project.isDisposed()) continue;
+      final VirtualFile baseDir = project.getBaseDir();
+      if (baseDir != null && VfsUtilCore.isAncestor(baseDir, swc, false) ||
+          ProjectRootManager.getInstance(project).getFileIndex().getContentRootForFile(swc, false) != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public int getStubVersion() {
+    return getVersion();
+  }
+
+  private static int getVersion() {
     return JSFileElementType.getVersion() + VERSION;
   }
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.intellij.javascript.flex.compiled;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.stubs.PsiFileStub;
+import com.intellij.psi.stubs.SerializationManagerEx;
+import com.intellij.psi.stubs.Stub;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stubs built from SWF files, stored on disk by the SHA-1 of the content. SDK and library SWCs don't change, so when they are
+ * re-indexed their stubs are deserialized instead of decoding the SWFs again. Only SWFs outside of the project content are cached,
+ * see {@link SwfFileStubBuilder}.
+ * <p>
+ * Serialized stubs refer to serializer ids of the stub index, so the cache is kept in the index root and is deleted with it,
+ * "Invalidate Caches" decodes everything again. Entries are never removed one by one, the whole cache is dropped when it grows to
+ * {@link #MAX_ENTRIES} SWFs, so that stubs of replaced library versions don't pile up.
+ */
+class SwfStubCache {
+  private static final Logger LOG = Logger.getInstance(SwfStubCache.class.getName());
+
+  private static final String VERSION_VALUE_NAME = "flex.swf.stub.cache.version";
+  private static final String ENTRIES_VALUE_NAME = "flex.swf.stub.cache.entries";
+  private static final int MAX_ENTRIES = 5000;
+
+  private static SwfStubCache ourInstance;
+  private static boolean ourInitialized;
+
+  @NotNull private final File myFile;
+  // replaced when the cache is dropped, guarded by this
+  @Nullable private PersistentHashMap<String, byte[]> myStubs;
+  private int myEntryCount;
+
+  private SwfStubCache(@NotNull final File file, @NotNull final PersistentHashMap<String, byte[]> stubs, final int entryCount) {
+    myFile = file;
+    myStubs = stubs;
+    myEntryCount = entryCount;
+  }
+
+  /**
+   * @return <code>null</code> if the cache can't be opened
+   */
+  @Nullable
+  static synchronized SwfStubCache getInstance(final int stubVersion) {
+    if (!ourInitialized) {
+      ourInitialized = true;
+      final File file = new File(PathManager.getIndexRoot(), "flex.swf.stubs/stubs");
+
+      final PropertiesComponent propertiesComponent = PropertiesComponent.getInstance();
+      final String version = String.valueOf(stubVersion);
+      if (!version.equals(propertiesComponent.getValue(VERSION_VALUE_NAME))) {
+        IOUtil.deleteAllFilesStartingWith(file);
+        propertiesComponent.setValue(VERSION_VALUE_NAME, version);
+        propertiesComponent.setValue(ENTRIES_VALUE_NAME, "0");
+      }
+      int entryCount = StringUtil.parseInt(propertiesComponent.getValue(ENTRIES_VALUE_NAME), 0);
+
+      PersistentHashMap<String, byte[]> stubs;
+      try {
+        stubs = createMap(file);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        IOUtil.deleteAllFilesStartingWith(file);
+        entryCount = 0;
+        try {
+          stubs = createMap(file);
+        }
+        catch (IOException e1) {
+          LOG.warn(e1);
+          return null;
+        }
+      }
+
+      ourInstance = new SwfStubCache(file, stubs, entryCount);
+      Disposer.register(ApplicationManager.getApplication(), () -> ourInstance.close());
+    }
+    return ourInstance;
+  }
+
+  private static PersistentHashMap<String, byte[]> createMap(@NotNull final File file) throws IOException {
+    return new PersistentHashMap<>(file, EnumeratorStringDescriptor.INSTANCE, new DataExternalizer<byte[]>() {
+      @Override
+      public void save(@NotNull final DataOutput out, final byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+      }
+
+      @Override
+      public byte[] read(@NotNull final DataInput in) throws IOException {
+        final byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+        return value;
+      }
+    });
+  }
+
+  @Nullable
+  static String getKey(@NotNull final byte[] content) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+      final StringBuilder builder = new StringBuilder(digest.length * 2 + 12);
+      for (byte b : digest) {
+        builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return builder.append('_').append(content.length).toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      LOG.warn(e);
+      return null;
+    }
+  }
+
+  @Nullable
+  PsiFileStub get(@NotNull final String key) {
+    try {
+      final byte[] bytes;
+      synchronized (this) {
+        if (myStubs == null) return null;
+        bytes = myStubs.get(key);
+      }
+      if (bytes == null) return null;
+
+      final Stub stub = SerializationManagerEx.getInstanceEx().deserialize(new ByteArrayInputStream(bytes));
+      return stub instanceof PsiFileStub ? (PsiFileStub)stub : null;
+    }
+    catch (Exception e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  void put(@NotNull final String key, @NotNull final PsiFileStub stub) {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      SerializationManagerEx.getInstanceEx().serialize(stub, out);
+      synchronized (this) {
+        if (myEntryCount >= MAX_ENTRIES) {
+          drop();
+        }
+        if (myStubs == null) return;
+
+        myStubs.put(key, out.toByteArray());
+        PropertiesComponent.getInstance().setValue(ENTRIES_VALUE_NAME, String.valueOf(++myEntryCount));
+      }
+    }
+    catch (Exception e) {
+      LOG.info(e);
+    }
+  }
+
+  private void drop() {
+    close();
+    IOUtil.deleteAllFilesStartingWith(myFile);
+    myEntryCount = 0;
+    try {
+      myStubs = createMap(myFile);
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+    }
+  }
+
+  private synchronized void close() {
+    if (myStubs == null) return;
+    try {
+      myStubs.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    myStubs = null;
+  }
+}
@@ -17,6 +17,8 @@ import com.intellij.openapi.util.NullableComputable;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
@@ -35,6 +37,18 @@ public class FlexCompilationManager {
   private boolean myCompilationFinished;
   private final FlexCompilerDependenciesCache myCompilerDependenciesCache;
 
+  // lengths of the longest dependency chains starting at the tasks, in expected milliseconds
+  private final Map<FlexCompilationTask, Long> myCriticalPathLengths = new THashMap<>();
+  private final Map<FlexCompilationTask, Long> myStartTimes = new THashMap<>();
+
+  private final Object myTaskFinishedLock = new Object();
+  private boolean myTaskFinished;
+
+  // compile() doesn't wait longer than that in order to notice cancellation
+  private static final int CANCELLATION_CHECK_PERIOD = 200;
+  // expected compilation time of a BC if none has been compiled in this IDE session yet, otherwise the average of known times is used
+  private static final long DEFAULT_COMPILATION_TIME = 1000;
+
   static final Pattern OUTPUT_FILE_CREATED_PATTERN = Pattern.compile("(\\[.*\\] )?(.+) \\(([0-9]+) bytes\\)");
   private static final String BYTES_WRITTEN_TO = " bytes written to ";
 
@@ -47,6 +61,7 @@ public class FlexCompilationManager {
     myFinishedTasks = new LinkedList<>();
     myCompilationFinished = false;
     myCompilerDependenciesCache = FlexCompilerHandler.getInstance(context.getProject()).getCompilerDependenciesCache();
+    computeCriticalPathLengths(compilationTasks);
   }
 
   public void compile() {
@@ -64,13 +79,7 @@ public class FlexCompilationManager {
         startNewTaskIfPossible();
         updateProgressIndicator();
 
-        try {
-          //noinspection BusyWait
-          Thread.sleep(200);
-        }
-        catch (InterruptedException e) {
-          assert false;
-        }
+        waitForFinishedTask();
       }
     }
     finally {
@@ -132,6 +141,30 @@ public class FlexCompilationManager {
     }
   }
 
+  /**
+   * Called by a started task when it is finished, wakes up {@link #compile()} so that it starts the next task without delay.
+   */
+  void taskFinished() {
+    synchronized (myTaskFinishedLock) {
+      myTaskFinished = true;
+      myTaskFinishedLock.notifyAll();
+    }
+  }
+
+  private void waitForFinishedTask() {
+    synchronized (myTaskFinishedLock) {
+      if (!myTaskFinished) {
+        try {
+          myTaskFinishedLock.wait(CANCELLATION_CHECK_PERIOD);
+        }
+        catch (InterruptedException e) {
+          assert false;
+        }
+      }
+      myTaskFinished = false;
+    }
+  }
+
   public boolean isRebuild() {
     return !myCompileContext.isMake();
   }
@@ -144,6 +177,11 @@ public class FlexCompilationManager {
         iterator.remove();
         myFinishedTasks.add(task);
 
+        final Long startTime = myStartTimes.remove(task);
+        if (startTime != null && !task.isCompilationFailed()) {
+          myCompilerDependenciesCache.rememberCompilationTime(task.getModule(), task.getBC(), System.currentTimeMillis() - startTime);
+        }
+
         if (task.isCompilationFailed()) {
           final Collection<FlexCompilationTask> cancelledTasks = cancelNotStartedDependentTasks(task);
           if (cancelledTasks.isEmpty()) {
@@ -239,6 +277,10 @@ public class FlexCompilationManager {
     }
   }
 
+  /**
+   * Of the tasks that can be started, starts the one with the longest chain of dependent tasks first, so that long chains don't
+   * become the tail of the build.
+   */
   private void startNewTaskIfPossible() {
     FlexCompilationTask taskToStart = null;
 
@@ -260,8 +302,9 @@ public class FlexCompilationManager {
           continue;
         }
 
-        taskToStart = task;
-        break;
+        if (taskToStart == null || myCriticalPathLengths.get(task) > myCriticalPathLengths.get(taskToStart)) {
+          taskToStart = task;
+        }
       }
 
       if (taskToStart == null && allTasksHaveDependenciesOnlyInNotStarted) {
@@ -285,6 +328,7 @@ public class FlexCompilationManager {
           }
         }
         else {
+          myStartTimes.put(taskToStart, System.currentTimeMillis());
           taskToStart.start(this);
           myInProgressTasks.add(taskToStart);
         }
@@ -309,6 +353,67 @@ public class FlexCompilationManager {
     return false;
   }
 
+  private void computeCriticalPathLengths(final Collection<FlexCompilationTask> tasks) {
+    long knownTimesSum = 0;
+    int knownTimesCount = 0;
+    final Map<FlexCompilationTask, Long> expectedTimes = new THashMap<>();
+    for (FlexCompilationTask task : tasks) {
+      final long time = myCompilerDependenciesCache.getLastCompilationTime(task.getModule(), task.getBC());
+      if (time >= 0) {
+        expectedTimes.put(task, time);
+        knownTimesSum += time;
+        knownTimesCount++;
+      }
+    }
+
+    final long defaultTime = knownTimesCount == 0 ? DEFAULT_COMPILATION_TIME : knownTimesSum / knownTimesCount;
+    for (FlexCompilationTask task : tasks) {
+      if (!expectedTimes.containsKey(task)) {
+        expectedTimes.put(task, defaultTime);
+      }
+    }
+
+    final Set<FlexCompilationTask> inProgress = new THashSet<>();
+    for (FlexCompilationTask task : tasks) {
+      computeCriticalPathLength(task, tasks, expectedTimes, inProgress);
+    }
+  }
+
+  private long computeCriticalPathLength(final FlexCompilationTask task,
+                                         final Collection<FlexCompilationTask> tasks,
+                                         final Map<FlexCompilationTask, Long> expectedTimes,
+                                         final Set<FlexCompilationTask> inProgress) {
+    final Long cached = myCriticalPathLengths.get(task);
+    if (cached != null) return cached;
+    if (!inProgress.add(task)) return 0; // cyclic dependencies
+
+    long longestDependentPath = 0;
+    for (FlexCompilationTask otherTask : tasks) {
+      if (otherTask != task && dependsOn(otherTask, task)) {
+        longestDependentPath = Math.max(longestDependentPath, computeCriticalPathLength(otherTask, tasks, expectedTimes, inProgress));
+      }
+    }
+
+    inProgress.remove(task);
+    final long result = expectedTimes.get(task) + longestDependentPath;
+    myCriticalPathLengths.put(task, result);
+    return result;
+  }
+
+  private static boolean dependsOn(final FlexCompilationTask task, final FlexCompilationTask dependency) {
+    //noinspection ConstantConditions
+    if (task.getDependencies().contains(dependency.getBC())) return true;
+
+    // RLM is compiled after the main app, see isMainAppCompiledForRLM()
+    final FlexBuildConfiguration bc = task.getBC();
+    final FlexBuildConfiguration dependencyBC = dependency.getBC();
+    return BCUtils.isRLMTemporaryBC(bc) &&
+           task.getModule() == dependency.getModule() &&
+           bc.getName().equals(dependencyBC.getName()) &&
+           !BCUtils.isRLMTemporaryBC(dependencyBC) &&
+           !BCUtils.isRuntimeStyleSheetBC(dependencyBC);
+  }
+
   private static boolean hasDependenciesIn(final FlexCompilationTask task,
                                            final Collection<FlexCompilationTask> tasksToSearchDependencies) {
     for (final FlexCompilationTask otherTask : tasksToSearchDependencies) {
@@ -22,8 +22,9 @@ public abstract class FlexCompilationTask {
 
   private List<VirtualFile> myConfigFiles;
 
-  protected boolean myFinished;
-  protected boolean myCompilationFailed;
+  private volatile boolean myFinished;
+  protected volatile boolean myCompilationFailed;
+  private volatile FlexCompilationManager myCompilationManager;
 
   protected FlexCompilationTask(final Module module,
                                 final FlexBuildConfiguration bc,
@@ -42,6 +43,7 @@ public abstract class FlexCompilationTask {
   }
 
   public void start(final FlexCompilationManager compilationManager) {
+    myCompilationManager = compilationManager;
     try {
       myConfigFiles = createConfigFiles();
       final String outputFilePath = myBC.getActualOutputFilePath();
@@ -82,7 +84,16 @@ public abstract class FlexCompilationTask {
 
   public void cancel() {
     doCancel();
+    setFinished();
+  }
+
+  protected void setFinished() {
     myFinished = true;
+
+    final FlexCompilationManager compilationManager = myCompilationManager;
+    if (compilationManager != null) {
+      compilationManager.taskFinished();
+    }
   }
 
   protected abstract void doCancel();
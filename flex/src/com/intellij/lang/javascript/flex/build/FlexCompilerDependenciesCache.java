@@ -27,6 +27,8 @@ public class FlexCompilerDependenciesCache {
 
   private final Project myProject;
   private final Map<Module, Collection<BCInfo>> myCache = new THashMap<>();
+  // survives clear(): compilation times are still a good estimate after sources change
+  private final Map<Module, Map<String, Long>> myCompilationTimes = new THashMap<>();
 
   private static final String[] TAGS_FOR_FILE_PATHS_IN_CONFIG_FILE =
     {"<flex-config><compiler><external-library-path><path-element>", "<flex-config><compiler><local-font-paths><path-element>",
@@ -47,6 +49,7 @@ public class FlexCompilerDependenciesCache {
     project.getMessageBus().connect(project).subscribe(ProjectTopics.MODULES, new ModuleListener() {
       public void moduleRemoved(@NotNull final Project project, @NotNull final Module module) {
         myCache.remove(module);
+        myCompilationTimes.remove(module);
       }
     });
   }
@@ -147,6 +150,24 @@ public class FlexCompilerDependenciesCache {
     }
   }
 
+  public void rememberCompilationTime(final Module module, final FlexBuildConfiguration bc, final long millis) {
+    Map<String, Long> timesForModule = myCompilationTimes.get(module);
+    if (timesForModule == null) {
+      timesForModule = new THashMap<>();
+      myCompilationTimes.put(module, timesForModule);
+    }
+    timesForModule.put(FlexCompilationTask.getPresentableName(module, bc), millis);
+  }
+
+  /**
+   * @return duration of the last successful compilation of this BC in this IDE session, or -1 if unknown
+   */
+  public long getLastCompilationTime(final Module module, final FlexBuildConfiguration bc) {
+    final Map<String, Long> timesForModule = myCompilationTimes.get(module);
+    final Long millis = timesForModule == null ? null : timesForModule.get(FlexCompilationTask.getPresentableName(module, bc));
+    return millis == null ? -1 : millis;
+  }
+
   @Nullable
   private static BCInfo findCacheForBC(final @NotNull Collection<BCInfo> bcInfos, @NotNull final FlexBuildConfiguration bc) {
     return ContainerUtil.find(bcInfos, info -> info.myBC.isEqual(bc));
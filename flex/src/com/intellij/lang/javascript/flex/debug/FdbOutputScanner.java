@@ -0,0 +1,199 @@
+package com.intellij.lang.javascript.flex.debug;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Splits fdb output into chunks ended by the fdb prompt or by a yes/no question. The markers are found by an Aho-Corasick
+ * automaton while the text is appended, so each char is looked at once however long the output without a marker is
+ * (e.g. when the player floods trace output), and a marker split between two reads is found too.
+ * <p>
+ * Consumed text is not deleted from the buffer, the unconsumed tail is moved to its start only when the buffer is full.
+ */
+class FdbOutputScanner {
+  @NonNls static final String FDB_MARKER = "(fdb) ";
+  @NonNls static final String YES_NO_MARKER = "(y or n)";
+  @NonNls static final String WAITING_PLAYER_MARKER_1 = "Waiting for Player to connect";
+  @NonNls static final String WAITING_PLAYER_MARKER_2 = "Trying to connect to Player";
+
+  private static final String[] MARKERS = {FDB_MARKER, YES_NO_MARKER, WAITING_PLAYER_MARKER_1, WAITING_PLAYER_MARKER_2};
+  private static final int PROMPT_MARKER_COUNT = 2; // the first two markers end a chunk
+
+  private static final int INITIAL_CAPACITY = 8192;
+  private static final int ALPHABET_SIZE = 128; // markers are ASCII, other chars reset the automaton
+  private static final int[][] ourTransitions;
+  private static final int[] ourMatchedMarker; // index in MARKERS of the marker ending in the state, -1 if none
+
+  static {
+    int stateCount = 1;
+    for (String marker : MARKERS) {
+      stateCount += marker.length();
+    }
+
+    final int[][] transitions = new int[stateCount][ALPHABET_SIZE];
+    final int[] matched = new int[stateCount];
+    for (int[] row : transitions) {
+      Arrays.fill(row, -1);
+    }
+    Arrays.fill(matched, -1);
+
+    int nextState = 1;
+    for (int i = 0; i < MARKERS.length; i++) {
+      int state = 0;
+      for (char c : MARKERS[i].toCharArray()) {
+        if (transitions[state][c] == -1) {
+          transitions[state][c] = nextState++;
+        }
+        state = transitions[state][c];
+      }
+      matched[state] = i;
+    }
+
+    // breadth-first: fill the missing transitions through the failure links, so that each char is one table lookup
+    final int[] failure = new int[stateCount];
+    final ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int c = 0; c < ALPHABET_SIZE; c++) {
+      if (transitions[0][c] == -1) {
+        transitions[0][c] = 0;
+      }
+      else {
+        queue.add(transitions[0][c]);
+      }
+    }
+    while (!queue.isEmpty()) {
+      final int state = queue.poll();
+      if (matched[state] == -1) matched[state] = matched[failure[state]];
+      for (int c = 0; c < ALPHABET_SIZE; c++) {
+        final int next = transitions[state][c];
+        if (next == -1) {
+          transitions[state][c] = transitions[failure[state]][c];
+        }
+        else {
+          failure[next] = transitions[failure[state]][c];
+          queue.add(next);
+        }
+      }
+    }
+
+    ourTransitions = transitions;
+    ourMatchedMarker = matched;
+  }
+
+  private char[] myBuffer = new char[INITIAL_CAPACITY];
+  // offset of myBuffer[0] in the whole output, so that found markers don't have to be updated when the buffer is compacted
+  private long myBufferOffset;
+  private int myStart;
+  private int myEnd;
+  private int myState;
+
+  // start and end offsets in the whole output of the found prompt markers
+  private final ArrayDeque<long[]> myPromptMarkers = new ArrayDeque<>();
+  private volatile boolean myHasPromptMarker;
+  private long myWaitingMarkerEnd = -1;
+  private boolean myLastChunkEndedWithMarker;
+
+  void append(@NotNull final char[] chars, final int offset, final int length) {
+    ensureCapacity(length);
+
+    final int[][] transitions = ourTransitions;
+    int state = myState;
+    for (int i = 0; i < length; i++) {
+      final char c = chars[offset + i];
+      myBuffer[myEnd + i] = c;
+      state = c < ALPHABET_SIZE ? transitions[state][c] : 0;
+
+      final int marker = ourMatchedMarker[state];
+      if (marker != -1) {
+        final long end = myBufferOffset + myEnd + i + 1;
+        if (marker < PROMPT_MARKER_COUNT) {
+          myPromptMarkers.add(new long[]{end - MARKERS[marker].length(), end});
+        }
+        else {
+          myWaitingMarkerEnd = end;
+        }
+      }
+    }
+    myState = state;
+    myEnd += length;
+    myHasPromptMarker = !myPromptMarkers.isEmpty();
+  }
+
+  private void ensureCapacity(final int length) {
+    if (myEnd + length <= myBuffer.length) return;
+
+    final int liveLength = myEnd - myStart;
+    final char[] buffer = liveLength + length <= myBuffer.length ? myBuffer : new char[Math.max(myBuffer.length * 2, liveLength + length)];
+    System.arraycopy(myBuffer, myStart, buffer, 0, liveLength);
+    myBuffer = buffer;
+    myBufferOffset += myStart;
+    myStart = 0;
+    myEnd = liveLength;
+  }
+
+  /**
+   * May be called from any thread.
+   *
+   * @return whether there's a chunk ended by the fdb prompt or by a yes/no question
+   */
+  boolean hasPromptMarker() {
+    return myHasPromptMarker;
+  }
+
+  /**
+   * @param allowEmptyMarker whether all the text should be returned if there's no prompt marker. It is also returned if fdb
+   *                         reports that it waits for the player
+   * @return the text before the next prompt marker, the marker is skipped. <code>null</code> if there's no complete chunk
+   */
+  @Nullable
+  String nextChunk(final boolean allowEmptyMarker) {
+    final long[] marker = myPromptMarkers.poll();
+    myHasPromptMarker = !myPromptMarkers.isEmpty();
+
+    if (marker != null) {
+      final int markerStart = (int)(marker[0] - myBufferOffset);
+      final String result = new String(myBuffer, myStart, markerStart - myStart);
+      myStart = (int)(marker[1] - myBufferOffset);
+      if (isBlank()) {
+        consumeAll();
+      }
+      myLastChunkEndedWithMarker = true;
+      return result;
+    }
+
+    if (myEnd > myStart && (allowEmptyMarker || myWaitingMarkerEnd > myBufferOffset + myStart)) {
+      final String result = new String(myBuffer, myStart, myEnd - myStart);
+      consumeAll();
+      myLastChunkEndedWithMarker = false;
+      return result;
+    }
+
+    return null;
+  }
+
+  boolean lastChunkEndedWithMarker() {
+    return myLastChunkEndedWithMarker;
+  }
+
+  private boolean isBlank() {
+    for (int i = myStart; i < myEnd; i++) {
+      if (myBuffer[i] != ' ') return false;
+    }
+    return true;
+  }
+
+  private void consumeAll() {
+    myBufferOffset += myEnd;
+    myStart = myEnd = 0;
+    if (myBuffer.length > INITIAL_CAPACITY * 8) {
+      myBuffer = new char[INITIAL_CAPACITY]; // don't keep the memory taken by a flood of output
+    }
+    myState = 0;
+    myPromptMarkers.clear();
+    myHasPromptMarker = false;
+    myWaitingMarkerEnd = -1;
+  }
+}
@@ -82,6 +82,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.intellij.lang.javascript.flex.run.FlashRunnerParameters.AirMobileDebugTransport;
 import static com.intellij.lang.javascript.flex.run.FlashRunnerParameters.AirMobileRunTarget;
@@ -114,9 +115,6 @@ public class FlexDebugProcess extends XDebugProcess {
 
   @NonNls static final String RESOLVED_BREAKPOINT_MARKER = "Resolved breakpoint ";
   @NonNls static final String BREAKPOINT_MARKER = "Breakpoint ";
-  @NonNls private static final String FDB_MARKER = "(fdb) ";
-  @NonNls private static final String WAITING_PLAYER_MARKER_1 = "Waiting for Player to connect";
-  @NonNls private static final String WAITING_PLAYER_MARKER_2 = "Trying to connect to Player";
   @NonNls static final String ATTEMPTING_TO_RESOLVE_BREAKPOINT_MARKER = "Attempting to resolve breakpoint ";
 
   @NonNls private static final String ADL_PREFIX = "[AIR Debug Launcher]: ";
@@ -132,6 +130,7 @@ public class FlexDebugProcess extends XDebugProcess {
 
   private Object myStackFrameEqualityObject;
   private Map<String, String> myQName2IdMap;
+  private final AtomicInteger myObjectsModificationCount = new AtomicInteger();
 
   private int myCurrentWorker = 0;
   private final KnownFilesInfo myKnownFilesInfo = new KnownFilesInfo(this);
@@ -705,7 +704,12 @@ public class FlexDebugProcess extends XDebugProcess {
 
   private boolean handleStdResponse(String line, ResponseLineIterator iterator) {
     if (line.startsWith(TRACE_MARKER)) {
-      myConsoleView.print(line + "\n", ConsoleViewContentType.NORMAL_OUTPUT);
+      // consecutive trace lines are printed at once, the player may produce a lot of them
+      final StringBuilder traces = new StringBuilder().append(line).append('\n');
+      while (iterator.hasNext() && iterator.getNext().startsWith(TRACE_MARKER)) {
+        traces.append(iterator.next()).append('\n');
+      }
+      myConsoleView.print(traces.toString(), ConsoleViewContentType.NORMAL_OUTPUT);
       return true;
     }
     else if (line.startsWith(FAULT_MARKER)) {
@@ -1211,6 +1215,17 @@ public class FlexDebugProcess extends XDebugProcess {
     return false;
   }
 
+  /**
+   * Is called before evaluations that may change objects of the suspended player, so that stack frames don't reuse printed children.
+   */
+  void objectsMayBeModified() {
+    myObjectsModificationCount.incrementAndGet();
+  }
+
+  int getObjectsModificationCount() {
+    return myObjectsModificationCount.get();
+  }
+
   void setQName2Id(Map<String, String> qName2IdMap, Object equalityObject) {
     myStackFrameEqualityObject = equalityObject;
     myQName2IdMap = qName2IdMap;
@@ -1225,8 +1240,7 @@ public class FlexDebugProcess extends XDebugProcess {
   class MyFdbOutputReader {
     private final InputStreamReader myReader;
     private final char[] buf = new char[8192];
-    private final StringBuilder lastText = new StringBuilder();
-    private int lastTextMarkerScanningStart;
+    private final FdbOutputScanner myScanner = new FdbOutputScanner();
     private final InputStream myInputStream;
 
     public MyFdbOutputReader(final InputStream _inputStream) {
@@ -1235,67 +1249,33 @@ public class FlexDebugProcess extends XDebugProcess {
     }
 
     boolean hasSomeDataPending() throws IOException {
-      return myInputStream.available() > 0;
+      // a chunk may be already read together with the previous one
+      return myScanner.hasPromptMarker() || myInputStream.available() > 0;
     }
 
     String readLine(boolean nonblock) throws IOException {
-      if (lastText != null) {
-        final String lastText = getNextLine(nonblock);
-        if (lastText != null) return lastText;
-      }
+      final String lastText = getNextLine(nonblock);
+      if (lastText != null) return lastText;
 
       while (true) {
         int read = myReader.read(buf, 0, buf.length);
         if (read == -1) return null;
-        lastText.append(buf, 0, read);
+        myScanner.append(buf, 0, read);
 
-        if (read < buf.length) {
-          final String lastText = getNextLine(nonblock);
-          if (lastText != null) return lastText;
+        if (read < buf.length || myScanner.hasPromptMarker()) {
+          final String text = getNextLine(nonblock);
+          if (text != null) return text;
         }
       }
     }
 
     private String getNextLine(boolean allowEmptyMarker) {
-      String result;
-      String marker = FDB_MARKER;
-      int i = lastText.indexOf(marker, lastTextMarkerScanningStart);
-
-      if (i == -1) {
-        marker = "(y or n)";
-        i = lastText.indexOf(marker, lastTextMarkerScanningStart);
-      }
-
-      if (i == -1 &&
-          (allowEmptyMarker ||
-           lastText.indexOf(WAITING_PLAYER_MARKER_1, lastTextMarkerScanningStart) >= 0 ||
-           lastText.indexOf(WAITING_PLAYER_MARKER_2, lastTextMarkerScanningStart) >= 0) &&
-          lastText.length() > 0) {
-        i = lastText.length();
-        marker = "";
-      }
-
-      if (i != -1) {
-        result = lastText.substring(0, i);
-        lastText.delete(0, i + marker.length());
-        lastTextMarkerScanningStart = 0;
-        if (isBlank(lastText)) lastText.setLength(0);
-        setSuspended(marker.length() != 0);
-        return result;
-      }
-      else {
-        lastTextMarkerScanningStart = lastText.length();
-        result = null;
+      final String result = myScanner.nextChunk(allowEmptyMarker);
+      if (result != null) {
+        setSuspended(myScanner.lastChunkEndedWithMarker());
       }
       return result;
     }
-
-    private boolean isBlank(StringBuilder lastText) {
-      for (int i = 0; i < lastText.length(); ++i) {
-        if (lastText.charAt(i) != ' ') return false;
-      }
-      return true;
-    }
   }
 
   @Override
@@ -1604,7 +1584,7 @@ public class FlexDebugProcess extends XDebugProcess {
         return CommandOutputProcessingMode.DONE;
       }
 
-      if (s.contains(WAITING_PLAYER_MARKER_1) || s.contains(WAITING_PLAYER_MARKER_2)) {
+      if (s.contains(FdbOutputScanner.WAITING_PLAYER_MARKER_1) || s.contains(FdbOutputScanner.WAITING_PLAYER_MARKER_2)) {
         fdbWaitingForPlayerStateReached = true;
         getSession().rebuildViews();
         notifyFdbWaitingForPlayerStateReached();
@@ -20,12 +20,14 @@ import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.ui.ColoredTextContainer;
 import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.xdebugger.Obsolescent;
 import com.intellij.xdebugger.XDebuggerUtil;
 import com.intellij.xdebugger.XSourcePosition;
 import com.intellij.xdebugger.evaluation.ExpressionInfo;
 import com.intellij.xdebugger.evaluation.XDebuggerEvaluator;
 import com.intellij.xdebugger.frame.XCompositeNode;
 import com.intellij.xdebugger.frame.XStackFrame;
+import com.intellij.xdebugger.frame.XValue;
 import com.intellij.xdebugger.frame.XValueChildrenList;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -54,6 +56,13 @@ public class FlexStackFrame extends XStackFrame {
   @NonNls protected static final String UNKNOWN_SCOPE = "<unknown>";
   static final String CLASS_MARKER = ", class='";
   static final String CANNOT_EVALUATE_EXPRESSION = "Cannot evaluate expression: ";
+  private static final int MAX_BATCHED_EVALUATIONS = 100;
+
+  // guarded by itself, see evaluateBatched()
+  private final List<BatchedEvaluation> myBatchedEvaluations = new ArrayList<>();
+  // responses to 'print #objectId.' keyed by the expression, valid while the player stays suspended and no evaluation changes objects
+  private final Map<String, String> myChildListings = new HashMap<>();
+  private int myChildListingsModificationCount; // guarded by myChildListings
 
   FlexStackFrame(final FlexDebugProcess debugProcess, final @Nullable XSourcePosition sourcePosition) {
     myDebugProcess = debugProcess;
@@ -411,6 +420,195 @@ public class FlexStackFrame extends XStackFrame {
     }
   }
 
+  /**
+   * Evaluates the expression together with the other ones requested within the delay: one fdb command text with a 'print' per expression
+   * is sent, so e.g. the sizes of the elements of an expanded array take one command instead of one per element. Unlike
+   * {@link EvaluateCommand} there's no fallback to the scope chain, the callback gets {@link #CANNOT_EVALUATE_EXPRESSION} if fdb
+   * fails to evaluate the expression.
+   *
+   * @param obsolescent the evaluation is skipped if it becomes obsolete before the command is sent
+   */
+  void evaluateBatched(final String expression,
+                       final Obsolescent obsolescent,
+                       final XDebuggerEvaluator.XEvaluationCallback callback,
+                       final int delay) {
+    synchronized (myBatchedEvaluations) {
+      myBatchedEvaluations.add(new BatchedEvaluation(expression, obsolescent, callback));
+      if (myBatchedEvaluations.size() > 1) return; // already scheduled
+    }
+    myDebugProcess.addPendingCommand(new BatchEvaluateCommand(), delay);
+  }
+
+  private static class BatchedEvaluation {
+    private final String myExpression;
+    private final Obsolescent myObsolescent;
+    private final XDebuggerEvaluator.XEvaluationCallback myCallback;
+
+    private BatchedEvaluation(final String expression,
+                              final Obsolescent obsolescent,
+                              final XDebuggerEvaluator.XEvaluationCallback callback) {
+      myExpression = expression;
+      myObsolescent = obsolescent;
+      myCallback = callback;
+    }
+  }
+
+  private class BatchEvaluateCommand extends DebuggerCommand {
+    private final List<BatchedEvaluation> myEvaluations = new ArrayList<>();
+    private String myText = "";
+    private int myResponseCount;
+
+    BatchEvaluateCommand() {
+      super("does not matter", CommandOutputProcessingType.SPECIAL_PROCESSING);
+    }
+
+    @NotNull
+    @Override
+    String getText() {
+      return myText;
+    }
+
+    @Override
+    public void post(final FlexDebugProcess flexDebugProcess) throws IOException {
+      final boolean hasMore;
+      synchronized (myBatchedEvaluations) {
+        final Iterator<BatchedEvaluation> iterator = myBatchedEvaluations.iterator();
+        while (iterator.hasNext() && myEvaluations.size() < MAX_BATCHED_EVALUATIONS) {
+          final BatchedEvaluation evaluation = iterator.next();
+          iterator.remove();
+          if (!evaluation.myObsolescent.isObsolete()) {
+            myEvaluations.add(evaluation);
+          }
+        }
+        hasMore = !myBatchedEvaluations.isEmpty();
+      }
+
+      final StringBuilder text = new StringBuilder();
+      for (BatchedEvaluation evaluation : myEvaluations) {
+        if (text.length() > 0) text.append('\n');
+        text.append("print ").append(evaluation.myExpression);
+      }
+      // the frame command is sent even if all evaluations are obsolete: the command has to get a response
+      myText = addFrameOffset(text.toString());
+      flexDebugProcess.doSendCommandText(this);
+
+      if (hasMore) {
+        flexDebugProcess.sendCommand(new BatchEvaluateCommand());
+      }
+    }
+
+    @Override
+    CommandOutputProcessingMode onTextAvailable(@NonNls final String s) {
+      if (myDebugProcess.filterStdResponse(s)) return CommandOutputProcessingMode.PROCEEDING;
+
+      ++myResponseCount;
+      if (myResponseCount > 1) { // the first response is for frame
+        dispatchResult(myEvaluations.get(myResponseCount - 2), s);
+      }
+      return myResponseCount > myEvaluations.size() ? CommandOutputProcessingMode.DONE : CommandOutputProcessingMode.PROCEEDING;
+    }
+
+    private void dispatchResult(final BatchedEvaluation evaluation, String s) {
+      if (s.contains("could not be evaluated")) {
+        s = CANNOT_EVALUATE_EXPRESSION + evaluation.myExpression;
+      }
+      else {
+        final int i = s.indexOf(DELIM);
+        if (i != -1) s = s.substring(i + DELIM.length());
+      }
+
+      final String result = s.trim();
+      ApplicationManager.getApplication().executeOnPooledThread(() -> {
+        if (evaluation.myObsolescent.isObsolete()) return;
+        final XValue value = new FlexValue(FlexStackFrame.this, myDebugProcess, mySourcePosition, evaluation.myExpression,
+                                           evaluation.myExpression, result, null, FlexValue.ValueType.Other);
+        evaluation.myCallback.evaluated(value);
+      });
+    }
+  }
+
+  /**
+   * @return the cached response to 'print' of the object reference, e.g. '#12345.'
+   */
+  @Nullable
+  String getCachedChildListing(final String expression) {
+    synchronized (myChildListings) {
+      checkChildListingsUpToDate();
+      return myChildListings.get(expression);
+    }
+  }
+
+  /**
+   * @param modificationCount {@link FlexDebugProcess#getObjectsModificationCount()} when the command was sent
+   */
+  void cacheChildListing(final String expression, final String listing, final int modificationCount) {
+    synchronized (myChildListings) {
+      checkChildListingsUpToDate();
+      if (modificationCount == myChildListingsModificationCount) {
+        myChildListings.put(expression, listing);
+      }
+    }
+  }
+
+  private void checkChildListingsUpToDate() {
+    final int modificationCount = myDebugProcess.getObjectsModificationCount();
+    if (modificationCount != myChildListingsModificationCount) {
+      myChildListings.clear();
+      myChildListingsModificationCount = modificationCount;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the expression contains an assignment (including compound ones), an increment or decrement, a call,
+   * <code>delete</code> or <code>new</code>; string literals are skipped
+   */
+  static boolean mayHaveSideEffects(@NotNull final String expression) {
+    final int length = expression.length();
+    char prevSignificant = ' ';
+    for (int i = 0; i < length; i++) {
+      final char c = expression.charAt(i);
+
+      if (c == '\'' || c == '"') {
+        for (i++; i < length && expression.charAt(i) != c; i++) {
+          if (expression.charAt(i) == '\\') i++;
+        }
+        prevSignificant = c;
+        continue;
+      }
+
+      if (Character.isJavaIdentifierStart(c)) {
+        final int start = i;
+        while (i + 1 < length && Character.isJavaIdentifierPart(expression.charAt(i + 1))) i++;
+        final String word = expression.substring(start, i + 1);
+        if (word.equals("delete") || word.equals("new")) return true;
+        prevSignificant = 'a';
+        continue;
+      }
+
+      final char next = i + 1 < length ? expression.charAt(i + 1) : ' ';
+      if ((c == '+' || c == '-') && next == c) return true;
+
+      if (c == '=') {
+        if (next == '=') {
+          // == or ===
+          while (i + 1 < length && expression.charAt(i + 1) == '=') i++;
+        }
+        else {
+          // !=, <= and >=, but not <<=, >>= or >>>=
+          final boolean comparison = prevSignificant == '!' ||
+                                     (prevSignificant == '<' || prevSignificant == '>') &&
+                                     (i < 2 || expression.charAt(i - 2) != prevSignificant);
+          if (!comparison) return true;
+        }
+      }
+
+      if (c == '(' && (prevSignificant == 'a' || prevSignificant == ')' || prevSignificant == ']')) return true;
+
+      if (!Character.isWhitespace(c)) prevSignificant = c;
+    }
+    return false;
+  }
+
   static String validObjectId(String s) {
     // some object ids from Flash player are negative (e.g. on Linux) and can not be consumed back e.g. for tracing
     // so we transform them into unsigned ones assuming there is just sign transmition problem (see IDEA-49837)
@@ -425,6 +623,9 @@ public class FlexStackFrame extends XStackFrame {
 
     @Override
     public void evaluate(@NotNull final String expression, @NotNull final XEvaluationCallback callback, @Nullable XSourcePosition expressionPosition) {
+      if (mayHaveSideEffects(expression)) {
+        myDebugProcess.objectsMayBeModified();
+      }
       final EvaluateCommand command = new EvaluateCommand(expression, callback);
       myDebugProcess.sendCommand(command);
     }
@@ -6,6 +6,7 @@ import com.intellij.lang.javascript.index.JavaScriptIndex;
 import com.intellij.lang.javascript.psi.*;
 import com.intellij.lang.javascript.psi.ecmal4.JSClass;
 import com.intellij.lang.javascript.psi.resolve.JSInheritanceUtil;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.project.DumbService;
@@ -211,49 +212,43 @@ class FlexValue extends XValue {
   }
 
   private void scheduleVectorPresentation(final XValueNode node, final String type) {
-    final FlexStackFrame.EvaluateCommand command =
-      myFlexStackFrame.new EvaluateCommand(myExpression + ".fixed", new XDebuggerEvaluator.XEvaluationCallback() {
-
-        @Override
-        public void evaluated(@NotNull XValue result) {
-          if (!node.isObsolete()) {
-            final String resultText = ((FlexValue)result).myResult;
-            final String prefix = ("true".equals(resultText) || "false".equals(resultText)) ? "fixed = " + resultText : "";
-            node.setPresentation(getIcon(), type, prefix, true);
-            scheduleCollectionSizePresentation(node, type, prefix);
-          }
-        }
+    myFlexStackFrame.evaluateBatched(myExpression + ".fixed", node, new XDebuggerEvaluator.XEvaluationCallback() {
 
-        @Override
-        public void errorOccurred(@NotNull String errorMessage) {
+      @Override
+      public void evaluated(@NotNull XValue result) {
+        if (!node.isObsolete()) {
+          final String resultText = ((FlexValue)result).myResult;
+          final String prefix = ("true".equals(resultText) || "false".equals(resultText)) ? "fixed = " + resultText : "";
+          node.setPresentation(getIcon(), type, prefix, true);
+          scheduleCollectionSizePresentation(node, type, prefix);
         }
-      });
+      }
 
-    myDebugProcess.addPendingCommand(new CompositeDebuggerCommand(node, command), 100);
+      @Override
+      public void errorOccurred(@NotNull String errorMessage) {
+      }
+    }, 100);
   }
 
   private void scheduleCollectionSizePresentation(final XValueNode node, final String type, final String prefix) {
-    final FlexStackFrame.EvaluateCommand command =
-      myFlexStackFrame.new EvaluateCommand(myExpression + ".length", new XDebuggerEvaluator.XEvaluationCallback() {
-
-        @Override
-        public void evaluated(@NotNull XValue result) {
-          if (!node.isObsolete()) {
-            final String resultText = ((FlexValue)result).myResult;
-            final int index = resultText.indexOf(" (0x");
-            if (index != -1) {
-              final String value = (prefix.isEmpty() ? "" : prefix + ", ") + "size = " + resultText.substring(0, index);
-              node.setPresentation(getIcon(), type, value, true);
-            }
-          }
-        }
+    myFlexStackFrame.evaluateBatched(myExpression + ".length", node, new XDebuggerEvaluator.XEvaluationCallback() {
 
-        @Override
-        public void errorOccurred(@NotNull String errorMessage) {
+      @Override
+      public void evaluated(@NotNull XValue result) {
+        if (!node.isObsolete()) {
+          final String resultText = ((FlexValue)result).myResult;
+          final int index = resultText.indexOf(" (0x");
+          if (index != -1) {
+            final String value = (prefix.isEmpty() ? "" : prefix + ", ") + "size = " + resultText.substring(0, index);
+            node.setPresentation(getIcon(), type, value, true);
+          }
         }
-      });
+      }
 
-    myDebugProcess.addPendingCommand(new CompositeDebuggerCommand(node, command), 100);
+      @Override
+      public void errorOccurred(@NotNull String errorMessage) {
+      }
+    }, 100);
   }
 
   private static void setXmlListPresentation(final XValueNode node, final String value, final FlexValue flexValue) {
@@ -378,6 +373,7 @@ class FlexValue extends XValue {
     return new XValueModifier() {
       @Override
       public void setValue(@NotNull String _expression, @NotNull final XModificationCallback callback) {
+        myDebugProcess.objectsMayBeModified();
         FlexStackFrame.EvaluateCommand command = myFlexStackFrame.new EvaluateCommand(myExpression + "=" + _expression, null) {
           @Override
           protected void dispatchResult(String s) {
@@ -407,67 +403,22 @@ class FlexValue extends XValue {
       return;
     }
 
+    final String cachedListing = myFlexStackFrame.getCachedChildListing(expression);
+    if (cachedListing != null) {
+      ApplicationManager.getApplication().executeOnPooledThread(() -> addChildren(node, cachedListing, typeFromFlexValueResult));
+      return;
+    }
+
+    final int modificationCount = myDebugProcess.getObjectsModificationCount();
     final FlexStackFrame.EvaluateCommand
       command = myFlexStackFrame.new EvaluateCommand(expression, null) {
       @Override
       CommandOutputProcessingMode doOnTextAvailable(@NonNls final String resultS) {
-        StringTokenizer tokenizer = new StringTokenizer(resultS, "\r\n");
-
-        // skip first token; it contains $-prefix followed by myResult: $6 = [Object 30860193, class='__AS3__.vec::Vector.<String>']
-        tokenizer.nextToken();
-
-        final LinkedHashMap<String, FlexValue> fieldNameToFlexValueMap = new LinkedHashMap<>(tokenizer.countTokens());
-
-        final NodeClassInfo nodeClassInfo =
-          DumbService.getInstance(myDebugProcess.getSession().getProject()).runReadActionInSmartMode(() -> {
-            final Project project = myDebugProcess.getSession().getProject();
-            final JSClass jsClass = mySourcePosition == null
-                                    ? null
-                                    : findJSClass(project,
-                                                  ModuleUtilCore.findModuleForFile(mySourcePosition.getFile(), project),
-                                                  typeFromFlexValueResult);
-            return jsClass == null ? null : NodeClassInfo.getNodeClassInfo(jsClass);
-          });
-
-        while (tokenizer.hasMoreElements()) {
-          final String s = tokenizer.nextToken().trim();
-          if (s.length() == 0) continue;
-          final int delimIndex = s.indexOf(FlexStackFrame.DELIM);
-          if (delimIndex == -1) {
-            FlexDebugProcess.log("Unrecognized string:" + s);
-            continue;
-          }
-          final String fieldName = s.substring(0, delimIndex);
-          final String result = s.substring(delimIndex + FlexStackFrame.DELIM.length());
-
-          if (result.startsWith("[Setter ")) {
-            // such values do not give any useful information:
-            // [Setter 62, name='Child@3d613bb::staticSetter']
-            // [Setter 78]
-            continue;
-          }
-
-          String evaluatedPath = myExpression;
-
-          if (fieldName.length() > 0 && Character.isDigit(fieldName.charAt(0))) {
-            evaluatedPath += "[\"" + fieldName + "\"]";
-          }
-          else {
-            evaluatedPath += "." + fieldName;
-          }
-          // either parameter of static function from scopechain or a field. Static functions from scopechain look like following:
-          // // [Object 52571545, class='Main$/staticFunction']
-          final ValueType valueType =
-            typeFromFlexValueResult != null && typeFromFlexValueResult.indexOf('/') > -1 ? ValueType.Parameter : ValueType.Field;
-          final FlexValue flexValue =
-            new FlexValue(myFlexStackFrame, myDebugProcess, mySourcePosition, fieldName, evaluatedPath, result, FlexValue.this.myResult,
-                          valueType);
-
-          addValueCheckingDuplicates(flexValue, fieldNameToFlexValueMap);
+        if (resultS.startsWith("$")) {
+          // fdb errors (e.g. when the player doesn't respond) are not listings, the next expansion should ask again
+          myFlexStackFrame.cacheChildListing(expression, resultS, modificationCount);
         }
-
-        addChildren(node, fieldNameToFlexValueMap, nodeClassInfo);
-
+        addChildren(node, resultS, typeFromFlexValueResult);
         return CommandOutputProcessingMode.DONE;
       }
     };
@@ -475,6 +426,68 @@ class FlexValue extends XValue {
     myDebugProcess.sendCommand(command);
   }
 
+  /**
+   * @param listing fdb response to 'print #objectId.'
+   */
+  private void addChildren(final XCompositeNode node, final String listing, @Nullable final String typeFromFlexValueResult) {
+    StringTokenizer tokenizer = new StringTokenizer(listing, "\r\n");
+
+    // skip first token; it contains $-prefix followed by myResult: $6 = [Object 30860193, class='__AS3__.vec::Vector.<String>']
+    tokenizer.nextToken();
+
+    final LinkedHashMap<String, FlexValue> fieldNameToFlexValueMap = new LinkedHashMap<>(tokenizer.countTokens());
+
+    final NodeClassInfo nodeClassInfo =
+      DumbService.getInstance(myDebugProcess.getSession().getProject()).runReadActionInSmartMode(() -> {
+        final Project project = myDebugProcess.getSession().getProject();
+        final JSClass jsClass = mySourcePosition == null
+                                ? null
+                                : findJSClass(project,
+                                              ModuleUtilCore.findModuleForFile(mySourcePosition.getFile(), project),
+                                              typeFromFlexValueResult);
+        return jsClass == null ? null : NodeClassInfo.getNodeClassInfo(jsClass);
+      });
+
+    while (tokenizer.hasMoreElements()) {
+      final String s = tokenizer.nextToken().trim();
+      if (s.length() == 0) continue;
+      final int delimIndex = s.indexOf(FlexStackFrame.DELIM);
+      if (delimIndex == -1) {
+        FlexDebugProcess.log("Unrecognized string:" + s);
+        continue;
+      }
+      final String fieldName = s.substring(0, delimIndex);
+      final String result = s.substring(delimIndex + FlexStackFrame.DELIM.length());
+
+      if (result.startsWith("[Setter ")) {
+        // such values do not give any useful information:
+        // [Setter 62, name='Child@3d613bb::staticSetter']
+        // [Setter 78]
+        continue;
+      }
+
+      String evaluatedPath = myExpression;
+
+      if (fieldName.length() > 0 && Character.isDigit(fieldName.charAt(0))) {
+        evaluatedPath += "[\"" + fieldName + "\"]";
+      }
+      else {
+        evaluatedPath += "." + fieldName;
+      }
+      // either parameter of static function from scopechain or a field. Static functions from scopechain look like following:
+      // // [Object 52571545, class='Main$/staticFunction']
+      final ValueType valueType =
+        typeFromFlexValueResult != null && typeFromFlexValueResult.indexOf('/') > -1 ? ValueType.Parameter : ValueType.Field;
+      final FlexValue flexValue =
+        new FlexValue(myFlexStackFrame, myDebugProcess, mySourcePosition, fieldName, evaluatedPath, result, myResult,
+                      valueType);
+
+      addValueCheckingDuplicates(flexValue, fieldNameToFlexValueMap);
+    }
+
+    addChildren(node, fieldNameToFlexValueMap, nodeClassInfo);
+  }
+
   public boolean canNavigateToTypeSource() {
     final boolean isObject = myResult.contains(OBJECT_MARKER);
 
@@ -2,11 +2,10 @@ package com.intellij.lang.javascript.flex.importer;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.IOException;
-import java.io.ByteArrayInputStream;
-import java.io.UnsupportedEncodingException;
-import java.util.zip.InflaterInputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Maxim.Mossienko
@@ -15,12 +14,30 @@ import java.util.zip.InflaterInputStream;
 */
 class ByteBuffer {
   private byte[] bytes;
+  // the buffer may be a view of a part of the array, positions are relative to start
+  private int start;
+  private int end;
   private int position;
   private boolean littleEndian;
 
+  ByteBuffer() {
+  }
+
+  /**
+   * Wraps the array without copying it.
+   */
+  ByteBuffer(@NotNull byte[] bytes, int start, int end) {
+    this.bytes = bytes;
+    this.start = start;
+    this.end = end;
+    position = start;
+  }
+
   void read(@NotNull InputStream inputStream) throws IOException {
     try {
       bytes = readStream(inputStream);
+      start = position = 0;
+      end = bytes.length;
     }
     finally {
       if (inputStream != null) inputStream.close();
@@ -32,6 +49,7 @@ class ByteBuffer {
   }
 
   int readInt() {
+    checkAvailable(4);
     int result;
     if (littleEndian) {
       result = (((bytes[position + 3] & 0xFF) << 8 | (bytes[position + 2] & 0xFF)) << 16) + ((bytes[position + 1] & 0xFF) << 8) | (bytes[position] & 0xFF);
@@ -48,53 +66,49 @@ class ByteBuffer {
   }
 
   public void setPosition(final int i) {
-    position = i;
+    position = start + i;
   }
 
   public int bytesSize() {
-    return bytes.length;
+    return end - start;
   }
 
-  public void uncompress() throws IOException {
-    final InflaterInputStream zipInputStream = new InflaterInputStream(new ByteArrayInputStream(bytes));
-
-    bytes = readStream(zipInputStream);
-
-    zipInputStream.close();
-  }
-
-  private static byte[] readStream(final InputStream zipInputStream) throws IOException {
-    final byte[] buf = new byte[8192];
-    byte[] result = new byte[8192];
+  private static byte[] readStream(final InputStream inputStream) throws IOException {
+    byte[] result = new byte[Math.max(inputStream.available(), 8192)];
     int total = 0;
 
     while (true) {
-      int read = zipInputStream.read(buf);
-      if (read == -1) break;
-      if (total + read >= result.length) {
+      if (total == result.length) {
+        final int next = inputStream.read(); // don't grow an exactly sized buffer at the end of the stream
+        if (next == -1) break;
         byte[] newresult = new byte[result.length * 2];
         System.arraycopy(result, 0, newresult, 0, total);
         result = newresult;
+        result[total++] = (byte)next;
       }
-
-      System.arraycopy(buf, 0, result, total, read);
+      int read = inputStream.read(result, total, result.length - total);
+      if (read == -1) break;
       total += read;
     }
 
+    if (total == result.length) return result;
     final byte[] realResult = new byte[total];
     System.arraycopy(result, 0, realResult, 0, total);
     return realResult;
   }
 
   public int readUnsignedByte() {
+    checkAvailable(1);
     return bytes[position++] & 0xFF;
   }
 
   public int readByte() {
+    checkAvailable(1);
     return bytes[position++];
   }
 
   public int readUnsignedShort() {
+    checkAvailable(2);
     int result;
     if (littleEndian) {
       result = (bytes[position + 1] & 0xFF) << 8 | (bytes[position] & 0xFF);
@@ -106,28 +120,38 @@ class ByteBuffer {
     return result;
   }
 
-  public void readBytes(ByteBuffer data2, int length) {
-    data2.bytes = new byte[length];
-    System.arraycopy(bytes, position, data2.bytes, 0, length);
+  /**
+   * @return a view of the next <code>length</code> bytes sharing the array with this buffer, with the same byte order
+   */
+  public ByteBuffer readBytes(int length) {
+    if (length < 0) throw new ArrayIndexOutOfBoundsException(position + length);
+    checkAvailable(length);
+    final ByteBuffer result = new ByteBuffer(bytes, position, position + length);
+    result.littleEndian = littleEndian;
     position += length;
+    return result;
+  }
+
+  /**
+   * @return a stream of the remaining bytes, not copied
+   */
+  public InputStream asInputStream() {
+    return new ByteArrayInputStream(bytes, position, end - position);
   }
 
   public boolean eof() {
-    return position >= bytes.length;
+    return position >= end;
   }
 
   public String readUTFBytes(int i) {
-    try {
-      final byte[] buf = new byte[i];
-      while (i > 0) {
-        buf[buf.length - i] = (byte)readByte();
-        --i;
-      }
-      return new String(buf, "utf-8");
-    }
-    catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
-    }
+    final String result = getUTFBytes(getPosition(), i);
+    position += i;
+    return result;
+  }
+
+  public String getUTFBytes(int offset, int length) {
+    if (length < 0 || start + offset + length > end) throw new ArrayIndexOutOfBoundsException(start + offset + length);
+    return new String(bytes, start + offset, length, StandardCharsets.UTF_8);
   }
 
   public double readDouble() {
@@ -149,11 +173,19 @@ class ByteBuffer {
   }
 
   public byte getByte(int i) {
-    return bytes[i];
+    if (i < 0 || start + i >= end) throw new ArrayIndexOutOfBoundsException(start + i);
+    return bytes[start + i];
   }
 
   public int getPosition() {
-    return position;
+    return position - start;
+  }
+
+  /**
+   * The array is shared with other views, so reading past {@link #end} must fail instead of reading the bytes of the next tag.
+   */
+  private void checkAvailable(int length) {
+    if (position + length > end) throw new ArrayIndexOutOfBoundsException(position + length);
   }
 
   public void incPosition(final int length) {
@@ -6,6 +6,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Produced from abcdump.as
@@ -70,9 +71,20 @@ public class FlexImporter {
     processFlexByteCode(in, new AS3InterfaceStubDumper(parent));
   }
 
+  /**
+   * Same as {@link #buildStubsInterfaceFromStream(InputStream, StubElement)}, but reads the content in place instead of copying it.
+   */
+  public static void buildStubsInterface(@NotNull final byte[] content, final StubElement parent) throws Exception {
+    processFlexByteCode(new ByteBuffer(content, 0, content.length), new AS3InterfaceStubDumper(parent));
+  }
+
   private static void processFlexByteCode(@NotNull final InputStream in, @NotNull FlexByteCodeInformationProcessor processor) throws IOException {
     ByteBuffer data = new ByteBuffer();
     data.read(in);
+    processFlexByteCode(data, processor);
+  }
+
+  private static void processFlexByteCode(@NotNull final ByteBuffer data, @NotNull FlexByteCodeInformationProcessor processor) throws IOException {
     data.setLittleEndian();
     if (data.bytesSize() == 0) return;
     int version = data.readUnsignedInt();
@@ -83,15 +95,17 @@ public class FlexImporter {
     }
     else if ((version & SWF_MAGIC) == SWF_MAGIC) {
       final int delta = 8;
-      data.setPosition(delta);
-      ByteBuffer udata = new ByteBuffer();
-      udata.setLittleEndian();
-      data.readBytes(udata, data.bytesSize() - delta);
-      int csize = udata.bytesSize();
-      udata.uncompress();
-      processor.dumpStat("decompressed swf " + csize + " -> " + udata.bytesSize() + "\n");
-      udata.setPosition(0);
-      new Swf(udata, processor);
+      final int usize = data.readInt() - delta; // uncompressed length is in the header
+      final ByteBuffer cdata = data.readBytes(data.bytesSize() - delta);
+      processor.dumpStat("decompressed swf " + cdata.bytesSize() + " -> " + usize + "\n");
+      // tags are inflated as they are read, so that only DoABC tags are kept in memory
+      final InputStream inflated = new InflaterInputStream(cdata.asInputStream());
+      try {
+        new Swf(inflated, usize, processor);
+      }
+      finally {
+        inflated.close();
+      }
     }
     else if ((version & SWF_MAGIC2) == SWF_MAGIC2) {
       data.setPosition(8); // skip header and length
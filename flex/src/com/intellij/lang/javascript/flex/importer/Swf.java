@@ -1,6 +1,11 @@
 package com.intellij.lang.javascript.flex.importer;
 
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author Maxim.Mossienko
@@ -18,11 +23,147 @@ class Swf {
     }
   }
 
+  /**
+   * Source of the SWF header and tags. Only DoABC tags are materialized, other tags are skipped.
+   */
+  private interface TagInput {
+    int readUnsignedByte() throws IOException;
+
+    int readUnsignedShort() throws IOException;
+
+    int readInt() throws IOException;
+
+    /**
+     * @return the next <code>length</code> bytes as a little endian buffer
+     */
+    ByteBuffer readBytes(int length) throws IOException;
+
+    void skip(int length) throws IOException;
+
+    boolean eof() throws IOException;
+
+    int size();
+  }
+
+  /**
+   * Uncompressed SWF, tag bodies are views of the underlying array.
+   */
+  private static class BufferTagInput implements TagInput {
+    private final ByteBuffer data;
+
+    private BufferTagInput(@NotNull final ByteBuffer data) {
+      this.data = data;
+    }
+
+    public int readUnsignedByte() {
+      return data.readUnsignedByte();
+    }
+
+    public int readUnsignedShort() {
+      return data.readUnsignedShort();
+    }
+
+    public int readInt() {
+      return data.readInt();
+    }
+
+    public ByteBuffer readBytes(final int length) {
+      final ByteBuffer result = data.readBytes(length);
+      result.setLittleEndian();
+      return result;
+    }
+
+    public void skip(final int length) {
+      data.incPosition(length);
+    }
+
+    public boolean eof() {
+      return data.getPosition() >= data.bytesSize();
+    }
+
+    public int size() {
+      return data.bytesSize();
+    }
+  }
+
+  /**
+   * Compressed SWF inflated on the fly: skipped tags are inflated into a small scratch buffer, so the whole uncompressed SWF
+   * (mostly images, sounds and fonts for asset libraries) is never kept in memory.
+   */
+  private static class StreamTagInput implements TagInput {
+    private final InputStream in;
+    private final int size;
+    private final byte[] skipBuffer = new byte[8192];
+    private int lookAhead = -1;
+
+    private StreamTagInput(@NotNull final InputStream in, final int size) {
+      this.in = in;
+      this.size = size;
+    }
+
+    public int readUnsignedByte() throws IOException {
+      if (lookAhead != -1) {
+        final int result = lookAhead;
+        lookAhead = -1;
+        return result;
+      }
+      final int result = in.read();
+      if (result == -1) throw new EOFException();
+      return result;
+    }
+
+    public int readUnsignedShort() throws IOException {
+      return readUnsignedByte() | readUnsignedByte() << 8;
+    }
+
+    public int readInt() throws IOException {
+      return readUnsignedShort() | readUnsignedShort() << 16;
+    }
+
+    public ByteBuffer readBytes(final int length) throws IOException {
+      if (length < 0) throw new EOFException();
+      final byte[] bytes = new byte[length];
+      int read = 0;
+      if (length > 0 && lookAhead != -1) {
+        bytes[read++] = (byte)readUnsignedByte();
+      }
+      while (read < length) {
+        final int count = in.read(bytes, read, length - read);
+        if (count == -1) throw new EOFException();
+        read += count;
+      }
+      final ByteBuffer result = new ByteBuffer(bytes, 0, length);
+      result.setLittleEndian();
+      return result;
+    }
+
+    public void skip(int length) throws IOException {
+      if (length > 0 && lookAhead != -1) {
+        lookAhead = -1;
+        length--;
+      }
+      while (length > 0) {
+        final int count = in.read(skipBuffer, 0, Math.min(length, skipBuffer.length));
+        if (count == -1) throw new EOFException();
+        length -= count;
+      }
+    }
+
+    public boolean eof() throws IOException {
+      if (lookAhead == -1) lookAhead = in.read();
+      return lookAhead == -1;
+    }
+
+    public int size() {
+      return size;
+    }
+  }
+
   private final FlexByteCodeInformationProcessor processor;
   private int bitPos;
   private int bitBuf;
 
-  private final ByteBuffer data;
+  private final TagInput data;
 
   private static final int stagDoABC = 72;   // embedded .abc (AVM+) bytecode
   private static final int stagDoABC2 = 82;   // revised ABC version with a name
@@ -148,7 +289,22 @@ class Swf {
   };
 
 
-  public Swf(final ByteBuffer _data, final FlexByteCodeInformationProcessor _processor) {
+  /**
+   * @param _data uncompressed SWF starting after the 8 byte header
+   */
+  public Swf(final ByteBuffer _data, final FlexByteCodeInformationProcessor _processor) throws IOException {
+    this(new BufferTagInput(_data), _processor);
+  }
+
+  /**
+   * @param inflated compressed SWF being inflated, starting after the 8 byte header
+   * @param size     uncompressed size without the header, as declared in the header
+   */
+  public Swf(final InputStream inflated, final int size, final FlexByteCodeInformationProcessor _processor) throws IOException {
+    this(new StreamTagInput(inflated, size), _processor);
+  }
+
+  private Swf(final TagInput _data, final FlexByteCodeInformationProcessor _processor) throws IOException {
     data = _data;
     processor = _processor;
 
@@ -163,41 +319,37 @@ class Swf {
     decodeTags();
   }
 
-  private void decodeTags() {
+  private void decodeTags() throws IOException {
     int type, h, length;
 
-    while (data.getPosition() < data.bytesSize()) {
+    while (!data.eof()) {
       type = (h = data.readUnsignedShort()) >> 6;
 
       if (((length = h & 0x3F) == 0x3F)) length = data.readInt();
 
       processor.dumpStat(
-        (type < tagNames.length ? tagNames[type] : "undefined") + " " + length + "b " + ((int)100f * length / data.bytesSize()) + "%\n");
+        (type < tagNames.length ? tagNames[type] : "undefined") + " " + length + "b " + ((int)100f * length / data.size()) + "%\n");
 
       switch (type) {
         case 0:
           return;
         case stagDoABC2:
-          int pos1 = data.getPosition();
           data.readInt();
           final String abcName = readString();
           processor.dumpStat("\nabc name " + abcName + "\n");
-          length -= (data.getPosition() - pos1);
+          length -= 4 + abcName.length() + 1;
           // fall through
         case stagDoABC:
-          ByteBuffer data2 = new ByteBuffer();
-          data2.setLittleEndian();
-          data.readBytes(data2, length);
-          new Abc(data2, processor).dump(processor.getAbcInSwfIndent());
+          new Abc(data.readBytes(length), processor).dump(processor.getAbcInSwfIndent());
           processor.append("\n");
           break;
         default:
-          data.incPosition(length);
+          data.skip(length);
       }
     }
   }
 
-  private String readString() {
+  private String readString() throws IOException {
     String s = "";
     int c;
 
@@ -210,9 +362,7 @@ class Swf {
     bitPos = 0;
   }
 
-  private Rect decodeRect()
-
-  {
+  private Rect decodeRect() throws IOException {
     syncBits();
 
     Rect rect = new Rect();
@@ -226,7 +376,7 @@ class Swf {
     return rect;
   }
 
-  int readSBits(int numBits) {
+  int readSBits(int numBits) throws IOException {
     if (numBits > 32) throw new Error("Number of bits > 32");
 
     int num = readUBits(numBits);
@@ -236,7 +386,7 @@ class Swf {
     return num;
   }
 
-  int readUBits(int numBits) {
+  int readUBits(int numBits) throws IOException {
     if (numBits == 0) return 0;
 
     int bitsLeft = numBits;
@@ -1,47 +1,76 @@
 package com.jetbrains.actionscript.profiler.calltree;
 
 import com.intellij.openapi.util.Pair;
-import com.intellij.util.ArrayUtil;
 import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
-import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIdentityHashingStrategy;
+import gnu.trove.TObjectIntHashMap;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
 
+/**
+ * Call tree kept in parallel arrays indexed by node: parent, frame id, first child, next sibling and duration. A node is its index,
+ * the root is {@link #ROOT}. Frames are interned to ids, so adding a sample looks up each frame once and children are found in one
+ * hash table of (parent, frame id) instead of a map per node.
+ */
 public class CallTree {
-  private final CallTreeNode root;
+  static final int ROOT = 0;
+  static final int NO_NODE = -1;
+  private static final int INITIAL_CAPACITY = 1024;
 
-  public CallTree() {
-    root = new CallTreeNode();
-  }
+  private int myNodeCount;
+  private int[] myParents = new int[INITIAL_CAPACITY];
+  private int[] myFrameIds = new int[INITIAL_CAPACITY];
+  private int[] myFirstChildren = new int[INITIAL_CAPACITY];
+  private int[] myNextSiblings = new int[INITIAL_CAPACITY];
+  private long[] myDurations = new long[INITIAL_CAPACITY];
 
-  CallTree(CallTreeNode root) {
-    this.root = root;
-  }
+  // open addressing table of nodes hashed by (parent, frame id), NO_NODE is an empty slot
+  private int[] myChildTable = newChildTable(INITIAL_CAPACITY * 2);
 
-  CallTreeNode getRoot() {
-    return root;
+  private FrameInfo[] myFrames = new FrameInfo[INITIAL_CAPACITY];
+  private int myFrameCount;
+  // samples of a profiling session mostly share FrameInfo instances, so the identity map spares FrameInfo.hashCode()
+  private final TObjectIntHashMap<FrameInfo> myFrameIdsByIdentity = new TObjectIntHashMap<>(new TObjectIdentityHashingStrategy<>());
+  private final TObjectIntHashMap<FrameInfo> myFrameIdsByEquality = new TObjectIntHashMap<>();
+
+  public CallTree() {
+    addNode(NO_NODE, NO_NODE, 0);
   }
 
   public void addFrames(FrameInfo[] frames, long duration) {
-    root.addChildren(Arrays.asList(ArrayUtil.reverseArray(frames)), duration);
+    int node = ROOT;
+    for (int i = frames.length - 1; i >= 0; --i) {
+      node = getOrAddChild(node, getOrAddFrameId(frames[i]));
+      myDurations[node] += duration;
+    }
   }
 
   /*
    * @return pair <cumulative time map, self time map>
    */
   public Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getTimeMaps() {
-    return TimeMapBuilder.buildTimeMaps(root, root.getChildren());
+    final BitSet calls = new BitSet(myNodeCount);
+    for (int child = getFirstChild(ROOT); child != NO_NODE; child = getNextSibling(child)) {
+      calls.set(child);
+    }
+    return TimeMapBuilder.buildTimeMaps(this, calls);
   }
 
   /*
    * @return pair <cumulative time map, self time map>
    */
   public Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCallersTimeMaps(FrameInfo[] frames) {
-    List<CallTreeNode> calls = CallerFinder.findCallsByFrames(root, frames);
-    Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> timeMaps = TimeMapBuilder.buildTimeMaps(root, calls);
-    Set<FrameInfo> callerNames = getNamesOfNodes(calls);
-    Map<FrameInfo, Long> filteredCountMap = filterMap(timeMaps.getFirst(), callerNames);
-    Map<FrameInfo, Long> filteredSelfTimeMap = filterMap(timeMaps.getSecond(), callerNames);
+    TIntArrayList calls = CallerFinder.findCallsByFrames(this, frames);
+    Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> timeMaps = TimeMapBuilder.buildTimeMaps(this, toBitSet(calls));
+    BitSet callerFrameIds = new BitSet(myFrameCount);
+    for (int i = 0; i < calls.size(); ++i) {
+      callerFrameIds.set(getFrameId(calls.get(i)));
+    }
+    Map<FrameInfo, Long> filteredCountMap = filterMap(timeMaps.getFirst(), callerFrameIds);
+    Map<FrameInfo, Long> filteredSelfTimeMap = filterMap(timeMaps.getSecond(), callerFrameIds);
     return Pair.create(filteredCountMap, filteredSelfTimeMap);
   }
 
@@ -49,20 +78,193 @@ public class CallTree {
    * @return pair <cumulative time map, self time map>
    */
   public Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCalleesTimeMaps(FrameInfo[] frames) {
-    List<CallTreeNode> calls = CalleeFinder.findCallsByFrameName(root, frames);
-    return TimeMapBuilder.buildTimeMaps(root, calls);
+    TIntArrayList calls = CalleeFinder.findCallsByFrameName(this, frames);
+    return TimeMapBuilder.buildTimeMaps(this, toBitSet(calls));
+  }
+
+  private static BitSet toBitSet(TIntArrayList nodes) {
+    BitSet result = new BitSet();
+    for (int i = 0; i < nodes.size(); ++i) {
+      result.set(nodes.get(i));
+    }
+    return result;
+  }
+
+  private Map<FrameInfo, Long> filterMap(Map<FrameInfo, Long> map, BitSet frameIds) {
+    map.keySet().removeIf(frame -> !frameIds.get(findFrameId(frame)));
+    return map;
+  }
+
+  int getNodeCount() {
+    return myNodeCount;
+  }
+
+  int getFrameCount() {
+    return myFrameCount;
+  }
+
+  int getFrameId(int node) {
+    return myFrameIds[node];
+  }
+
+  FrameInfo getFrame(int frameId) {
+    return myFrames[frameId];
+  }
+
+  FrameInfo getFrameInfo(int node) {
+    return node == ROOT ? null : myFrames[myFrameIds[node]];
+  }
+
+  long getCumulativeTiming(int node) {
+    return myDurations[node];
+  }
+
+  int getFirstChild(int node) {
+    return myFirstChildren[node];
   }
 
-  private static Map<FrameInfo, Long> filterMap(Map<FrameInfo, Long> first, Set<FrameInfo> callerNames) {
-    first.keySet().retainAll(callerNames);
-    return first;
+  int getNextSibling(int node) {
+    return myNextSiblings[node];
   }
 
-  private static Set<FrameInfo> getNamesOfNodes(Collection<CallTreeNode> nodes) {
-    THashSet<FrameInfo> names = new THashSet<>();
-    for (CallTreeNode node : nodes) {
-      names.add(node.getFrameInfo());
+  long getChildrenTiming(int node) {
+    long result = 0;
+    for (int child = myFirstChildren[node]; child != NO_NODE; child = myNextSiblings[child]) {
+      result += myDurations[child];
     }
-    return names;
+    return result;
+  }
+
+  /**
+   * @return id of the frame equal to the given one, -1 if there's no such frame in the tree
+   */
+  int findFrameId(FrameInfo frame) {
+    if (myFrameIdsByIdentity.containsKey(frame)) return myFrameIdsByIdentity.get(frame);
+    return myFrameIdsByEquality.containsKey(frame) ? myFrameIdsByEquality.get(frame) : -1;
+  }
+
+  /**
+   * @return ids of the frames or <code>null</code> if some frame isn't in the tree, so that no path matches the frames
+   */
+  int[] findFrameIds(FrameInfo[] frames) {
+    final int[] result = new int[frames.length];
+    for (int i = 0; i < frames.length; ++i) {
+      result[i] = findFrameId(frames[i]);
+      if (result[i] == -1) return null;
+    }
+    return result;
+  }
+
+  int findChild(int parent, int frameId) {
+    final int mask = myChildTable.length - 1;
+    for (int slot = hash(parent, frameId) & mask; ; slot = (slot + 1) & mask) {
+      final int node = myChildTable[slot];
+      if (node == NO_NODE || myParents[node] == parent && myFrameIds[node] == frameId) return node;
+    }
+  }
+
+  /**
+   * @return the node reached from the given one by the path of the frame ids, {@link #NO_NODE} if there's no such path
+   */
+  int getChildDeep(int node, int[] frameIds) {
+    for (int frameId : frameIds) {
+      node = findChild(node, frameId);
+      if (node == NO_NODE) return NO_NODE;
+    }
+    return node;
+  }
+
+  int getOrAddFrameId(FrameInfo frame) {
+    if (myFrameIdsByIdentity.containsKey(frame)) return myFrameIdsByIdentity.get(frame);
+
+    int id;
+    if (myFrameIdsByEquality.containsKey(frame)) {
+      id = myFrameIdsByEquality.get(frame);
+    }
+    else {
+      if (myFrameCount == myFrames.length) myFrames = Arrays.copyOf(myFrames, myFrameCount * 2);
+      id = myFrameCount++;
+      myFrames[id] = frame;
+      myFrameIdsByEquality.put(frame, id);
+    }
+    myFrameIdsByIdentity.put(frame, id);
+    return id;
+  }
+
+  /**
+   * Adds the duration to the child of the parent with the frame, the child is created if there's none.
+   *
+   * @return the child
+   */
+  int addChild(int parent, int frameId, long duration) {
+    final int child = getOrAddChild(parent, frameId);
+    myDurations[child] += duration;
+    return child;
+  }
+
+  private int getOrAddChild(int parent, int frameId) {
+    final int child = findChild(parent, frameId);
+    return child != NO_NODE ? child : addNode(parent, frameId, 0);
+  }
+
+  private int addNode(int parent, int frameId, long duration) {
+    if (myNodeCount == myParents.length) {
+      final int capacity = myNodeCount * 2;
+      myParents = Arrays.copyOf(myParents, capacity);
+      myFrameIds = Arrays.copyOf(myFrameIds, capacity);
+      myFirstChildren = Arrays.copyOf(myFirstChildren, capacity);
+      myNextSiblings = Arrays.copyOf(myNextSiblings, capacity);
+      myDurations = Arrays.copyOf(myDurations, capacity);
+    }
+
+    final int node = myNodeCount++;
+    myParents[node] = parent;
+    myFrameIds[node] = frameId;
+    myFirstChildren[node] = NO_NODE;
+    myDurations[node] = duration;
+
+    if (parent == NO_NODE) {
+      myNextSiblings[node] = NO_NODE;
+      return node;
+    }
+
+    myNextSiblings[node] = myFirstChildren[parent];
+    myFirstChildren[parent] = node;
+
+    if (myNodeCount * 2 > myChildTable.length) {
+      rehashChildTable(myChildTable.length * 2);
+    }
+    else {
+      putToChildTable(myChildTable, node);
+    }
+    return node;
+  }
+
+  private void rehashChildTable(int capacity) {
+    final int[] table = newChildTable(capacity);
+    for (int node = ROOT + 1; node < myNodeCount; ++node) {
+      putToChildTable(table, node);
+    }
+    myChildTable = table;
+  }
+
+  private void putToChildTable(int[] table, int node) {
+    final int mask = table.length - 1;
+    int slot = hash(myParents[node], myFrameIds[node]) & mask;
+    while (table[slot] != NO_NODE) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = node;
+  }
+
+  private static int[] newChildTable(int capacity) {
+    final int[] table = new int[capacity];
+    Arrays.fill(table, NO_NODE);
+    return table;
+  }
+
+  private static int hash(int parent, int frameId) {
+    final int h = parent * 0x9E3779B9 + frameId;
+    return h ^ (h >>> 16);
   }
 }
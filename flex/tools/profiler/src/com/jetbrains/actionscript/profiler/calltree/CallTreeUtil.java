@@ -1,26 +1,30 @@
 package com.jetbrains.actionscript.profiler.calltree;
 
+import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+
 /**
  * @author: Fedor.Korotkov
  */
 public class CallTreeUtil {
   public static CallTree filterSystemStuff(CallTree tree) {
-    return new CallTree(filterSystemStuffImpl(tree.getRoot()));
+    CallTree result = new CallTree();
+    filterSystemStuffImpl(tree, CallTree.ROOT, result, CallTree.ROOT);
+    return result;
   }
 
-  private static CallTreeNode filterSystemStuffImpl(CallTreeNode node) {
-    CallTreeNode result = new CallTreeNode(node.getFrameInfo(), node.getCumulativeTiming());
-
-    for (CallTreeNode child : node.getChildren()) {
-      CallTreeNode newChild = filterSystemStuffImpl(child);
-      if (newChild.getFrameInfo().isSystem()) {
-        result.addChildrenRecursive(newChild.getChildren());
+  /*
+   * Children of system nodes are merged into the nearest non-system ancestor.
+   */
+  private static void filterSystemStuffImpl(CallTree tree, int node, CallTree result, int resultNode) {
+    for (int child = tree.getFirstChild(node); child != CallTree.NO_NODE; child = tree.getNextSibling(child)) {
+      FrameInfo frameInfo = tree.getFrameInfo(child);
+      if (frameInfo.isSystem()) {
+        filterSystemStuffImpl(tree, child, result, resultNode);
       }
       else {
-        result.addChildRecursive(newChild);
+        int resultChild = result.addChild(resultNode, result.getOrAddFrameId(frameInfo), tree.getCumulativeTiming(child));
+        filterSystemStuffImpl(tree, child, result, resultChild);
       }
     }
-
-    return result;
   }
 }
@@ -2,9 +2,7 @@ package com.jetbrains.actionscript.profiler.calltree;
 
 import com.intellij.util.ArrayUtil;
 import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
-
-import java.util.ArrayList;
-import java.util.List;
+import gnu.trove.TIntArrayList;
 
 class CalleeFinder {
   private CalleeFinder() {
@@ -13,21 +11,21 @@ class CalleeFinder {
   /*
   * Find nodes with <code>frameName == frames[0]</code>. Node's call stack contains all <code>frames</code> in order.
   */
-  static List<CallTreeNode> findCallsByFrameName(CallTreeNode root, FrameInfo[] frames) {
-    ArrayList<CallTreeNode> result = new ArrayList<>();
-    fillCallsByFrameName(root, ArrayUtil.reverseArray(frames), result);
-    return result;
-  }
-
-  private static void fillCallsByFrameName(CallTreeNode node,
-                                           FrameInfo[] frames,
-                                           List<CallTreeNode> result) {
-    final CallTreeNode deepChild = node.getChildDeep(frames);
-    if (deepChild != null) {
-      result.addAll(deepChild.getChildren());
+  static TIntArrayList findCallsByFrameName(CallTree tree, FrameInfo[] frames) {
+    TIntArrayList result = new TIntArrayList();
+    int[] frameIds = tree.findFrameIds(ArrayUtil.reverseArray(frames));
+    if (frameIds == null) {
+      return result;
     }
-    for (CallTreeNode child : node.getChildren()) {
-      fillCallsByFrameName(child, frames, result);
+    // every node may start the path, so the nodes are visited in the order of the store instead of recursively
+    for (int node = CallTree.ROOT; node < tree.getNodeCount(); ++node) {
+      final int deepChild = tree.getChildDeep(node, frameIds);
+      if (deepChild != CallTree.NO_NODE) {
+        for (int child = tree.getFirstChild(deepChild); child != CallTree.NO_NODE; child = tree.getNextSibling(child)) {
+          result.add(child);
+        }
+      }
     }
+    return result;
   }
 }
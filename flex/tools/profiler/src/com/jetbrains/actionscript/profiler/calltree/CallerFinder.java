@@ -2,9 +2,7 @@ package com.jetbrains.actionscript.profiler.calltree;
 
 import com.intellij.util.ArrayUtil;
 import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
-
-import java.util.ArrayList;
-import java.util.List;
+import gnu.trove.TIntArrayList;
 
 class CallerFinder {
   private CallerFinder() {
@@ -21,36 +19,41 @@ class CallerFinder {
   *
   * Method return only <code>foo</code>.
   */
-  static List<CallTreeNode> findCallsByFrames(CallTreeNode root, FrameInfo[] frames) {
-    List<CallTreeNode> calls = new ArrayList<>();
+  static TIntArrayList findCallsByFrames(CallTree tree, FrameInfo[] frames) {
+    TIntArrayList calls = new TIntArrayList();
     if (frames.length == 0) {
       return calls;
     }
-    frames = ArrayUtil.reverseArray(frames);
-    for (CallTreeNode node : root.getChildren()) {
-      fillCallsByFrames(node, calls, frames, new ArrayList<>());
+    int[] frameIds = tree.findFrameIds(ArrayUtil.reverseArray(frames));
+    if (frameIds == null) {
+      return calls;
+    }
+    for (int node = tree.getFirstChild(CallTree.ROOT); node != CallTree.NO_NODE; node = tree.getNextSibling(node)) {
+      fillCallsByFrames(tree, node, calls, frameIds, new TIntArrayList());
     }
     return calls;
   }
 
-  private static void fillCallsByFrames(CallTreeNode currentNode,
-                                        List<CallTreeNode> result,
-                                        FrameInfo[] frames,
-                                        List<FrameInfo> callChainAddedFrames) {
+  private static void fillCallsByFrames(CallTree tree,
+                                        int currentNode,
+                                        TIntArrayList result,
+                                        int[] frameIds,
+                                        TIntArrayList callChainAddedFrameIds) {
     //we need only the nearest node to the root
-    //we have <code>callChainAddedFrames<code>
-    boolean needAdd = !callChainAddedFrames.contains(currentNode.getFrameInfo()) && currentNode.getChildDeep(frames) != null;
+    //we have <code>callChainAddedFrameIds<code>
+    final int frameId = tree.getFrameId(currentNode);
+    boolean needAdd = !callChainAddedFrameIds.contains(frameId) && tree.getChildDeep(currentNode, frameIds) != CallTree.NO_NODE;
     if (needAdd) {
       result.add(currentNode);
-      callChainAddedFrames.add(currentNode.getFrameInfo());
+      callChainAddedFrameIds.add(frameId);
     }
 
-    for (CallTreeNode childCall : currentNode.getChildren()) {
-      fillCallsByFrames(childCall, result, frames, callChainAddedFrames);
+    for (int child = tree.getFirstChild(currentNode); child != CallTree.NO_NODE; child = tree.getNextSibling(child)) {
+      fillCallsByFrames(tree, child, result, frameIds, callChainAddedFrameIds);
     }
     if (needAdd) {
       //pop
-      callChainAddedFrames.remove(callChainAddedFrames.size() - 1);
+      callChainAddedFrameIds.remove(callChainAddedFrameIds.size() - 1);
     }
   }
 }
@@ -3,59 +3,60 @@ package com.jetbrains.actionscript.profiler.calltree;
 import com.intellij.openapi.util.Pair;
 import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
 import gnu.trove.THashMap;
-import gnu.trove.THashSet;
 
-import java.util.List;
+import java.util.BitSet;
 import java.util.Map;
 
 class TimeMapBuilder {
-  private TimeMapBuilder() {
+  private final CallTree tree;
+  private final BitSet trackedCalls;
+  // indexed by frame id
+  private final long[] counts;
+  private final long[] selfCounts;
+  private final BitSet countedFrames;
+
+  private TimeMapBuilder(CallTree tree, BitSet trackedCalls) {
+    this.tree = tree;
+    this.trackedCalls = trackedCalls;
+    counts = new long[tree.getFrameCount()];
+    selfCounts = new long[tree.getFrameCount()];
+    countedFrames = new BitSet(tree.getFrameCount());
   }
 
   /*
   * @return pair <cumulative time map, self time map>
   */
-  static Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> buildTimeMaps(CallTreeNode root, List<CallTreeNode> calls) {
+  static Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> buildTimeMaps(CallTree tree, BitSet trackedCalls) {
+    TimeMapBuilder builder = new TimeMapBuilder(tree, trackedCalls);
+    for (int node = tree.getFirstChild(CallTree.ROOT); node != CallTree.NO_NODE; node = tree.getNextSibling(node)) {
+      builder.fillTimeMaps(node, trackedCalls.get(node));
+    }
+
     Map<FrameInfo, Long> countMap = new THashMap<>();
     Map<FrameInfo, Long> selfCountMap = new THashMap<>();
-    THashSet<CallTreeNode> trackedCalls = new THashSet<>(calls);
-
-    for (CallTreeNode node : root.getChildren()) {
-      fillTimeMaps(node, countMap, selfCountMap, trackedCalls.contains(node), trackedCalls);
+    for (int frameId = builder.countedFrames.nextSetBit(0); frameId >= 0; frameId = builder.countedFrames.nextSetBit(frameId + 1)) {
+      countMap.put(tree.getFrame(frameId), builder.counts[frameId]);
+      selfCountMap.put(tree.getFrame(frameId), builder.selfCounts[frameId]);
     }
     return Pair.create(countMap, selfCountMap);
   }
 
-  private static void fillTimeMaps(CallTreeNode node,
-                                   Map<FrameInfo, Long> countMap,
-                                   Map<FrameInfo, Long> selfCountMap,
-                                   boolean tracking,
-                                   THashSet<CallTreeNode> trackedCalls) {
+  private void fillTimeMaps(int node, boolean tracking) {
+    final int frameId = tree.getFrameId(node);
     if (tracking) {
-      updateSelfTime(node, selfCountMap);
+      selfCounts[frameId] += tree.getCumulativeTiming(node) - tree.getChildrenTiming(node);
     }
 
     //save value before subcalls
-    Long countBefore = countMap.get(node.getFrameInfo());
-    if (countBefore == null) {
-      countBefore = 0L;
-    }
-    for (CallTreeNode child : node.getChildren()) {
-      fillTimeMaps(child, countMap, selfCountMap, tracking || trackedCalls.contains(child), trackedCalls);
+    long countBefore = counts[frameId];
+    for (int child = tree.getFirstChild(node); child != CallTree.NO_NODE; child = tree.getNextSibling(child)) {
+      fillTimeMaps(child, tracking || trackedCalls.get(child));
     }
     if (tracking) {
       //rewrite values that were added in subcalls.
       //cause of that we get value only of the nearest node to the root
-      countMap.put(node.getFrameInfo(), countBefore + node.getCumulativeTiming());
-    }
-  }
-
-  private static void updateSelfTime(CallTreeNode node, Map<FrameInfo, Long> selfCountMap) {
-    long currentSelfTime = node.getCumulativeTiming() - node.calcSelfTiming();
-    Long selfTime = selfCountMap.get(node.getFrameInfo());
-    if (selfTime == null) {
-      selfTime = 0L;
+      counts[frameId] = countBefore + tree.getCumulativeTiming(node);
+      countedFrames.set(frameId);
     }
-    selfCountMap.put(node.getFrameInfo(), selfTime + currentSelfTime);
   }
 }
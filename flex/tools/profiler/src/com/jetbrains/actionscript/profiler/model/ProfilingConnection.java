@@ -11,9 +11,7 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.*;
 
 public class ProfilingConnection {
   private static final Logger LOG = Logger.getInstance(ProfilingConnection.class.getName());
@@ -274,17 +272,19 @@ public class ProfilingConnection {
     private static final String SAMPLE_MARKER = "s\0";
     private static final String CREATE_OBJECT_SAMPLE_MARKER = "c\0";
     private static final String DELETE_OBJECT_SAMPLE_MARKER = "d\0";
+    private static final String REPEATED_FRAMES_MARKER = "u>:";
 
     private final ProfilerDataConsumer mySampleProcessor;
 
     private long sampleDuration = -1;
     private int frameIndex;
 
-    private final Map<String, String> dictionary = new HashMap<>(1000);
-    private final Map<String, String> typeDictionary = new HashMap<>(1000);
+    // the agent sends a frame or a type once, later samples refer to it by its number in the order of sending
+    private final List<FrameInfo> frameDictionary = new ArrayList<>(1000);
+    private final List<String> typeDictionary = new ArrayList<>(1000);
     private FrameInfo[] frames;
     private String type;
-    private String specialArgs;
+    private int specialArgsStart;
     static final int INDEX = SAMPLE_MARKER.length();
     private int cpuSamples;
     private int memorySamples;
@@ -306,7 +306,7 @@ public class ProfilingConnection {
 
         if (cpuSample) {
           i = output.indexOf(' ', INDEX);
-          sampleDuration = Long.parseLong(output.substring(INDEX, i));
+          sampleDuration = parseLong(output, INDEX, i);
           i += 2;
         }
 
@@ -314,11 +314,11 @@ public class ProfilingConnection {
             output.startsWith(CREATE_OBJECT_SAMPLE_MARKER) ||
             output.startsWith(DELETE_OBJECT_SAMPLE_MARKER)) {
           int i2 = output.indexOf(' ', i);
-          int frameCount = Integer.parseInt(output.substring(i - 1, i2 != -1 ? i2 : output.length()));
+          int frameCount = parseInt(output, i - 1, i2 != -1 ? i2 : output.length());
           frames = frameCount > 0 ? new FrameInfo[frameCount] : FrameInfo.EMPTY_FRAME_INFO_ARRAY;
           frameIndex = 0;
           type = output;
-          specialArgs = i2 != -1 ? output.substring(i2 + 1) : "";
+          specialArgsStart = i2 != -1 ? i2 + 1 : output.length();
 
           return maybeFinishSample();
         }
@@ -327,23 +327,21 @@ public class ProfilingConnection {
       if (frames != null && frameIndex >= 0 && frameIndex < frames.length) {
 
         char ch = output.charAt(0);
-        if (output.startsWith("u>:")) {
-          int count = Integer.parseInt(output.substring(output.indexOf(':') + 1));
+        if (output.startsWith(REPEATED_FRAMES_MARKER)) {
+          int count = parseInt(output, REPEATED_FRAMES_MARKER.length(), output.length());
           Sample s =
             type.startsWith(CREATE_OBJECT_SAMPLE_MARKER) ? lastCreateObjectSample : type.startsWith(SAMPLE_MARKER) ? lastCpuSample : null;
           for (int i = s.frames.length - count; i < s.frames.length; ++i) {
             frames[frameIndex++] = s.frames[i];
           }
         }
+        else if (Character.isDigit(ch)) {
+          frames[frameIndex++] = frameDictionary.get(parseInt(output, 0, output.length()) - 1);
+        }
         else {
-          if (Character.isDigit(ch)) {
-            output = dictionary.get(output);
-          }
-          else {
-            dictionary.put("" + (dictionary.size() + 1), output);
-          }
-
-          frames[frameIndex++] = frameInfoBuilder.buildInstance(output);
+          FrameInfo frame = frameInfoBuilder.buildInstance(output);
+          frameDictionary.add(frame);
+          frames[frameIndex++] = frame;
         }
         return maybeFinishSample();
       }
@@ -358,13 +356,12 @@ public class ProfilingConnection {
         Sample sample;
         if (type.startsWith(CREATE_OBJECT_SAMPLE_MARKER)) {
           ++memorySamples;
-          final int endIndex = specialArgs.indexOf(' ');
-          final int endIndex2 = specialArgs.indexOf(' ', endIndex + 1);
+          final int endIndex = type.indexOf(' ', specialArgsStart);
+          final int endIndex2 = type.indexOf(' ', endIndex + 1);
 
-          final int id = Integer.parseInt(specialArgs.substring(0, endIndex));
-          String className = specialArgs.substring(endIndex + 1, endIndex2);
-          className = getClassName(className);
-          final int size = Integer.parseInt(specialArgs.substring(endIndex2 + 1));
+          final int id = parseInt(type, specialArgsStart, endIndex);
+          final String className = getClassName(type, endIndex + 1, endIndex2);
+          final int size = parseInt(type, endIndex2 + 1, type.length());
           sample = new CreateObjectSample(
             sampleDuration,
             frames,
@@ -376,16 +373,13 @@ public class ProfilingConnection {
         }
         else if (type.startsWith(DELETE_OBJECT_SAMPLE_MARKER)) {
           ++memorySamples;
-          final int endIndex = specialArgs.indexOf(' ');
-          int endIndex2 = specialArgs.indexOf(' ', endIndex + 1);
-          if (endIndex2 == -1) endIndex2 = specialArgs.length();
-          final int id = Integer.parseInt(specialArgs.substring(0, endIndex));
-          String type = specialArgs.substring(endIndex + 1, endIndex2);
-          final int size = endIndex2 != specialArgs.length() ? Integer.parseInt(specialArgs.substring(endIndex2 + 1)) : 0;
-          if (type != null) {
-            type = getClassName(type);
-            mySampleProcessor.process(new DeleteObjectSample(sampleDuration, frames, id, type, size));
-          }
+          final int endIndex = type.indexOf(' ', specialArgsStart);
+          int endIndex2 = type.indexOf(' ', endIndex + 1);
+          if (endIndex2 == -1) endIndex2 = type.length();
+          final int id = parseInt(type, specialArgsStart, endIndex);
+          final String className = getClassName(type, endIndex + 1, endIndex2);
+          final int size = endIndex2 != type.length() ? parseInt(type, endIndex2 + 1, type.length()) : 0;
+          mySampleProcessor.process(new DeleteObjectSample(sampleDuration, frames, id, className, size));
           return ProcessingResult.FINISHED;
         }
         else {
@@ -402,20 +396,49 @@ public class ProfilingConnection {
       }
     }
 
-    private String getClassName(String className) {
-      if (Character.isDigit(className.charAt(0))) {
-        className = typeDictionary.get(className);
+    private String getClassName(String s, int start, int end) {
+      if (Character.isDigit(s.charAt(start))) {
+        return typeDictionary.get(parseInt(s, start, end));
       }
-      else {
-        className = className.replace("::", ".");
-        if (className.startsWith(CodeContext.AS3_VEC_VECTOR_QUALIFIED_NAME)) {
-          className = JSCommonTypeNames.VECTOR_CLASS_NAME + className.substring(CodeContext.AS3_VEC_VECTOR_QUALIFIED_NAME.length());
-        }
-        typeDictionary.put(String.valueOf(typeDictionary.size()), className);
+
+      String className = s.substring(start, end).replace("::", ".");
+      if (className.startsWith(CodeContext.AS3_VEC_VECTOR_QUALIFIED_NAME)) {
+        className = JSCommonTypeNames.VECTOR_CLASS_NAME + className.substring(CodeContext.AS3_VEC_VECTOR_QUALIFIED_NAME.length());
       }
+      typeDictionary.add(className);
       return className;
     }
 
+    /**
+     * Same as <code>Integer.parseInt(s.substring(start, end))</code> without the substring.
+     */
+    private static int parseInt(String s, int start, int end) {
+      final long result = parseLong(s, start, end);
+      if (result != (int)result) throw new NumberFormatException(s.substring(start, end));
+      return (int)result;
+    }
+
+    /**
+     * Same as <code>Long.parseLong(s.substring(start, end))</code> without the substring, but doesn't check overflow.
+     */
+    private static long parseLong(String s, int start, int end) {
+      if (start < 0 || end > s.length() || start >= end) {
+        throw new NumberFormatException("For input string: \"" + s + "\" [" + start + ", " + end + ")");
+      }
+
+      final boolean negative = s.charAt(start) == '-';
+      int i = negative ? start + 1 : start;
+      if (i == end) throw new NumberFormatException(s.substring(start, end));
+
+      long result = 0;
+      for (; i < end; ++i) {
+        final int digit = s.charAt(i) - '0';
+        if (digit < 0 || digit > 9) throw new NumberFormatException(s.substring(start, end));
+        result = result * 10 + digit;
+      }
+      return negative ? -result : result;
+    }
+
     void startingPacket(String output) {
       if (output.startsWith(BATCH_MARKER)) {
         if (LOG.isDebugEnabled()) {
@@ -428,11 +451,11 @@ public class ProfilingConnection {
       frameIndex = -1;
       frames = null;
       type = null;
-      specialArgs = null;
+      specialArgsStart = 0;
     }
 
     private void clearProfilingState() {
-      dictionary.clear();
+      frameDictionary.clear();
       typeDictionary.clear();
       lastCpuSample = null;
       lastCreateObjectSample = null;
@@ -11,26 +11,30 @@ public class CallTreeTestUtil {
   }
 
   public static CallTree getCallTreeFromXmlFile(@NotNull XmlTag rootTag) {
-    CallTreeNode root = getCallTreeNodeFromXmlTag(rootTag);
-    return new CallTree(root);
+    CallTree tree = new CallTree();
+    addChildrenFromXmlTag(tree, CallTree.ROOT, rootTag);
+    return tree;
   }
 
-  private static CallTreeNode getCallTreeNodeFromXmlTag(XmlTag rootTag) {
-    int count = Integer.MAX_VALUE;
-    String countStr = rootTag.getAttributeValue("count");
-    if (countStr != null) {
-      count = Integer.parseInt(countStr);
+  private static void addChildrenFromXmlTag(CallTree tree, int node, XmlTag tag) {
+    if (tag.isEmpty()) {
+      return;
     }
-    FrameInfo frameInfo = FrameUtil.getFrameInfo(rootTag.getName());
-    CallTreeNode node = new CallTreeNode(frameInfo, count);
-    if (rootTag.isEmpty()) {
-      return node;
+    int count = getCount(tag);
+    for (XmlTag childTag : tag.getSubTags()) {
+      FrameInfo frameInfo = FrameUtil.getFrameInfo(childTag.getName());
+      int childNode = tree.addChild(node, tree.getOrAddFrameId(frameInfo), getCount(childTag));
+      addChildrenFromXmlTag(tree, childNode, childTag);
+      long childrenCount = 0;
+      for (XmlTag grandChildTag : childTag.getSubTags()) {
+        childrenCount += getCount(grandChildTag);
+      }
+      Assert.assertTrue("Bad edge " + tag.getName() + "->" + childTag.getName(), childrenCount <= count);
     }
-    for (XmlTag childTag : rootTag.getSubTags()) {
-      CallTreeNode childNode = getCallTreeNodeFromXmlTag(childTag);
-      node.addChildRecursive(childNode);
-      Assert.assertTrue("Bad edge " + node.getFrameInfo() + "->" + childNode.getFrameInfo(), childNode.calcSelfTiming() <= count);
-    }
-    return node;
+  }
+
+  private static int getCount(XmlTag tag) {
+    String countStr = tag.getAttributeValue("count");
+    return countStr != null ? Integer.parseInt(countStr) : Integer.MAX_VALUE;
   }
 }